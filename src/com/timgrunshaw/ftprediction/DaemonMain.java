@@ -0,0 +1,70 @@
+package com.timgrunshaw.ftprediction;
+
+import com.timgrunshaw.ftprediction.daemon.RefreshDaemon;
+import com.timgrunshaw.ftprediction.dataretrieval.MelbourneDataSource;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Command line entry for running the refresh daemon, as an alternative to
+ * running Main from cron.
+ *
+ * Usage: DaemonMain [-d csvFolder] [-i refreshMinutes] [-p statusPort] [-b bindAddress] [-offline]
+ *
+ * Defaults: output/, every 60 minutes, port 8080 on the loopback address
+ * (-b 0.0.0.0 to listen on all interfaces). With -offline nothing is
+ * downloaded and only files put in the folder by something else are
+ * ingested. Stops cleanly on SIGTERM / Ctrl-C.
+ *
+ * @author Tim Grunshaw
+ */
+public class DaemonMain {
+
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 60;
+
+    public static void main(String[] args) throws IOException {
+        MelbourneDataSource melbourneDS = new MelbourneDataSource();
+        long refreshMinutes = 60;
+        int port = 8080;
+        InetAddress bindAddress = InetAddress.getLoopbackAddress();
+        boolean offline = false;
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-d") && i + 1 < args.length) {
+                melbourneDS.setOutputDirectory(args[++i]);
+            } else if (args[i].equals("-i") && i + 1 < args.length) {
+                refreshMinutes = Long.parseLong(args[++i]);
+            } else if (args[i].equals("-p") && i + 1 < args.length) {
+                port = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-b") && i + 1 < args.length) {
+                bindAddress = InetAddress.getByName(args[++i]);
+            } else if (args[i].equals("-offline")) {
+                offline = true;
+            } else {
+                throw new IllegalArgumentException("Unknown argument: " + args[i]);
+            }
+        }
+
+        final RefreshDaemon daemon = new RefreshDaemon(melbourneDS);
+        daemon.setDownloadEnabled(!offline);
+        daemon.load();
+        int boundPort = daemon.startStatusServer(bindAddress, port);
+        daemon.start(refreshMinutes, TimeUnit.MINUTES);
+        System.out.println("Loaded " + daemon.getPublished().getSnapshot().getDayCount()
+                + " days. Status on http://" + bindAddress.getHostAddress() + ":" + boundPort + "/status");
+
+        Runtime.getRuntime().addShutdownHook(new Thread("refresh-shutdown") {
+            @Override
+            public void run() {
+                try {
+                    if (!daemon.shutdown(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                        System.err.println("Refresh did not finish within " + SHUTDOWN_TIMEOUT_SECONDS + "s");
+                    }
+                } catch (InterruptedException iEx) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+    }
+}
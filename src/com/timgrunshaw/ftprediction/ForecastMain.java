@@ -0,0 +1,70 @@
+package com.timgrunshaw.ftprediction;
+
+import com.timgrunshaw.ftprediction.data.HourIndex;
+import com.timgrunshaw.ftprediction.data.SensorColumns;
+import com.timgrunshaw.ftprediction.dataretrieval.MelbourneDataSource;
+import com.timgrunshaw.ftprediction.forecast.BaselineProfiles;
+import com.timgrunshaw.ftprediction.forecast.BatchScorer;
+import com.timgrunshaw.ftprediction.forecast.ForecastWriter;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+
+/**
+ * Command line entry for writing baseline forecasts of every sensor.
+ *
+ * Usage: ForecastMain [-d csvFolder] [-w weeks] [-from yyyy-mm-dd] [-days n] output
+ *
+ * Forecasts start the day after the last data unless -from is given, and
+ * cover 31 days by default. An output ending in .arrow is written as an Arrow
+ * IPC file, anything else as CSV. Sensors without a reading in the fitted
+ * weeks have no forecast, and are written as N/A in the CSV.
+ *
+ * @author Tim Grunshaw
+ */
+public class ForecastMain {
+
+    public static void main(String[] args) throws IOException {
+        MelbourneDataSource melbourneDS = new MelbourneDataSource();
+        int weeks = BaselineProfiles.DEFAULT_WEEKS;
+        LocalDate from = null;
+        int days = 31;
+        Path output = null;
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-d") && i + 1 < args.length) {
+                melbourneDS.setOutputDirectory(args[++i]);
+            } else if (args[i].equals("-w") && i + 1 < args.length) {
+                weeks = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-from") && i + 1 < args.length) {
+                from = LocalDate.parse(args[++i]);
+            } else if (args[i].equals("-days") && i + 1 < args.length) {
+                days = Integer.parseInt(args[++i]);
+            } else {
+                output = Paths.get(args[i]);
+            }
+        }
+        if (output == null) {
+            System.err.println("Usage: ForecastMain [-d csvFolder] [-w weeks] [-from yyyy-mm-dd] [-days n] output");
+            System.exit(1);
+        }
+
+        SensorColumns history = melbourneDS.createMelbourne().toColumns();
+        if (from == null) {
+            // The first whole day after the last hour of data.
+            from = HourIndex.toDate(history.getFirstHour() + history.getHours() + HourIndex.HOURS_PER_DAY - 1);
+        }
+
+        long start = System.nanoTime();
+        SensorColumns forecast = new BatchScorer(BaselineProfiles.fit(history, weeks)).score(from, days);
+        if (output.getFileName().toString().endsWith(".arrow")) {
+            ForecastWriter.writeArrow(forecast, output);
+        } else {
+            ForecastWriter.writeCsv(forecast, output, "N/A");
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println("Wrote " + forecast.getHours() + " hours x " + forecast.getSensorCount()
+                + " sensors from " + from + " to " + output + " in " + String.format("%.1f", elapsed / 1e6) + " ms");
+    }
+}
@@ -0,0 +1,68 @@
+package com.timgrunshaw.ftprediction;
+
+import com.timgrunshaw.ftprediction.calendar.EventCalendar;
+import com.timgrunshaw.ftprediction.data.Melbourne;
+import com.timgrunshaw.ftprediction.dataretrieval.MelbourneDataSource;
+import com.timgrunshaw.ftprediction.query.QueryEngine;
+import com.timgrunshaw.ftprediction.query.QueryResult;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Paths;
+
+/**
+ * Command line entry for running queries over the Melbourne data.
+ *
+ * Usage: QueryMain [-d csvFolder] [-e eventsFile] [query]
+ *
+ * If no query is given, queries are read from standard input, one per line.
+ * See QueryParser for the query language.
+ *
+ * @author Tim Grunshaw
+ */
+public class QueryMain {
+
+    public static void main(String[] args) throws IOException {
+        MelbourneDataSource melbourneDS = new MelbourneDataSource();
+        EventCalendar events = new EventCalendar();
+        String query = null;
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-d") && i + 1 < args.length) {
+                melbourneDS.setOutputDirectory(args[++i]);
+            } else if (args[i].equals("-e") && i + 1 < args.length) {
+                events = EventCalendar.load(Paths.get(args[++i]));
+            } else {
+                query = args[i];
+            }
+        }
+
+        Melbourne melbourne = melbourneDS.createMelbourne();
+        QueryEngine engine = new QueryEngine(melbourne.toColumns(), events);
+
+        if (query != null) {
+            run(engine, query);
+        } else {
+            BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+            String line = null;
+            while ((line = in.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    run(engine, line);
+                }
+            }
+        }
+    }
+
+    private static void run(QueryEngine engine, String query) throws IOException {
+        try {
+            long start = System.nanoTime();
+            QueryResult result = engine.execute(query);
+            long elapsed = System.nanoTime() - start;
+            result.write(System.out);
+            System.out.println("(" + result.getGroupCount() + " rows, "
+                    + String.format("%.2f", elapsed / 1e6) + " ms)");
+        } catch (IllegalArgumentException iaEx) {
+            System.err.println(iaEx.getMessage());
+        }
+    }
+}
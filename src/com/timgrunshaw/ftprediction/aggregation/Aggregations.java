@@ -0,0 +1,191 @@
+package com.timgrunshaw.ftprediction.aggregation;
+
+import com.timgrunshaw.ftprediction.data.HourIndex;
+import com.timgrunshaw.ftprediction.data.SensorColumns;
+import java.util.Arrays;
+
+/**
+ * Aggregation kernels over primitive sensor columns (see SensorColumns).
+ *
+ * The loops are written so that HotSpot's C2 compiler can turn them into SIMD
+ * code: unit stride, no calls, and no data dependent branches. Missing hours
+ * are skipped with a mask built from the missing bitmap rather than a branch,
+ * and words of the bitmap that are all present or all missing take a fast path.
+ *
+ * All ranges are rows [from, to) of the columns.
+ *
+ * @author Tim Grunshaw
+ */
+public final class Aggregations {
+
+    private Aggregations() {
+    }
+
+    public static long sum(int[] column, int from, int to) {
+        long s0 = 0;
+        long s1 = 0;
+        long s2 = 0;
+        long s3 = 0;
+        int i = from;
+        for (; i + 3 < to; i += 4) {
+            s0 += column[i];
+            s1 += column[i + 1];
+            s2 += column[i + 2];
+            s3 += column[i + 3];
+        }
+        for (; i < to; i++) {
+            s0 += column[i];
+        }
+        return s0 + s1 + s2 + s3;
+    }
+
+    /**
+     * Sum of the rows that are not missing.
+     * @param column
+     * @param missing - missing bitmap of the column, or null if none are missing
+     * @param from
+     * @param to
+     * @return
+     */
+    public static long maskedSum(int[] column, long[] missing, int from, int to) {
+        if (missing == null) {
+            return sum(column, from, to);
+        }
+        long total = 0;
+        int i = from;
+        // Unaligned start, up to the next word of the bitmap.
+        for (; i < to && (i & 63) != 0; i++) {
+            total += column[i] & presentMask(missing, i);
+        }
+        for (; i + 64 <= to; i += 64) {
+            long word = missing[i >>> 6];
+            if (word == 0) {
+                total += sum(column, i, i + 64);
+            } else if (word != -1L) {
+                for (int j = 0; j < 64; j++) {
+                    // -1 if bit j is clear (present), 0 if set (missing)
+                    total += column[i + j] & (int) (((word >>> j) & 1) - 1);
+                }
+            }
+        }
+        for (; i < to; i++) {
+            total += column[i] & presentMask(missing, i);
+        }
+        return total;
+    }
+
+    /**
+     * The number of rows that are not missing.
+     */
+    public static int presentCount(long[] missing, int from, int to) {
+        if (missing == null) {
+            return to - from;
+        }
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            count += (int) (((missing[i >>> 6] >>> i) & 1) ^ 1);
+        }
+        return count;
+    }
+
+    /**
+     * Mean of the rows that are not missing, NaN if all are missing.
+     */
+    public static double maskedMean(int[] column, long[] missing, int from, int to) {
+        int count = presentCount(missing, from, to);
+        return count == 0 ? Double.NaN : (double) maskedSum(column, missing, from, to) / count;
+    }
+
+    public static int max(int[] column, int from, int to) {
+        int m0 = Integer.MIN_VALUE;
+        int m1 = Integer.MIN_VALUE;
+        int i = from;
+        for (; i + 1 < to; i += 2) {
+            m0 = Math.max(m0, column[i]);
+            m1 = Math.max(m1, column[i + 1]);
+        }
+        for (; i < to; i++) {
+            m0 = Math.max(m0, column[i]);
+        }
+        return Math.max(m0, m1);
+    }
+
+    /**
+     * The number of rows with a count greater than the threshold.
+     */
+    public static int countAbove(int[] column, int threshold, int from, int to) {
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            // Sign bit of (threshold - v) is set when v > threshold.
+            count += (int) (((long) threshold - column[i]) >>> 63);
+        }
+        return count;
+    }
+
+    /**
+     * The city total (sum of every sensor) for each row, written to totals
+     * from index 0. Rows are processed in tiles that stay in the L1 cache, and
+     * within a tile the columns are added one at a time, so each pass is a
+     * unit stride add of two arrays.
+     * @param columns
+     * @param from
+     * @param to
+     * @param totals - at least to - from long
+     */
+    public static void rowTotals(SensorColumns columns, int from, int to, long[] totals) {
+        final int tile = 512;
+        int sensors = columns.getSensorCount();
+        // int accumulators vectorize better than widening into long, and the
+        // hourly total of the city is far below Integer.MAX_VALUE.
+        int[] acc = new int[tile];
+        for (int tileStart = from; tileStart < to; tileStart += tile) {
+            int length = Math.min(to, tileStart + tile) - tileStart;
+            Arrays.fill(acc, 0);
+            for (int s = 0; s < sensors; s++) {
+                int[] column = columns.getColumn(s);
+                for (int i = 0; i < length; i++) {
+                    acc[i] += column[tileStart + i];
+                }
+            }
+            int out = tileStart - from;
+            for (int i = 0; i < length; i++) {
+                totals[out + i] = acc[i];
+            }
+        }
+    }
+
+    /**
+     * Adds the rows of the column into 168 buckets by hour of the week
+     * (0 = Monday midnight).
+     * @param column
+     * @param firstHour - hour index of row 0
+     * @param from
+     * @param to
+     * @param buckets - 168 sums, added to
+     */
+    public static void hourOfWeekSums(int[] column, int firstHour, int from, int to, long[] buckets) {
+        final int week = HourIndex.HOURS_PER_WEEK;
+        // Accumulate whole weeks relative to the first row, then rotate into place.
+        long[] acc = new long[week];
+        int i = from;
+        for (; i + week <= to; i += week) {
+            for (int j = 0; j < week; j++) {
+                acc[j] += column[i + j];
+            }
+        }
+        for (int j = 0; i < to; i++, j++) {
+            acc[j] += column[i];
+        }
+        int start = HourIndex.hourOfWeek(firstHour + from);
+        for (int j = 0; j < week; j++) {
+            buckets[(start + j) % week] += acc[j];
+        }
+    }
+
+    /**
+     * -1 (all bits) if the row is present, 0 if it is missing.
+     */
+    private static int presentMask(long[] missing, int i) {
+        return (int) (((missing[i >>> 6] >>> i) & 1) - 1);
+    }
+}
@@ -0,0 +1,344 @@
+package com.timgrunshaw.ftprediction.archive;
+
+import com.timgrunshaw.ftprediction.data.Bitmaps;
+import com.timgrunshaw.ftprediction.data.HourIndex;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The hourly counts of one sensor, compressed in independently decodable
+ * blocks of four weeks.
+ *
+ * Each block starts with a mode byte and is then a sequence of tokens. A
+ * token starts with a varint tag of (length &lt;&lt; 2 | kind):
+ * RUN_LITERAL is followed by length zigzag varints, each the difference
+ * between the count and its prediction; RUN_ZERO is length zero counts;
+ * RUN_MISSING is length missing hours (decoded as zero).
+ *
+ * The prediction is the previous hour (MODE_DELTA) or the same hour of the
+ * previous week (MODE_SEASONAL, previous hour during the first week of the
+ * block). Each block is encoded both ways and the smaller is kept.
+ *
+ * @author Tim Grunshaw
+ */
+public class CompressedSeries {
+
+    public static final int BLOCK_HOURS = 4 * HourIndex.HOURS_PER_WEEK;
+
+    static final int MODE_DELTA = 0;
+    static final int MODE_SEASONAL = 1;
+
+    static final int RUN_LITERAL = 0;
+    static final int RUN_ZERO = 1;
+    static final int RUN_MISSING = 2;
+
+    // Shorter runs of zeros are cheaper as literals.
+    private static final int MIN_ZERO_RUN = 4;
+
+    private final int firstHour;
+    private final int hours;
+    private final int[] blockOffsets; // Start of each block in data, plus the end
+    private final byte[] data;
+
+    private CompressedSeries(int firstHour, int hours, int[] blockOffsets, byte[] data) {
+        this.firstHour = firstHour;
+        this.hours = hours;
+        this.blockOffsets = blockOffsets;
+        this.data = data;
+    }
+
+    /**
+     * Compresses a column of counts.
+     * @param firstHour - hour index of counts[0]
+     * @param counts
+     * @param missing - bitmap of missing rows (bit i = row i), or null if none are missing
+     * @return
+     */
+    public static CompressedSeries encode(int firstHour, int[] counts, long[] missing) {
+        int blocks = (counts.length + BLOCK_HOURS - 1) / BLOCK_HOURS;
+        int[] offsets = new int[blocks + 1];
+        Encoder out = new Encoder(counts.length);
+        Encoder delta = new Encoder(BLOCK_HOURS);
+        Encoder seasonal = new Encoder(BLOCK_HOURS);
+
+        for (int b = 0; b < blocks; b++) {
+            int start = b * BLOCK_HOURS;
+            int end = Math.min(counts.length, start + BLOCK_HOURS);
+            delta.reset();
+            seasonal.reset();
+            encodeBlock(counts, missing, start, end, MODE_DELTA, delta);
+            encodeBlock(counts, missing, start, end, MODE_SEASONAL, seasonal);
+            Encoder best = seasonal.size < delta.size ? seasonal : delta;
+
+            offsets[b] = out.size;
+            out.writeBytes(best.buffer, best.size);
+        }
+        offsets[blocks] = out.size;
+        return new CompressedSeries(firstHour, counts.length, offsets, Arrays.copyOf(out.buffer, out.size));
+    }
+
+    private static boolean isMissing(long[] missing, int row) {
+        return missing != null && Bitmaps.get(missing, row);
+    }
+
+    private static void encodeBlock(int[] counts, long[] missing, int start, int end, int mode, Encoder out) {
+        out.writeByte(mode);
+        int i = start;
+        while (i < end) {
+            // Missing run
+            int run = 0;
+            while (i + run < end && isMissing(missing, i + run)) {
+                run++;
+            }
+            if (run > 0) {
+                out.writeVarint(run << 2 | RUN_MISSING);
+                i += run;
+                continue;
+            }
+            // Zero run
+            while (i + run < end && counts[i + run] == 0 && !isMissing(missing, i + run)) {
+                run++;
+            }
+            if (run >= MIN_ZERO_RUN) {
+                out.writeVarint(run << 2 | RUN_ZERO);
+                i += run;
+                continue;
+            }
+            // Literal run, up to the next missing hour or long zero run
+            int literalEnd = i;
+            while (literalEnd < end && !isMissing(missing, literalEnd)
+                    && !startsZeroRun(counts, missing, literalEnd, end)) {
+                literalEnd++;
+            }
+            out.writeVarint((literalEnd - i) << 2 | RUN_LITERAL);
+            for (int j = i; j < literalEnd; j++) {
+                int prediction = predict(counts, missing, start, j, mode);
+                int diff = counts[j] - prediction;
+                out.writeVarint((diff << 1) ^ (diff >> 31));
+            }
+            i = literalEnd;
+        }
+    }
+
+    private static boolean startsZeroRun(int[] counts, long[] missing, int i, int end) {
+        if (i + MIN_ZERO_RUN > end) {
+            return false;
+        }
+        for (int j = i; j < i + MIN_ZERO_RUN; j++) {
+            if (counts[j] != 0 || isMissing(missing, j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The prediction of row i, using the decoded values (missing rows are zero).
+     */
+    private static int predict(int[] counts, long[] missing, int blockStart, int i, int mode) {
+        int reference;
+        if (mode == MODE_SEASONAL && i - HourIndex.HOURS_PER_WEEK >= blockStart) {
+            reference = i - HourIndex.HOURS_PER_WEEK;
+        } else if (i > blockStart) {
+            reference = i - 1;
+        } else {
+            return 0;
+        }
+        return isMissing(missing, reference) ? 0 : counts[reference];
+    }
+
+    public int getFirstHour() {
+        return firstHour;
+    }
+
+    public int getHours() {
+        return hours;
+    }
+
+    public int getBlockCount() {
+        return blockOffsets.length - 1;
+    }
+
+    /**
+     * @return the size of the compressed data in bytes.
+     */
+    public int getCompressedSize() {
+        return data.length + blockOffsets.length * 4;
+    }
+
+    /**
+     * Decodes one block.
+     * @param block
+     * @param counts - at least BLOCK_HOURS long, filled from index 0
+     * @param missing - null, or at least Bitmaps.length(BLOCK_HOURS) longs, filled with the missing bitmap of the block
+     * @return the number of hours in the block
+     */
+    public int decodeBlock(int block, int[] counts, long[] missing) {
+        if (counts.length < BLOCK_HOURS || (missing != null && missing.length < Bitmaps.length(BLOCK_HOURS))) {
+            throw new IllegalArgumentException("Need room for " + BLOCK_HOURS + " counts and "
+                    + Bitmaps.length(BLOCK_HOURS) + " missing longs");
+        }
+        int pos = blockOffsets[block];
+        int mode = data[pos++];
+        int length = Math.min(BLOCK_HOURS, hours - block * BLOCK_HOURS);
+        if (missing != null) {
+            Arrays.fill(missing, 0, Bitmaps.length(length), 0L);
+        }
+
+        int i = 0;
+        while (i < length) {
+            // Inline varint decoding of the tag
+            int tag = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[pos++];
+                tag |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+
+            int run = tag >>> 2;
+            switch (tag & 3) {
+                case RUN_LITERAL:
+                    // Hours with a previous hour / previous week in the block.
+                    int end = i + run;
+                    int seasonalFrom = mode == MODE_SEASONAL ? HourIndex.HOURS_PER_WEEK : Integer.MAX_VALUE;
+                    for (; i < end; i++) {
+                        int zigzag = data[pos++];
+                        if (zigzag < 0) {
+                            zigzag &= 0x7F;
+                            shift = 7;
+                            do {
+                                b = data[pos++];
+                                zigzag |= (b & 0x7F) << shift;
+                                shift += 7;
+                            } while (b < 0);
+                        }
+                        int prediction;
+                        if (i >= seasonalFrom) {
+                            prediction = counts[i - HourIndex.HOURS_PER_WEEK];
+                        } else {
+                            prediction = i > 0 ? counts[i - 1] : 0;
+                        }
+                        counts[i] = prediction + ((zigzag >>> 1) ^ -(zigzag & 1));
+                    }
+                    break;
+                case RUN_ZERO:
+                    Arrays.fill(counts, i, i + run, 0);
+                    i += run;
+                    break;
+                case RUN_MISSING:
+                    Arrays.fill(counts, i, i + run, 0);
+                    if (missing != null) {
+                        Bitmaps.setRange(missing, i, i + run);
+                    }
+                    i += run;
+                    break;
+                default:
+                    throw new IllegalStateException("Corrupt block " + block + " at byte " + pos);
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Decodes the rows [fromRow, toRow) into counts (from index 0) and
+     * optionally missing (bit 0 = fromRow).
+     * @param fromRow
+     * @param toRow
+     * @param counts
+     * @param missing - may be null
+     */
+    public void decode(int fromRow, int toRow, int[] counts, long[] missing) {
+        if (fromRow < 0 || toRow > hours || fromRow > toRow) {
+            throw new IllegalArgumentException("Invalid row range: " + fromRow + " - " + toRow);
+        }
+        if (missing != null) {
+            Arrays.fill(missing, 0, Bitmaps.length(toRow - fromRow), 0L);
+        }
+        int[] blockCounts = new int[BLOCK_HOURS];
+        long[] blockMissing = missing == null ? null : new long[Bitmaps.length(BLOCK_HOURS)];
+        for (int block = fromRow / BLOCK_HOURS; block * BLOCK_HOURS < toRow; block++) {
+            int blockStart = block * BLOCK_HOURS;
+            int length = decodeBlock(block, blockCounts, blockMissing);
+            int from = Math.max(fromRow, blockStart);
+            int to = Math.min(toRow, blockStart + length);
+            System.arraycopy(blockCounts, from - blockStart, counts, from - fromRow, to - from);
+            if (missing != null) {
+                for (int row = from; row < to; row++) {
+                    if (Bitmaps.get(blockMissing, row - blockStart)) {
+                        Bitmaps.set(missing, row - fromRow);
+                    }
+                }
+            }
+        }
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(firstHour);
+        out.writeInt(hours);
+        out.writeInt(blockOffsets.length);
+        for (int offset : blockOffsets) {
+            out.writeInt(offset);
+        }
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    public static CompressedSeries readFrom(DataInput in) throws IOException {
+        int firstHour = in.readInt();
+        int hours = in.readInt();
+        int[] offsets = new int[in.readInt()];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = in.readInt();
+        }
+        byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+        return new CompressedSeries(firstHour, hours, offsets, data);
+    }
+
+    /**
+     * A growable byte buffer for encoding.
+     */
+    private static final class Encoder {
+
+        byte[] buffer;
+        int size;
+
+        Encoder(int initialCapacity) {
+            buffer = new byte[Math.max(16, initialCapacity)];
+        }
+
+        void reset() {
+            size = 0;
+        }
+
+        void ensure(int extra) {
+            if (size + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+            }
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            buffer[size++] = (byte) b;
+        }
+
+        void writeVarint(int value) {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        void writeBytes(byte[] bytes, int length) {
+            ensure(length);
+            System.arraycopy(bytes, 0, buffer, size, length);
+            size += length;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.timgrunshaw.ftprediction.archive;
+
+import com.timgrunshaw.ftprediction.data.Bitmaps;
+import com.timgrunshaw.ftprediction.data.SensorColumns;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Compressed history of every sensor, one CompressedSeries per sensor. Used
+ * to keep years of cold history on disk and in memory at a fraction of the
+ * size of the day CSV files or the Sensor TreeMaps.
+ *
+ * @author Tim Grunshaw
+ */
+public class SensorArchive {
+
+    private static final int FILE_MAGIC = 0x46544152; // "FTAR"
+    private static final int FILE_VERSION = 1;
+
+    private final String[] sensorNames;
+    private final CompressedSeries[] series;
+
+    private SensorArchive(String[] sensorNames, CompressedSeries[] series) {
+        this.sensorNames = sensorNames;
+        this.series = series;
+    }
+
+    public static SensorArchive of(SensorColumns columns) {
+        CompressedSeries[] series = new CompressedSeries[columns.getSensorCount()];
+        for (int s = 0; s < series.length; s++) {
+            series[s] = CompressedSeries.encode(columns.getFirstHour(), columns.getColumn(s), columns.getMissing(s));
+        }
+        return new SensorArchive(columns.getSensorNames(), series);
+    }
+
+    public String[] getSensorNames() {
+        return sensorNames.clone();
+    }
+
+    public CompressedSeries getSeries(String sensor) {
+        for (int i = 0; i < sensorNames.length; i++) {
+            if (sensorNames[i].equals(sensor)) {
+                return series[i];
+            }
+        }
+        throw new IllegalArgumentException("No such sensor: " + sensor);
+    }
+
+    /**
+     * @return the total compressed size of all sensors in bytes.
+     */
+    public long getCompressedSize() {
+        long size = 0;
+        for (CompressedSeries s : series) {
+            size += s.getCompressedSize();
+        }
+        return size;
+    }
+
+    /**
+     * Decompresses every sensor back into columns.
+     * @return
+     */
+    public SensorColumns toColumns() {
+        int hours = series.length == 0 ? 0 : series[0].getHours();
+        int[][] counts = new int[series.length][hours];
+        long[][] missing = new long[series.length][Bitmaps.length(hours)];
+        for (int s = 0; s < series.length; s++) {
+            series[s].decode(0, hours, counts[s], missing[s]);
+        }
+        int firstHour = series.length == 0 ? 0 : series[0].getFirstHour();
+        return new SensorColumns(sensorNames, firstHour, counts, missing);
+    }
+
+    public void write(Path dest) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(dest)))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeInt(sensorNames.length);
+            for (int s = 0; s < sensorNames.length; s++) {
+                out.writeUTF(sensorNames[s]);
+                series[s].writeTo(out);
+            }
+        }
+    }
+
+    public static SensorArchive read(Path source) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(source)))) {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                throw new IOException("Not a sensor archive file: " + source);
+            }
+            String[] names = new String[in.readInt()];
+            CompressedSeries[] series = new CompressedSeries[names.length];
+            for (int s = 0; s < names.length; s++) {
+                names[s] = in.readUTF();
+                series[s] = CompressedSeries.readFrom(in);
+            }
+            return new SensorArchive(names, series);
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package com.timgrunshaw.ftprediction.arrow;
+
+import com.timgrunshaw.ftprediction.archive.CompressedSeries;
+import com.timgrunshaw.ftprediction.archive.SensorArchive;
+import com.timgrunshaw.ftprediction.data.Bitmaps;
+import com.timgrunshaw.ftprediction.data.SensorColumns;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Writes sensor data as an Apache Arrow IPC file (format version V5), which
+ * pyarrow and pandas (read_feather) can memory map without parsing.
+ *
+ * The schema is a non-null "time" column (timestamp, milliseconds, no time
+ * zone) followed by one nullable int32 column per sensor. Missing hours are
+ * null in the validity bitmap, so they stay distinct from zero counts.
+ *
+ * Rows are written in record batches of batchHours rows, and only one batch
+ * is held in memory at a time.
+ *
+ * @author Tim Grunshaw
+ */
+public class ArrowExporter {
+
+    public static final int DEFAULT_BATCH_HOURS = 8192;
+    public static final String TIME_COLUMN = "time";
+
+    static final byte[] MAGIC = "ARROW1".getBytes(StandardCharsets.US_ASCII);
+    static final int CONTINUATION = 0xFFFFFFFF;
+    static final short METADATA_V5 = 4;
+    static final int HEADER_SCHEMA = 1;
+    static final int HEADER_RECORD_BATCH = 3;
+    static final int TYPE_INT = 2;
+    static final int TYPE_TIMESTAMP = 10;
+    static final int UNIT_MILLISECOND = 1;
+    static final long MILLIS_PER_HOUR = 3600000L;
+
+    // Buffers are padded to 64 bytes, as recommended by the Arrow format.
+    private static final int BUFFER_ALIGNMENT = 64;
+
+    /**
+     * Where the exporter reads the rows of each sensor from.
+     */
+    private interface ColumnSource {
+
+        String[] sensorNames();
+
+        int firstHour();
+
+        int hours();
+
+        /**
+         * Fills counts and missing (bit 0 = fromRow) for the rows [fromRow, toRow).
+         */
+        void read(int sensor, int fromRow, int toRow, int[] counts, long[] missing);
+    }
+
+    public static void write(final SensorColumns columns, Path dest) throws IOException {
+        write(columns, dest, DEFAULT_BATCH_HOURS);
+    }
+
+    public static void write(final SensorColumns columns, Path dest, int batchHours) throws IOException {
+        write(new ColumnSource() {
+            @Override
+            public String[] sensorNames() {
+                return columns.getSensorNames();
+            }
+
+            @Override
+            public int firstHour() {
+                return columns.getFirstHour();
+            }
+
+            @Override
+            public int hours() {
+                return columns.getHours();
+            }
+
+            @Override
+            public void read(int sensor, int fromRow, int toRow, int[] counts, long[] missing) {
+                System.arraycopy(columns.getColumn(sensor), fromRow, counts, 0, toRow - fromRow);
+                Arrays.fill(missing, 0L);
+                for (int row = fromRow; row < toRow; row++) {
+                    if (columns.isMissing(sensor, row)) {
+                        Bitmaps.set(missing, row - fromRow);
+                    }
+                }
+            }
+        }, dest, batchHours);
+    }
+
+    /**
+     * Exports a compressed archive, decompressing one batch at a time.
+     * @param archive
+     * @param dest
+     * @param batchHours
+     * @throws IOException
+     */
+    public static void write(final SensorArchive archive, Path dest, int batchHours) throws IOException {
+        final String[] names = archive.getSensorNames();
+        final CompressedSeries[] series = new CompressedSeries[names.length];
+        for (int s = 0; s < names.length; s++) {
+            series[s] = archive.getSeries(names[s]);
+        }
+        write(new ColumnSource() {
+            @Override
+            public String[] sensorNames() {
+                return names;
+            }
+
+            @Override
+            public int firstHour() {
+                return series.length == 0 ? 0 : series[0].getFirstHour();
+            }
+
+            @Override
+            public int hours() {
+                return series.length == 0 ? 0 : series[0].getHours();
+            }
+
+            @Override
+            public void read(int sensor, int fromRow, int toRow, int[] counts, long[] missing) {
+                series[sensor].decode(fromRow, toRow, counts, missing);
+            }
+        }, dest, batchHours);
+    }
+
+    private static void write(ColumnSource source, Path dest, int batchHours) throws IOException {
+        if (batchHours <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchHours);
+        }
+        String[] names = source.sensorNames();
+        ArrayList<long[]> blocks = new ArrayList<>(); // offset, metadata length, body length
+
+        try (CountingOutput out = new CountingOutput(new BufferedOutputStream(Files.newOutputStream(dest)))) {
+            out.write(MAGIC);
+            out.write(new byte[2]);
+
+            writeMessage(out, HEADER_SCHEMA, schema(names), null, 0);
+
+            int[] counts = new int[batchHours];
+            long[] missing = new long[Bitmaps.length(batchHours)];
+            int fieldCount = names.length + 1;
+            for (int from = 0; from < source.hours(); from += batchHours) {
+                int rows = Math.min(batchHours, source.hours() - from);
+                int timeBytes = align(rows * 8);
+                int validityBytes = align(Bitmaps.length(rows) * 8);
+                int dataBytes = align(rows * 4);
+
+                // Body: time data, then validity and data of each sensor.
+                ByteBuffer body = ByteBuffer.allocate(timeBytes + names.length * (validityBytes + dataBytes))
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                long[] nodes = new long[2 * fieldCount];
+                long[] buffers = new long[4 * fieldCount];
+
+                long hourMillis = (long) (source.firstHour() + from) * MILLIS_PER_HOUR;
+                for (int i = 0; i < rows; i++) {
+                    body.putLong(i * 8, hourMillis + i * MILLIS_PER_HOUR);
+                }
+                nodes[0] = rows;
+                buffers[2] = 0; // Validity buffer of length 0: no nulls
+                buffers[3] = rows * 8L;
+
+                int offset = timeBytes;
+                for (int s = 0; s < names.length; s++) {
+                    source.read(s, from, from + rows, counts, missing);
+                    int words = Bitmaps.length(rows);
+                    int validCount = 0;
+                    for (int w = 0; w < words; w++) {
+                        // Arrow validity is the inverse of missing, unused bits are zero.
+                        long valid = ~missing[w];
+                        if (w == words - 1 && rows % 64 != 0) {
+                            valid &= (1L << (rows % 64)) - 1;
+                        }
+                        validCount += Long.bitCount(valid);
+                        body.putLong(offset + w * 8, valid);
+                    }
+                    int nullCount = rows - validCount;
+                    int field = s + 1;
+                    nodes[2 * field] = rows;
+                    nodes[2 * field + 1] = nullCount;
+                    buffers[4 * field] = offset;
+                    buffers[4 * field + 1] = nullCount == 0 ? 0 : Bitmaps.length(rows) * 8L;
+                    offset += validityBytes;
+
+                    for (int i = 0; i < rows; i++) {
+                        body.putInt(offset + i * 4, counts[i]);
+                    }
+                    buffers[4 * field + 2] = offset;
+                    buffers[4 * field + 3] = rows * 4L;
+                    offset += dataBytes;
+                }
+
+                FlatBuffers.Table batch = new FlatBuffers.Table()
+                        .addLong(0, rows)
+                        .addChild(1, new FlatBuffers.StructVector(fieldCount, FlatBuffers.longs(nodes)))
+                        .addChild(2, new FlatBuffers.StructVector(2 * fieldCount, FlatBuffers.longs(buffers)));
+                blocks.add(writeMessage(out, HEADER_RECORD_BATCH, batch, body.array(), body.capacity()));
+            }
+
+            // End of stream marker, then the footer.
+            out.writeIntLE(CONTINUATION);
+            out.writeIntLE(0);
+
+            long[] blockLongs = new long[3 * blocks.size()];
+            for (int b = 0; b < blocks.size(); b++) {
+                System.arraycopy(blocks.get(b), 0, blockLongs, 3 * b, 3);
+            }
+            FlatBuffers.Table footer = new FlatBuffers.Table()
+                    .addShort(0, METADATA_V5)
+                    .addChild(1, schema(names))
+                    .addChild(3, new FlatBuffers.StructVector(blocks.size(), FlatBuffers.longs(blockLongs)));
+            byte[] footerBytes = FlatBuffers.finish(footer);
+            out.write(footerBytes);
+            out.writeIntLE(footerBytes.length);
+            out.write(MAGIC);
+        }
+    }
+
+    private static FlatBuffers.Table schema(String[] names) {
+        ArrayList<FlatBuffers.Table> fields = new ArrayList<>();
+        fields.add(field(TIME_COLUMN, false, TYPE_TIMESTAMP,
+                new FlatBuffers.Table().addShort(0, UNIT_MILLISECOND)));
+        for (String name : names) {
+            fields.add(field(name, true, TYPE_INT,
+                    new FlatBuffers.Table().addInt(0, 32).addBool(1, true)));
+        }
+        return new FlatBuffers.Table()
+                .addShort(0, 0) // Little endian
+                .addChild(1, new FlatBuffers.NodeVector(fields));
+    }
+
+    private static FlatBuffers.Table field(String name, boolean nullable, int typeType, FlatBuffers.Table type) {
+        return new FlatBuffers.Table()
+                .addChild(0, new FlatBuffers.StringNode(name))
+                .addBool(1, nullable)
+                .addByte(2, typeType)
+                .addChild(3, type)
+                .addChild(5, new FlatBuffers.NodeVector(Collections.<FlatBuffers.Node>emptyList()));
+    }
+
+    /**
+     * Writes an encapsulated message: continuation marker, metadata length,
+     * Message flatbuffer padded to 8 bytes, then the body.
+     * @return the Block (offset, metadata length, body length) of the message
+     */
+    private static long[] writeMessage(CountingOutput out, int headerType, FlatBuffers.Table header,
+            byte[] body, int bodyLength) throws IOException {
+        FlatBuffers.Table message = new FlatBuffers.Table()
+                .addShort(0, METADATA_V5)
+                .addByte(1, headerType)
+                .addChild(2, header)
+                .addLong(3, bodyLength);
+        byte[] metadata = FlatBuffers.finish(message);
+        int paddedLength = (metadata.length + 8 + 7) / 8 * 8 - 8;
+
+        long offset = out.count;
+        out.writeIntLE(CONTINUATION);
+        out.writeIntLE(paddedLength);
+        out.write(metadata);
+        out.write(new byte[paddedLength - metadata.length]);
+        if (body != null) {
+            out.write(body, 0, bodyLength);
+        }
+        return new long[]{offset, paddedLength + 8, bodyLength};
+    }
+
+    private static int align(int bytes) {
+        return (bytes + BUFFER_ALIGNMENT - 1) / BUFFER_ALIGNMENT * BUFFER_ALIGNMENT;
+    }
+
+    /**
+     * Tracks the file position for the footer blocks.
+     */
+    private static final class CountingOutput extends OutputStream {
+
+        private final OutputStream out;
+        long count;
+
+        CountingOutput(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        void writeIntLE(int value) throws IOException {
+            write(new byte[]{(byte) value, (byte) (value >>> 8), (byte) (value >>> 16), (byte) (value >>> 24)}, 0, 4);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.timgrunshaw.ftprediction.arrow;
+
+import com.timgrunshaw.ftprediction.data.Bitmaps;
+import com.timgrunshaw.ftprediction.data.SensorColumns;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * Reads an Apache Arrow IPC file with a timestamp column and int32 sensor
+ * columns, such as one written by ArrowExporter or by pyarrow from a table
+ * with the same layout.
+ *
+ * The file is memory mapped and the buffers are read in place. Rows do not
+ * need to be contiguous or in order; hours without a row are missing. Nulls
+ * become missing hours. Compressed record batches and other column types are
+ * not supported.
+ *
+ * @author Tim Grunshaw
+ */
+public class ArrowImporter {
+
+    private static final int TIME_UNIT_SECOND = 0;
+
+    private ArrowImporter() {
+    }
+
+    public static SensorColumns read(Path source) throws IOException {
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Arrow file is too large: " + source);
+            }
+            ByteBuffer bb = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            return read(bb, source);
+        }
+    }
+
+    private static SensorColumns read(ByteBuffer bb, Path source) throws IOException {
+        int size = bb.capacity();
+        for (int i = 0; i < ArrowExporter.MAGIC.length; i++) {
+            if (bb.get(i) != ArrowExporter.MAGIC[i] || bb.get(size - 6 + i) != ArrowExporter.MAGIC[i]) {
+                throw new IOException("Not an Arrow IPC file: " + source);
+            }
+        }
+        int footerLength = bb.getInt(size - 10);
+        int footer = FlatBuffers.root(bb, size - 10 - footerLength);
+
+        // Schema: find the time column and the int32 sensor columns.
+        int schema = FlatBuffers.readChild(bb, footer, 1);
+        int fieldVector = FlatBuffers.readChild(bb, schema, 1);
+        int fieldCount = bb.getInt(fieldVector);
+        int timeField = -1;
+        long unitsPerHour = 0;
+        ArrayList<String> names = new ArrayList<>();
+        int[] sensorOfField = new int[fieldCount];
+        for (int f = 0; f < fieldCount; f++) {
+            int field = FlatBuffers.deref(bb, fieldVector + 4 + 4 * f);
+            String name = FlatBuffers.readString(bb, field, 0);
+            int typeType = FlatBuffers.readByte(bb, field, 2, 0);
+            int type = FlatBuffers.readChild(bb, field, 3);
+            sensorOfField[f] = -1;
+            if (typeType == ArrowExporter.TYPE_TIMESTAMP && timeField < 0) {
+                timeField = f;
+                int unit = FlatBuffers.readShort(bb, type, 0, TIME_UNIT_SECOND);
+                unitsPerHour = 3600L;
+                for (int u = TIME_UNIT_SECOND; u < unit; u++) {
+                    unitsPerHour *= 1000;
+                }
+            } else if (typeType == ArrowExporter.TYPE_INT && FlatBuffers.readInt(bb, type, 0, 0) == 32) {
+                sensorOfField[f] = names.size();
+                names.add(name);
+            } else {
+                throw new IOException("Unsupported column type " + typeType + " for column " + name);
+            }
+        }
+        if (timeField < 0) {
+            throw new IOException("Arrow file has no timestamp column: " + source);
+        }
+
+        int batchVector = FlatBuffers.readChild(bb, footer, 3);
+        int batches = batchVector < 0 ? 0 : bb.getInt(batchVector);
+        int[] batchTables = new int[batches];
+        int[] bodies = new int[batches];
+        for (int b = 0; b < batches; b++) {
+            int block = batchVector + 4 + 24 * b;
+            int offset = (int) bb.getLong(block);
+            int metadataLength = bb.getInt(block + 8);
+            // Messages start with a continuation marker, except in old files.
+            int flatbuffer = bb.getInt(offset) == ArrowExporter.CONTINUATION ? offset + 8 : offset + 4;
+            int message = FlatBuffers.root(bb, flatbuffer);
+            if (FlatBuffers.readByte(bb, message, 1, 0) != ArrowExporter.HEADER_RECORD_BATCH) {
+                throw new IOException("Expected a record batch at " + offset);
+            }
+            batchTables[b] = FlatBuffers.readChild(bb, message, 2);
+            if (FlatBuffers.field(bb, batchTables[b], 3) >= 0) {
+                throw new IOException("Compressed record batches are not supported");
+            }
+            bodies[b] = offset + metadataLength;
+        }
+
+        // First pass over the time column for the range of hours.
+        long minHour = Long.MAX_VALUE;
+        long maxHour = Long.MIN_VALUE;
+        for (int b = 0; b < batches; b++) {
+            int rows = (int) FlatBuffers.readLong(bb, batchTables[b], 0, 0);
+            int data = bufferStart(bb, batchTables[b], bodies[b], 2 * timeField + 1);
+            for (int i = 0; i < rows; i++) {
+                long hour = Math.floorDiv(bb.getLong(data + 8 * i), unitsPerHour);
+                minHour = Math.min(minHour, hour);
+                maxHour = Math.max(maxHour, hour);
+            }
+        }
+        int sensors = names.size();
+        if (minHour > maxHour) {
+            return new SensorColumns(names.toArray(new String[sensors]), 0, new int[sensors][0], new long[sensors][0]);
+        }
+        int hours = (int) (maxHour - minHour + 1);
+        int[][] counts = new int[sensors][hours];
+        long[][] missing = new long[sensors][Bitmaps.length(hours)];
+        for (long[] m : missing) {
+            Bitmaps.setRange(m, 0, hours);
+        }
+
+        // Second pass, fill the columns.
+        int[] rowOfBatch = new int[0];
+        for (int b = 0; b < batches; b++) {
+            int rows = (int) FlatBuffers.readLong(bb, batchTables[b], 0, 0);
+            if (rowOfBatch.length < rows) {
+                rowOfBatch = new int[rows];
+            }
+            int time = bufferStart(bb, batchTables[b], bodies[b], 2 * timeField + 1);
+            for (int i = 0; i < rows; i++) {
+                rowOfBatch[i] = (int) (Math.floorDiv(bb.getLong(time + 8 * i), unitsPerHour) - minHour);
+            }
+            for (int f = 0; f < fieldCount; f++) {
+                int s = sensorOfField[f];
+                if (s < 0) {
+                    continue;
+                }
+                boolean hasValidity = bufferLength(bb, batchTables[b], 2 * f) > 0;
+                int validity = bufferStart(bb, batchTables[b], bodies[b], 2 * f);
+                int data = bufferStart(bb, batchTables[b], bodies[b], 2 * f + 1);
+                for (int i = 0; i < rows; i++) {
+                    int row = rowOfBatch[i];
+                    if (!hasValidity || (bb.get(validity + (i >>> 3)) & (1 << (i & 7))) != 0) {
+                        counts[s][row] = bb.getInt(data + 4 * i);
+                        Bitmaps.clear(missing[s], row);
+                    }
+                }
+            }
+        }
+        return new SensorColumns(names.toArray(new String[sensors]), (int) minHour, counts, missing);
+    }
+
+    private static int bufferStart(ByteBuffer bb, int batch, int body, int buffer) {
+        int buffers = FlatBuffers.readChild(bb, batch, 2);
+        return body + (int) bb.getLong(buffers + 4 + 16 * buffer);
+    }
+
+    private static long bufferLength(ByteBuffer bb, int batch, int buffer) {
+        int buffers = FlatBuffers.readChild(bb, batch, 2);
+        return bb.getLong(buffers + 4 + 16 * buffer + 8);
+    }
+}
@@ -0,0 +1,373 @@
+package com.timgrunshaw.ftprediction.arrow;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Just enough of the FlatBuffers binary format to write and read the Arrow
+ * IPC metadata (schema, record batch and footer tables).
+ *
+ * Writing builds a small tree of Nodes and serializes it front to back: each
+ * table is written as its vtable followed by the table itself, then its
+ * children, whose forward offsets are patched in afterwards. Reading follows
+ * offsets directly in a little endian ByteBuffer.
+ *
+ * @author Tim Grunshaw
+ */
+final class FlatBuffers {
+
+    private FlatBuffers() {
+    }
+
+    /**
+     * Serializes a root table into a flatbuffer, padded to a multiple of 8 bytes.
+     */
+    static byte[] finish(Table root) {
+        Out out = new Out();
+        out.putInt(0); // Root offset, patched below
+        int rootPos = root.write(out);
+        out.putIntAt(0, rootPos);
+        out.align(8);
+        return Arrays.copyOf(out.buffer, out.pos);
+    }
+
+    // Writing 
+
+    abstract static class Node {
+
+        /**
+         * Writes this object and returns its position, the target of any offset to it.
+         */
+        abstract int write(Out out);
+    }
+
+    static final class Table extends Node {
+
+        private static final int BYTE = 1;
+        private static final int SHORT = 2;
+        private static final int INT = 4;
+        private static final int LONG = 8;
+        private static final int OFFSET = -4;
+
+        private final ArrayList<Integer> ids = new ArrayList<>();
+        private final ArrayList<Integer> kinds = new ArrayList<>();
+        private final ArrayList<Long> values = new ArrayList<>();
+        private final ArrayList<Node> children = new ArrayList<>();
+
+        private Table add(int id, int kind, long value, Node child) {
+            ids.add(id);
+            kinds.add(kind);
+            values.add(value);
+            children.add(child);
+            return this;
+        }
+
+        Table addByte(int id, int value) {
+            return add(id, BYTE, value, null);
+        }
+
+        Table addBool(int id, boolean value) {
+            return add(id, BYTE, value ? 1 : 0, null);
+        }
+
+        Table addShort(int id, int value) {
+            return add(id, SHORT, value, null);
+        }
+
+        Table addInt(int id, int value) {
+            return add(id, INT, value, null);
+        }
+
+        Table addLong(int id, long value) {
+            return add(id, LONG, value, null);
+        }
+
+        Table addChild(int id, Node child) {
+            return add(id, OFFSET, 0, child);
+        }
+
+        @Override
+        int write(Out out) {
+            int fields = 0;
+            for (int id : ids) {
+                fields = Math.max(fields, id + 1);
+            }
+
+            // Lay out fields largest first so each is naturally aligned.
+            int[] fieldOffset = new int[ids.size()];
+            int size = 4; // soffset to the vtable
+            for (int width : new int[]{8, 4, 2, 1}) {
+                for (int f = 0; f < ids.size(); f++) {
+                    if (Math.abs(kinds.get(f)) == width) {
+                        fieldOffset[f] = size;
+                        size += width;
+                    }
+                }
+            }
+
+            out.align(2);
+            int vtable = out.pos;
+            int vtableSize = 4 + 2 * fields;
+            out.putShort(vtableSize);
+            out.putShort(size);
+            short[] entries = new short[fields];
+            for (int f = 0; f < ids.size(); f++) {
+                entries[ids.get(f)] = (short) fieldOffset[f];
+            }
+            for (short e : entries) {
+                out.putShort(e);
+            }
+
+            out.align(8);
+            int table = out.pos;
+            out.putInt(table - vtable);
+            out.pad(size - 4);
+            for (int f = 0; f < ids.size(); f++) {
+                int at = table + fieldOffset[f];
+                long value = values.get(f);
+                switch (kinds.get(f)) {
+                    case BYTE:
+                        out.buffer[at] = (byte) value;
+                        break;
+                    case SHORT:
+                        out.putShortAt(at, (int) value);
+                        break;
+                    case INT:
+                        out.putIntAt(at, (int) value);
+                        break;
+                    case LONG:
+                        out.putLongAt(at, value);
+                        break;
+                    default:
+                        break; // Offsets are patched once the child is written
+                }
+            }
+            for (int f = 0; f < ids.size(); f++) {
+                if (kinds.get(f) == OFFSET) {
+                    int at = table + fieldOffset[f];
+                    out.putIntAt(at, children.get(f).write(out) - at);
+                }
+            }
+            return table;
+        }
+    }
+
+    static final class StringNode extends Node {
+
+        private final byte[] bytes;
+
+        StringNode(String value) {
+            this.bytes = value.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        int write(Out out) {
+            out.align(4);
+            int pos = out.pos;
+            out.putInt(bytes.length);
+            out.putBytes(bytes);
+            out.putByte(0);
+            return pos;
+        }
+    }
+
+    /**
+     * A vector of tables (or strings).
+     */
+    static final class NodeVector extends Node {
+
+        private final List<? extends Node> elements;
+
+        NodeVector(List<? extends Node> elements) {
+            this.elements = elements;
+        }
+
+        @Override
+        int write(Out out) {
+            out.align(4);
+            int pos = out.pos;
+            out.putInt(elements.size());
+            out.pad(4 * elements.size());
+            for (int i = 0; i < elements.size(); i++) {
+                int at = pos + 4 + 4 * i;
+                out.putIntAt(at, elements.get(i).write(out) - at);
+            }
+            return pos;
+        }
+    }
+
+    /**
+     * A vector of structs made of longs (Arrow FieldNode and Buffer), or of
+     * the 24 byte Block struct.
+     */
+    static final class StructVector extends Node {
+
+        private final int count;
+        private final byte[] bytes;
+
+        StructVector(int count, byte[] bytes) {
+            this.count = count;
+            this.bytes = bytes;
+        }
+
+        @Override
+        int write(Out out) {
+            // Elements must be 8 byte aligned, they follow the 4 byte length.
+            out.align(8);
+            out.pad(4);
+            int pos = out.pos;
+            out.putInt(count);
+            out.putBytes(bytes);
+            return pos;
+        }
+    }
+
+    /**
+     * Growable little endian output.
+     */
+    static final class Out {
+
+        byte[] buffer = new byte[256];
+        int pos;
+
+        private void ensure(int extra) {
+            if (pos + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, pos + extra));
+            }
+        }
+
+        void align(int alignment) {
+            pad((alignment - pos % alignment) % alignment);
+        }
+
+        void pad(int bytes) {
+            ensure(bytes);
+            pos += bytes; // The buffer is already zero
+        }
+
+        void putByte(int value) {
+            ensure(1);
+            buffer[pos++] = (byte) value;
+        }
+
+        void putShort(int value) {
+            ensure(2);
+            putShortAt(pos, value);
+            pos += 2;
+        }
+
+        void putInt(int value) {
+            ensure(4);
+            putIntAt(pos, value);
+            pos += 4;
+        }
+
+        void putBytes(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        void putShortAt(int at, int value) {
+            buffer[at] = (byte) value;
+            buffer[at + 1] = (byte) (value >>> 8);
+        }
+
+        void putIntAt(int at, int value) {
+            for (int i = 0; i < 4; i++) {
+                buffer[at + i] = (byte) (value >>> (8 * i));
+            }
+        }
+
+        void putLongAt(int at, long value) {
+            for (int i = 0; i < 8; i++) {
+                buffer[at + i] = (byte) (value >>> (8 * i));
+            }
+        }
+    }
+
+    /**
+     * Little endian bytes of the longs, for a StructVector.
+     */
+    static byte[] longs(long... values) {
+        ByteBuffer bb = ByteBuffer.allocate(values.length * 8).order(ByteOrder.LITTLE_ENDIAN);
+        for (long v : values) {
+            bb.putLong(v);
+        }
+        return bb.array();
+    }
+
+    // Reading 
+
+    /**
+     * Position of the root table of the flatbuffer starting at base.
+     */
+    static int root(ByteBuffer bb, int base) {
+        return base + bb.getInt(base);
+    }
+
+    /**
+     * Position of a field of the table, or -1 if the field is not present.
+     */
+    static int field(ByteBuffer bb, int table, int id) {
+        int vtable = table - bb.getInt(table);
+        int vtableSize = bb.getShort(vtable) & 0xFFFF;
+        int entry = 4 + 2 * id;
+        if (entry >= vtableSize) {
+            return -1;
+        }
+        int offset = bb.getShort(vtable + entry) & 0xFFFF;
+        return offset == 0 ? -1 : table + offset;
+    }
+
+    /**
+     * Follows the offset stored at pos.
+     */
+    static int deref(ByteBuffer bb, int pos) {
+        return pos + bb.getInt(pos);
+    }
+
+    static int readShort(ByteBuffer bb, int table, int id, int defaultValue) {
+        int pos = field(bb, table, id);
+        return pos < 0 ? defaultValue : bb.getShort(pos);
+    }
+
+    static int readByte(ByteBuffer bb, int table, int id, int defaultValue) {
+        int pos = field(bb, table, id);
+        return pos < 0 ? defaultValue : bb.get(pos) & 0xFF;
+    }
+
+    static int readInt(ByteBuffer bb, int table, int id, int defaultValue) {
+        int pos = field(bb, table, id);
+        return pos < 0 ? defaultValue : bb.getInt(pos);
+    }
+
+    static long readLong(ByteBuffer bb, int table, int id, long defaultValue) {
+        int pos = field(bb, table, id);
+        return pos < 0 ? defaultValue : bb.getLong(pos);
+    }
+
+    /**
+     * Position of the child table / vector of a field, or -1 if not present.
+     */
+    static int readChild(ByteBuffer bb, int table, int id) {
+        int pos = field(bb, table, id);
+        return pos < 0 ? -1 : deref(bb, pos);
+    }
+
+    static String readString(ByteBuffer bb, int table, int id) {
+        int pos = readChild(bb, table, id);
+        if (pos < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[bb.getInt(pos)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = bb.get(pos + 4 + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,196 @@
+package com.timgrunshaw.ftprediction.calendar;
+
+import com.timgrunshaw.ftprediction.data.HourIndex;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * Precomputed calendar features for every hour in a range, keyed by the same
+ * hour index as the sensor data (see HourIndex).
+ *
+ * The features for each hour are bit-packed into a single long:
+ * bits 0-4 hour of day, 5-7 day of week (0 = Monday), 8 weekend,
+ * 9 public holiday, 10 school term, 11 school holiday, 12-15 month (0 = Jan),
+ * 32-63 mask of the active events.
+ *
+ * Feature matrices are materialized into a caller supplied array, so that
+ * training and scoring can stream through any number of hours without
+ * allocating per row.
+ *
+ * @author Tim Grunshaw
+ */
+public class CalendarFeatureStore {
+
+    static final int HOUR_SHIFT = 0;
+    static final int DAY_SHIFT = 5;
+    static final int WEEKEND_BIT = 8;
+    static final int PUBLIC_HOLIDAY_BIT = 9;
+    static final int SCHOOL_TERM_BIT = 10;
+    static final int SCHOOL_HOLIDAY_BIT = 11;
+    static final int MONTH_SHIFT = 12;
+    static final int EVENT_SHIFT = 32;
+
+    // Column layout of a materialized feature row.
+    public static final int COL_HOUR_OF_DAY = 0; // 24 one-hot columns
+    public static final int COL_DAY_OF_WEEK = 24; // 7 one-hot columns
+    public static final int COL_WEEKEND = 31;
+    public static final int COL_PUBLIC_HOLIDAY = 32;
+    public static final int COL_SCHOOL_TERM = 33;
+    public static final int COL_SCHOOL_HOLIDAY = 34;
+    public static final int COL_EVENT = 35;
+    public static final int FEATURE_COUNT = 36;
+
+    private final int firstHour;
+    private final long[] packed;
+
+    /**
+     * Builds the features for every hour of every day in the range.
+     * @param from - inclusive
+     * @param to - exclusive
+     * @param events - may be empty, not null
+     */
+    public CalendarFeatureStore(LocalDate from, LocalDate to, EventCalendar events) {
+        if (!from.isBefore(to)) {
+            throw new IllegalArgumentException("from must be before to");
+        }
+        this.firstHour = HourIndex.of(from);
+        this.packed = new long[HourIndex.of(to) - firstHour];
+
+        int i = 0;
+        for (LocalDate day = from; day.isBefore(to); day = day.plusDays(1)) {
+            // Day level features are shared by all 24 hours.
+            long dayBits = ((long) (day.getDayOfWeek().getValue() - 1) << DAY_SHIFT)
+                    | ((long) (day.getMonthValue() - 1) << MONTH_SHIFT);
+            if (day.getDayOfWeek().getValue() >= 6) {
+                dayBits |= 1L << WEEKEND_BIT;
+            }
+            if (VictorianHolidays.isPublicHoliday(day)) {
+                dayBits |= 1L << PUBLIC_HOLIDAY_BIT;
+            }
+            if (SchoolTerms.isSchoolTerm(day)) {
+                dayBits |= 1L << SCHOOL_TERM_BIT;
+            }
+            if (SchoolTerms.isSchoolHoliday(day)) {
+                dayBits |= 1L << SCHOOL_HOLIDAY_BIT;
+            }
+
+            for (int hour = 0; hour < HourIndex.HOURS_PER_DAY; hour++) {
+                long eventBits = events.activeMask(firstHour + i) & 0xFFFFFFFFL;
+                packed[i] = dayBits | ((long) hour << HOUR_SHIFT) | (eventBits << EVENT_SHIFT);
+                i++;
+            }
+        }
+    }
+
+    public int getFirstHour() {
+        return firstHour;
+    }
+
+    /**
+     * @return the hour index after the final hour in this store.
+     */
+    public int getEndHour() {
+        return firstHour + packed.length;
+    }
+
+    public long getPacked(int hourIndex) {
+        int offset = offsetOf(hourIndex);
+        if (offset >= packed.length) {
+            throw new IllegalArgumentException("Hour is outside of this store: "
+                    + HourIndex.toDateTime(hourIndex));
+        }
+        return packed[offset];
+    }
+
+    /**
+     * Writes the feature rows for the hours [fromHour, toHour) into dest,
+     * row-major with FEATURE_COUNT columns per row, starting at destOffset.
+     *
+     * @param fromHour - inclusive hour index
+     * @param toHour - exclusive hour index
+     * @param dest - must have room for (toHour - fromHour) * FEATURE_COUNT values
+     * @param destOffset
+     * @return the number of rows written
+     */
+    public int materialize(int fromHour, int toHour, double[] dest, int destOffset) {
+        int start = offsetOf(fromHour);
+        int rows = toHour - fromHour;
+        if (rows < 0 || start + rows > packed.length) {
+            throw new IllegalArgumentException("Hour range is outside of this store: "
+                    + fromHour + " - " + toHour);
+        }
+        if (destOffset + rows * FEATURE_COUNT > dest.length) {
+            throw new IllegalArgumentException("Destination is too small for " + rows + " rows");
+        }
+
+        Arrays.fill(dest, destOffset, destOffset + rows * FEATURE_COUNT, 0.0);
+        int row = destOffset;
+        for (int i = start; i < start + rows; i++) {
+            long p = packed[i];
+            dest[row + COL_HOUR_OF_DAY + hourOfDay(p)] = 1.0;
+            dest[row + COL_DAY_OF_WEEK + dayOfWeek(p)] = 1.0;
+            dest[row + COL_WEEKEND] = (p >>> WEEKEND_BIT) & 1;
+            dest[row + COL_PUBLIC_HOLIDAY] = (p >>> PUBLIC_HOLIDAY_BIT) & 1;
+            dest[row + COL_SCHOOL_TERM] = (p >>> SCHOOL_TERM_BIT) & 1;
+            dest[row + COL_SCHOOL_HOLIDAY] = (p >>> SCHOOL_HOLIDAY_BIT) & 1;
+            dest[row + COL_EVENT] = eventMask(p) != 0 ? 1.0 : 0.0;
+            row += FEATURE_COUNT;
+        }
+        return rows;
+    }
+
+    /**
+     * The offset of the hour, allowing the end hour so that an empty range
+     * at the end can be materialized.
+     */
+    private int offsetOf(int hourIndex) {
+        int offset = hourIndex - firstHour;
+        if (offset < 0 || offset > packed.length) {
+            throw new IllegalArgumentException("Hour is outside of this store: "
+                    + HourIndex.toDateTime(hourIndex));
+        }
+        return offset;
+    }
+
+    // Decoding of packed values.
+    
+    public static int hourOfDay(long packed) {
+        return (int) ((packed >>> HOUR_SHIFT) & 0x1F);
+    }
+
+    public static int dayOfWeek(long packed) {
+        return (int) ((packed >>> DAY_SHIFT) & 0x7);
+    }
+
+    /**
+     * @param packed
+     * @return 0 = January .. 11 = December
+     */
+    public static int month(long packed) {
+        return (int) ((packed >>> MONTH_SHIFT) & 0xF);
+    }
+
+    public static boolean isWeekend(long packed) {
+        return ((packed >>> WEEKEND_BIT) & 1) != 0;
+    }
+
+    public static boolean isPublicHoliday(long packed) {
+        return ((packed >>> PUBLIC_HOLIDAY_BIT) & 1) != 0;
+    }
+
+    public static boolean isSchoolTerm(long packed) {
+        return ((packed >>> SCHOOL_TERM_BIT) & 1) != 0;
+    }
+
+    public static boolean isSchoolHoliday(long packed) {
+        return ((packed >>> SCHOOL_HOLIDAY_BIT) & 1) != 0;
+    }
+
+    /**
+     * @param packed
+     * @return the mask of active events, bit i set for event i of the EventCalendar.
+     */
+    public static int eventMask(long packed) {
+        return (int) (packed >>> EVENT_SHIFT);
+    }
+}
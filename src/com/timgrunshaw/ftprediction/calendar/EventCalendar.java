@@ -0,0 +1,125 @@
+package com.timgrunshaw.ftprediction.calendar;
+
+import com.timgrunshaw.ftprediction.data.HourIndex;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A list of user supplied events (festivals, sport, closures etc.) that are
+ * expected to affect foot traffic.
+ *
+ * Events are loaded from a local CSV file, one event per line:
+ * name,start,end
+ * where start (inclusive) and end (exclusive) are ISO date times to the hour,
+ * e.g. White Night,2015-02-21T19:00,2015-02-22T07:00
+ *
+ * Blank lines and lines starting with '#' are ignored.
+ *
+ * @author Tim Grunshaw
+ */
+public class EventCalendar {
+
+    /**
+     * Events are identified by a bit in a 32 bit mask.
+     */
+    public static final int MAX_EVENTS = 32;
+
+    public static class Event {
+
+        private final String name;
+        private final int startHour; // Inclusive
+        private final int endHour; // Exclusive
+
+        public Event(String name, LocalDateTime start, LocalDateTime end) {
+            if (!start.isBefore(end)) {
+                throw new IllegalArgumentException("Event must start before it ends: " + name);
+            }
+            this.name = name;
+            this.startHour = HourIndex.of(start);
+            this.endHour = HourIndex.of(end);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getStartHour() {
+            return startHour;
+        }
+
+        public int getEndHour() {
+            return endHour;
+        }
+    }
+
+    private final ArrayList<Event> events = new ArrayList<>();
+
+    public void addEvent(Event event) {
+        if (events.size() == MAX_EVENTS) {
+            throw new IllegalStateException("Cannot have more than " + MAX_EVENTS + " events");
+        }
+        events.add(event);
+    }
+
+    public List<Event> getEvents() {
+        return Collections.unmodifiableList(events);
+    }
+
+    /**
+     * A bit mask of the events active in this hour, bit i set for event i.
+     * @param hourIndex
+     * @return
+     */
+    public int activeMask(int hourIndex) {
+        int mask = 0;
+        for (int i = 0; i < events.size(); i++) {
+            Event e = events.get(i);
+            if (hourIndex >= e.startHour && hourIndex < e.endHour) {
+                mask |= 1 << i;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Reads events from a local file in the format described above.
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static EventCalendar load(Path file) throws IOException {
+        EventCalendar calendar = new EventCalendar();
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            String line = null;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split(",");
+                if (fields.length != 3) {
+                    throw new IllegalArgumentException("Event file line " + lineNumber
+                            + " must be name,start,end: " + line);
+                }
+                try {
+                    calendar.addEvent(new Event(fields[0].trim(),
+                            LocalDateTime.parse(fields[1].trim()),
+                            LocalDateTime.parse(fields[2].trim())));
+                } catch (DateTimeParseException pEx) {
+                    throw new IllegalArgumentException("Event file line " + lineNumber
+                            + " has an invalid date: " + line, pEx);
+                }
+            }
+        }
+        return calendar;
+    }
+}
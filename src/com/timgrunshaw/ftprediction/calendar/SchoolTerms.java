@@ -0,0 +1,73 @@
+package com.timgrunshaw.ftprediction.calendar;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+
+/**
+ * Victorian government school term dates.
+ *
+ * Terms are published a few years in advance, so the table needs extending
+ * as new years become available. Days in a year that is not in the table are
+ * treated as neither term nor school holidays.
+ *
+ * @author Tim Grunshaw
+ */
+public final class SchoolTerms {
+
+    // Start and end (both inclusive) of each term, in order.
+    private static final LocalDate[][] TERMS = {
+        {LocalDate.of(2013, 1, 29), LocalDate.of(2013, 3, 28)},
+        {LocalDate.of(2013, 4, 15), LocalDate.of(2013, 6, 28)},
+        {LocalDate.of(2013, 7, 15), LocalDate.of(2013, 9, 20)},
+        {LocalDate.of(2013, 10, 7), LocalDate.of(2013, 12, 20)},
+        {LocalDate.of(2014, 1, 28), LocalDate.of(2014, 4, 4)},
+        {LocalDate.of(2014, 4, 22), LocalDate.of(2014, 6, 27)},
+        {LocalDate.of(2014, 7, 14), LocalDate.of(2014, 9, 19)},
+        {LocalDate.of(2014, 10, 6), LocalDate.of(2014, 12, 19)},
+        {LocalDate.of(2015, 1, 27), LocalDate.of(2015, 3, 27)},
+        {LocalDate.of(2015, 4, 13), LocalDate.of(2015, 6, 26)},
+        {LocalDate.of(2015, 7, 13), LocalDate.of(2015, 9, 18)},
+        {LocalDate.of(2015, 10, 5), LocalDate.of(2015, 12, 18)},
+        {LocalDate.of(2016, 1, 27), LocalDate.of(2016, 3, 24)},
+        {LocalDate.of(2016, 4, 11), LocalDate.of(2016, 6, 24)},
+        {LocalDate.of(2016, 7, 11), LocalDate.of(2016, 9, 16)},
+        {LocalDate.of(2016, 10, 3), LocalDate.of(2016, 12, 20)}
+    };
+
+    private SchoolTerms() {
+    }
+
+    /**
+     * True if schools are in session on this day (a weekday within a term).
+     * @param day
+     * @return
+     */
+    public static boolean isSchoolTerm(LocalDate day) {
+        if (isWeekend(day)) {
+            return false;
+        }
+        for (LocalDate[] term : TERMS) {
+            if (!day.isBefore(term[0]) && !day.isAfter(term[1])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * True if this is a weekday outside of term, in a year we have terms for.
+     * @param day
+     * @return
+     */
+    public static boolean isSchoolHoliday(LocalDate day) {
+        return isKnownYear(day.getYear()) && !isWeekend(day) && !isSchoolTerm(day);
+    }
+
+    public static boolean isKnownYear(int year) {
+        return year >= TERMS[0][0].getYear() && year <= TERMS[TERMS.length - 1][0].getYear();
+    }
+
+    private static boolean isWeekend(LocalDate day) {
+        return day.getDayOfWeek() == DayOfWeek.SATURDAY || day.getDayOfWeek() == DayOfWeek.SUNDAY;
+    }
+}
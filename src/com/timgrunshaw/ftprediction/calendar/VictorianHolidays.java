@@ -0,0 +1,126 @@
+package com.timgrunshaw.ftprediction.calendar;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.Month;
+import java.time.temporal.TemporalAdjusters;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Computes the Victorian public holidays for a given year.
+ *
+ * Covers the state-wide holidays (including the Melbourne Cup, which is a
+ * holiday in metropolitan Melbourne). Holidays that are announced each year,
+ * such as the AFL Grand Final eve, should be supplied as events instead.
+ *
+ * @author Tim Grunshaw
+ */
+public final class VictorianHolidays {
+
+    // Holidays are only computed once per year.
+    private static final HashMap<Integer, Set<LocalDate>> CACHE = new HashMap<>();
+
+    private VictorianHolidays() {
+    }
+
+    public static boolean isPublicHoliday(LocalDate day) {
+        return forYear(day.getYear()).contains(day);
+    }
+
+    /**
+     * All public holidays (including substitute days) for the year.
+     * @param year
+     * @return
+     */
+    public static synchronized Set<LocalDate> forYear(int year) {
+        Set<LocalDate> holidays = CACHE.get(year);
+        if (holidays == null) {
+            holidays = computeYear(year);
+            CACHE.put(year, holidays);
+        }
+        return holidays;
+    }
+
+    private static Set<LocalDate> computeYear(int year) {
+        HashSet<LocalDate> holidays = new HashSet<>();
+
+        // New Year's Day and Australia Day move to the Monday if on a weekend.
+        holidays.add(substituteWeekend(LocalDate.of(year, Month.JANUARY, 1)));
+        holidays.add(substituteWeekend(LocalDate.of(year, Month.JANUARY, 26)));
+
+        // Labour Day: second Monday in March.
+        holidays.add(LocalDate.of(year, Month.MARCH, 1)
+                .with(TemporalAdjusters.dayOfWeekInMonth(2, DayOfWeek.MONDAY)));
+
+        // Easter: Good Friday, Easter Saturday, Easter Sunday (from 2016) and Easter Monday.
+        LocalDate easterSunday = easterSunday(year);
+        holidays.add(easterSunday.minusDays(2));
+        holidays.add(easterSunday.minusDays(1));
+        if (year >= 2016) {
+            holidays.add(easterSunday);
+        }
+        holidays.add(easterSunday.plusDays(1));
+
+        // ANZAC Day is not moved when on a weekend.
+        holidays.add(LocalDate.of(year, Month.APRIL, 25));
+
+        // Queen's Birthday: second Monday in June.
+        holidays.add(LocalDate.of(year, Month.JUNE, 1)
+                .with(TemporalAdjusters.dayOfWeekInMonth(2, DayOfWeek.MONDAY)));
+
+        // Melbourne Cup: first Tuesday in November.
+        holidays.add(LocalDate.of(year, Month.NOVEMBER, 1)
+                .with(TemporalAdjusters.firstInMonth(DayOfWeek.TUESDAY)));
+
+        // Christmas and Boxing Day, both get a substitute day if on a weekend.
+        LocalDate christmas = LocalDate.of(year, Month.DECEMBER, 25);
+        LocalDate boxingDay = LocalDate.of(year, Month.DECEMBER, 26);
+        holidays.add(christmas);
+        holidays.add(boxingDay);
+        if (christmas.getDayOfWeek() == DayOfWeek.SATURDAY) {
+            holidays.add(christmas.plusDays(2)); // Monday for Christmas
+            holidays.add(christmas.plusDays(3)); // Tuesday for Boxing Day
+        } else if (christmas.getDayOfWeek() == DayOfWeek.SUNDAY) {
+            holidays.add(christmas.plusDays(2)); // Tuesday, Boxing Day is already the Monday
+        } else if (christmas.getDayOfWeek() == DayOfWeek.FRIDAY) {
+            holidays.add(boxingDay.plusDays(2)); // Boxing Day on Saturday moves to Monday
+        }
+
+        return holidays;
+    }
+
+    /**
+     * Moves a holiday falling on a Saturday or Sunday to the following Monday.
+     */
+    private static LocalDate substituteWeekend(LocalDate day) {
+        if (day.getDayOfWeek() == DayOfWeek.SATURDAY || day.getDayOfWeek() == DayOfWeek.SUNDAY) {
+            return day.with(TemporalAdjusters.next(DayOfWeek.MONDAY));
+        }
+        return day;
+    }
+
+    /**
+     * Easter Sunday for the year (Gregorian calendar, anonymous algorithm).
+     * @param year
+     * @return
+     */
+    static LocalDate easterSunday(int year) {
+        int a = year % 19;
+        int b = year / 100;
+        int c = year % 100;
+        int d = b / 4;
+        int e = b % 4;
+        int f = (b + 8) / 25;
+        int g = (b - f + 1) / 3;
+        int h = (19 * a + b - d - g + 15) % 30;
+        int i = c / 4;
+        int k = c % 4;
+        int l = (32 + 2 * e + 2 * i - h - k) % 7;
+        int m = (a + 11 * h + 22 * l) / 451;
+        int month = (h + l - 7 * m + 114) / 31;
+        int day = ((h + l - 7 * m + 114) % 31) + 1;
+        return LocalDate.of(year, month, day);
+    }
+}
@@ -0,0 +1,51 @@
+package com.timgrunshaw.ftprediction.daemon;
+
+import com.timgrunshaw.ftprediction.data.HourIndex;
+import com.timgrunshaw.ftprediction.data.MelbourneSnapshot;
+
+/**
+ * What the refresh daemon publishes after each refresh: the snapshot of the
+ * data together with the aggregates derived from it. Immutable, so it can be
+ * read from any thread.
+ *
+ * @author Tim Grunshaw
+ */
+public final class DerivedAggregates {
+
+    private final MelbourneSnapshot snapshot;
+    private final double[][] hourOfWeekMeans;
+    private final long publishedMillis;
+
+    DerivedAggregates(MelbourneSnapshot snapshot, double[][] hourOfWeekMeans, long publishedMillis) {
+        this.snapshot = snapshot;
+        this.hourOfWeekMeans = hourOfWeekMeans;
+        this.publishedMillis = publishedMillis;
+    }
+
+    public MelbourneSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * The mean count of the sensor for the hour of the week over all its
+     * readings in the snapshot. Missing hours are left out; 0 if the sensor
+     * has no reading for the hour of the week.
+     * @param sensor - index in the snapshot sensor names
+     * @param hourOfWeek - 0 = Monday midnight .. 167
+     * @return
+     */
+    public double getHourOfWeekMean(int sensor, int hourOfWeek) {
+        if (hourOfWeek < 0 || hourOfWeek >= HourIndex.HOURS_PER_WEEK) {
+            throw new IllegalArgumentException("Hour of week must be 0 - 167: " + hourOfWeek);
+        }
+        return hourOfWeekMeans[sensor][hourOfWeek];
+    }
+
+    public double getHourOfWeekMean(String sensor, int hourOfWeek) {
+        return getHourOfWeekMean(snapshot.getSensorIndex(sensor), hourOfWeek);
+    }
+
+    public long getPublishedMillis() {
+        return publishedMillis;
+    }
+}
@@ -0,0 +1,383 @@
+package com.timgrunshaw.ftprediction.daemon;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.timgrunshaw.ftprediction.daemon.StageTimings.Stage;
+import com.timgrunshaw.ftprediction.data.HourIndex;
+import com.timgrunshaw.ftprediction.data.LiveMelbourne;
+import com.timgrunshaw.ftprediction.data.Melbourne;
+import com.timgrunshaw.ftprediction.data.MelbourneSnapshot;
+import com.timgrunshaw.ftprediction.dataretrieval.MelbourneDataSource;
+import com.timgrunshaw.ftprediction.sketch.SensorSketches;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.BitSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the Melbourne data loaded in memory and refreshes it on a schedule,
+ * instead of re-parsing every CSV file on each run.
+ *
+ * The CSV files are parsed once by load(). After that each refresh runs the
+ * stages:
+ * <ol>
+ * <li>DOWNLOAD - MelbourneDataSource.update() fetches any new day files</li>
+ * <li>INGEST - only the new day files are read and appended to the live data</li>
+ * <li>DERIVE - the hour of week profiles are updated with the new days only</li>
+ * <li>PUBLISH - the new DerivedAggregates are published and the sketches saved</li>
+ * </ol>
+ * Downloading runs on its own thread and hands over to a second thread for
+ * the other stages, so the next download overlaps with the processing of the
+ * previous one. If several downloads finish while processing is busy they
+ * are coalesced into one ingest, since ingest picks up every new file anyway.
+ *
+ * Readers call getPublished() at any time and never block.
+ *
+ * @author Tim Grunshaw
+ */
+public class RefreshDaemon {
+
+    private final MelbourneDataSource dataSource;
+    private final StageTimings timings = new StageTimings();
+    private final ScheduledExecutorService downloadExecutor;
+    private final ExecutorService processExecutor;
+    private final AtomicBoolean processQueued = new AtomicBoolean();
+    private final AtomicLong refreshes = new AtomicLong();
+    private final Object processLock = new Object();
+    private final long startedMillis = System.currentTimeMillis();
+
+    private volatile boolean downloadEnabled = true;
+    private volatile boolean stopping;
+    private volatile DerivedAggregates published;
+    private volatile String downloadError;
+    private volatile String processError;
+    private HttpServer server;
+
+    // Only used while holding processLock.
+    private LiveMelbourne live;
+    private SensorSketches sketches;
+    private long[][] profileSums;
+    private long[][] profileHours;
+    private BitSet profiledDays; // Epoch days already in the sums
+
+    public RefreshDaemon(MelbourneDataSource dataSource) {
+        this.dataSource = dataSource;
+        this.downloadExecutor = Executors.newSingleThreadScheduledExecutor(namedThreads("refresh-download"));
+        this.processExecutor = Executors.newSingleThreadExecutor(namedThreads("refresh-process"));
+    }
+
+    private static ThreadFactory namedThreads(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, name);
+            }
+        };
+    }
+
+    /**
+     * Whether each refresh downloads new files first. When disabled, each
+     * refresh only ingests files that were put in the output folder by
+     * something else.
+     * @param downloadEnabled
+     */
+    public void setDownloadEnabled(boolean downloadEnabled) {
+        this.downloadEnabled = downloadEnabled;
+    }
+
+    /**
+     * Reads all the CSV files in the output folder and publishes the first
+     * aggregates. Called by start() if it has not been already.
+     * @throws IOException
+     */
+    public void load() throws IOException {
+        synchronized (processLock) {
+            long start = System.nanoTime();
+            boolean ok = false;
+            try {
+                Melbourne melbourne = dataSource.createMelbourne();
+                live = LiveMelbourne.from(melbourne);
+                sketches = melbourne.getSketches();
+                profileSums = new long[melbourne.getSensorNames().length][HourIndex.HOURS_PER_WEEK];
+                profileHours = new long[melbourne.getSensorNames().length][HourIndex.HOURS_PER_WEEK];
+                profiledDays = new BitSet();
+                publish(derive());
+                ok = true;
+            } finally {
+                timings.record(Stage.LOAD, System.nanoTime() - start, ok);
+            }
+        }
+    }
+
+    /**
+     * Loads the data if needed, then refreshes it every period until shutdown.
+     * The first refresh runs straight away.
+     * @param period
+     * @param unit
+     * @throws IOException
+     */
+    public void start(long period, TimeUnit unit) throws IOException {
+        if (published == null) {
+            load();
+        }
+        downloadExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                if (downloadEnabled && !stopping) {
+                    download();
+                }
+                queueProcess();
+            }
+        }, 0, period, unit);
+    }
+
+    /**
+     * Runs a whole refresh on the calling thread.
+     * @return the number of days ingested
+     */
+    public int refreshNow() {
+        if (downloadEnabled) {
+            download();
+        }
+        return process();
+    }
+
+    private void download() {
+        long start = System.nanoTime();
+        boolean ok = false;
+        try {
+            dataSource.update();
+            downloadError = null;
+            ok = true;
+        } catch (IOException | RuntimeException ex) {
+            downloadError = ex.toString();
+        } finally {
+            timings.record(Stage.DOWNLOAD, System.nanoTime() - start, ok);
+        }
+    }
+
+    private void queueProcess() {
+        if (processQueued.compareAndSet(false, true)) {
+            try {
+                processExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        processQueued.set(false);
+                        process();
+                    }
+                });
+            } catch (RejectedExecutionException reEx) {
+                processQueued.set(false); // Shutting down
+            }
+        }
+    }
+
+    /**
+     * The INGEST, DERIVE and PUBLISH stages.
+     * @return the number of days ingested
+     */
+    private int process() {
+        synchronized (processLock) {
+            if (live == null) {
+                throw new IllegalStateException("Data has not been loaded");
+            }
+            Stage stage = Stage.INGEST;
+            long start = System.nanoTime();
+            try {
+                int days = dataSource.ingestNewDays(live, sketches);
+                timings.record(stage, System.nanoTime() - start, true);
+                if (days > 0) {
+                    stage = Stage.DERIVE;
+                    start = System.nanoTime();
+                    DerivedAggregates next = derive();
+                    timings.record(stage, System.nanoTime() - start, true);
+
+                    stage = Stage.PUBLISH;
+                    start = System.nanoTime();
+                    publish(next);
+                    timings.record(stage, System.nanoTime() - start, true);
+                }
+                processError = null;
+                refreshes.incrementAndGet();
+                return days;
+            } catch (IOException | RuntimeException ex) {
+                timings.record(stage, System.nanoTime() - start, false);
+                processError = ex.toString();
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Adds the days appended since the last call, including days filled in
+     * before the last day, to the hour of week sums and returns new
+     * aggregates for the current snapshot. Days without data and missing
+     * hours of a sensor are not counted.
+     */
+    private DerivedAggregates derive() {
+        MelbourneSnapshot snapshot = live.snapshot();
+        int sensors = profileSums.length;
+        for (int dayHour = snapshot.getFirstHour(); dayHour < snapshot.getEndHour(); dayHour += HourIndex.HOURS_PER_DAY) {
+            int day = dayHour / HourIndex.HOURS_PER_DAY;
+            if (!snapshot.hasData(dayHour) || profiledDays.get(day)) {
+                continue;
+            }
+            profiledDays.set(day);
+            for (int hour = dayHour; hour < dayHour + HourIndex.HOURS_PER_DAY; hour++) {
+                int bucket = HourIndex.hourOfWeek(hour);
+                for (int s = 0; s < sensors; s++) {
+                    if (!snapshot.isMissing(s, hour)) {
+                        profileHours[s][bucket]++;
+                        profileSums[s][bucket] += snapshot.getCount(s, hour);
+                    }
+                }
+            }
+        }
+
+        double[][] means = new double[sensors][HourIndex.HOURS_PER_WEEK];
+        for (int s = 0; s < sensors; s++) {
+            for (int b = 0; b < HourIndex.HOURS_PER_WEEK; b++) {
+                means[s][b] = profileHours[s][b] == 0 ? 0 : (double) profileSums[s][b] / profileHours[s][b];
+            }
+        }
+        return new DerivedAggregates(snapshot, means, System.currentTimeMillis());
+    }
+
+    private void publish(DerivedAggregates next) throws IOException {
+        published = next;
+        dataSource.saveSketches(sketches);
+    }
+
+    /**
+     * The latest published data, or null before load().
+     * @return
+     */
+    public DerivedAggregates getPublished() {
+        return published;
+    }
+
+    public StageTimings getTimings() {
+        return timings;
+    }
+
+    /**
+     * Healthy once loaded, until shutdown, as long as the latest download
+     * and the latest ingest succeeded.
+     * @return
+     */
+    public boolean isHealthy() {
+        return published != null && !stopping && downloadError == null && processError == null;
+    }
+
+    /**
+     * Starts the status server on the loopback address only.
+     * @see #startStatusServer(InetAddress, int)
+     * @param port - 0 for any free port
+     * @return the port the server is listening on
+     * @throws IOException
+     */
+    public int startStatusServer(int port) throws IOException {
+        return startStatusServer(InetAddress.getLoopbackAddress(), port);
+    }
+
+    /**
+     * Starts a small HTTP server with /health (200 or 503) and /status
+     * (plain text key=value lines).
+     * @param bindAddress - the address to listen on, or null for all
+     * interfaces
+     * @param port - 0 for any free port
+     * @return the port the server is listening on
+     * @throws IOException
+     */
+    public int startStatusServer(InetAddress bindAddress, int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(bindAddress, port), 0);
+        server.createContext("/health", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                boolean healthy = isHealthy();
+                respond(exchange, healthy ? 200 : 503, healthy ? "OK\n" : "UNHEALTHY\n");
+            }
+        });
+        server.createContext("/status", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                StringBuilder status = new StringBuilder();
+                writeStatus(status);
+                respond(exchange, 200, status.toString());
+            }
+        });
+        server.start();
+        return server.getAddress().getPort();
+    }
+
+    private static void respond(HttpExchange exchange, int code, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(code, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    public void writeStatus(Appendable out) throws IOException {
+        DerivedAggregates current = published;
+        out.append("healthy=").append(String.valueOf(isHealthy())).append('\n');
+        out.append("stopping=").append(String.valueOf(stopping)).append('\n');
+        out.append("uptime.seconds=").append(String.valueOf((System.currentTimeMillis() - startedMillis) / 1000)).append('\n');
+        out.append("refreshes=").append(String.valueOf(refreshes.get())).append('\n');
+        out.append("quarantined.lastIngest=").append(String.valueOf(dataSource.getLastValidation().getRejectedCount())).append('\n');
+        if (current != null) {
+            MelbourneSnapshot snapshot = current.getSnapshot();
+            out.append("snapshot.epoch=").append(String.valueOf(snapshot.getEpoch())).append('\n');
+            out.append("snapshot.days=").append(String.valueOf(snapshot.getDayCount())).append('\n');
+            out.append("snapshot.lastDay=").append(String.valueOf(snapshot.getLastDay())).append('\n');
+            out.append("published=").append(Instant.ofEpochMilli(current.getPublishedMillis()).toString()).append('\n');
+        }
+        if (downloadError != null) {
+            out.append("error.download=").append(downloadError).append('\n');
+        }
+        if (processError != null) {
+            out.append("error.process=").append(processError).append('\n');
+        }
+        timings.write(out);
+    }
+
+    /**
+     * Stops scheduling refreshes and waits for a download or ingest that is
+     * under way to finish, so the live data and the saved sketches are never
+     * left half updated. A download that has finished is still ingested. The
+     * status server is stopped last.
+     * @param timeout
+     * @param unit
+     * @return false if the stages did not finish within the timeout
+     * @throws InterruptedException
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        stopping = true;
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        downloadExecutor.shutdown();
+        boolean finished = downloadExecutor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        processExecutor.shutdown();
+        finished &= processExecutor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        if (!finished) {
+            downloadExecutor.shutdownNow();
+            processExecutor.shutdownNow();
+        }
+        if (server != null) {
+            server.stop(0);
+        }
+        return finished;
+    }
+}
@@ -0,0 +1,65 @@
+package com.timgrunshaw.ftprediction.daemon;
+
+import java.io.IOException;
+
+/**
+ * Running timings of each stage of the refresh pipeline. Stages are run on
+ * different threads, so all methods are synchronized; they are called a few
+ * times per refresh, so this costs nothing measurable.
+ *
+ * @author Tim Grunshaw
+ */
+public class StageTimings {
+
+    public enum Stage {
+        LOAD, DOWNLOAD, INGEST, DERIVE, PUBLISH
+    }
+
+    private final long[] runs = new long[Stage.values().length];
+    private final long[] failures = new long[Stage.values().length];
+    private final long[] lastNanos = new long[Stage.values().length];
+    private final long[] totalNanos = new long[Stage.values().length];
+    private final long[] maxNanos = new long[Stage.values().length];
+
+    public synchronized void record(Stage stage, long nanos, boolean succeeded) {
+        int i = stage.ordinal();
+        runs[i]++;
+        if (!succeeded) {
+            failures[i]++;
+        }
+        lastNanos[i] = nanos;
+        totalNanos[i] += nanos;
+        maxNanos[i] = Math.max(maxNanos[i], nanos);
+    }
+
+    public synchronized long getRuns(Stage stage) {
+        return runs[stage.ordinal()];
+    }
+
+    public synchronized long getFailures(Stage stage) {
+        return failures[stage.ordinal()];
+    }
+
+    public synchronized long getLastNanos(Stage stage) {
+        return lastNanos[stage.ordinal()];
+    }
+
+    public synchronized double getMeanMillis(Stage stage) {
+        int i = stage.ordinal();
+        return runs[i] == 0 ? 0 : totalNanos[i] / 1e6 / runs[i];
+    }
+
+    /**
+     * One line per stage: name, runs, failures, last, mean and max in ms.
+     * @param out
+     * @throws IOException
+     */
+    public synchronized void write(Appendable out) throws IOException {
+        for (Stage stage : Stage.values()) {
+            int i = stage.ordinal();
+            out.append(String.format("stage.%s runs=%d failures=%d last=%.2fms mean=%.2fms max=%.2fms%n",
+                    stage.name().toLowerCase(), runs[i], failures[i],
+                    lastNanos[i] / 1e6, getMeanMillis(stage), maxNanos[i] / 1e6));
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.timgrunshaw.ftprediction.data;
+
+/**
+ * Helpers for bitmaps held in long arrays, bit i is bit (i % 64) of long
+ * (i / 64). Used to mark missing hours of sensor columns.
+ *
+ * @author Tim Grunshaw
+ */
+public final class Bitmaps {
+
+    private Bitmaps() {
+    }
+
+    /**
+     * The number of longs needed for a bitmap of the number of bits.
+     * @param bits
+     * @return
+     */
+    public static int length(int bits) {
+        return (bits + 63) >>> 6;
+    }
+
+    public static boolean get(long[] bitmap, int i) {
+        return (bitmap[i >>> 6] & (1L << i)) != 0;
+    }
+
+    public static void set(long[] bitmap, int i) {
+        bitmap[i >>> 6] |= 1L << i;
+    }
+
+    public static void clear(long[] bitmap, int i) {
+        bitmap[i >>> 6] &= ~(1L << i);
+    }
+
+    /**
+     * Sets the bits [from, to).
+     */
+    public static void setRange(long[] bitmap, int from, int to) {
+        for (int i = from; i < to; i++) {
+            bitmap[i >>> 6] |= 1L << i;
+        }
+    }
+
+    /**
+     * Counts the set bits.
+     */
+    public static int cardinality(long[] bitmap) {
+        int count = 0;
+        for (long word : bitmap) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+}
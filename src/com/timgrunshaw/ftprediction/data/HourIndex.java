@@ -0,0 +1,80 @@
+package com.timgrunshaw.ftprediction.data;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Converts between the LocalDateTime of a reading and a compact integer hour
+ * index (the number of whole hours since 1970-01-01T00:00 local time).
+ *
+ * Sensor readings and derived stores (features, columns etc.) are all keyed by
+ * this index so that they can be addressed as primitive arrays.
+ *
+ * @author Tim Grunshaw
+ */
+public final class HourIndex {
+
+    public static final int HOURS_PER_DAY = 24;
+    public static final int HOURS_PER_WEEK = 24 * 7;
+
+    private HourIndex() {
+    }
+
+    /**
+     * The hour index of the specified hour.
+     * @param hour - must be exactly to the hour (00 mins, 00 seconds)
+     * @return
+     */
+    public static int of(LocalDateTime hour) {
+        if (!hour.isEqual(hour.truncatedTo(ChronoUnit.HOURS))) {
+            throw new IllegalArgumentException("LocalDateTime must be exactly to the hour (00 mins, 00 seconds): " + hour);
+        }
+        return (int) (hour.toEpochSecond(ZoneOffset.UTC) / 3600);
+    }
+
+    /**
+     * The hour index of midnight at the start of the specified day.
+     * @param day
+     * @return
+     */
+    public static int of(LocalDate day) {
+        return (int) (day.toEpochDay() * HOURS_PER_DAY);
+    }
+
+    public static LocalDateTime toDateTime(int hourIndex) {
+        return LocalDateTime.ofEpochSecond(hourIndex * 3600L, 0, ZoneOffset.UTC);
+    }
+
+    public static LocalDate toDate(int hourIndex) {
+        return LocalDate.ofEpochDay(Math.floorDiv(hourIndex, HOURS_PER_DAY));
+    }
+
+    /**
+     * The hour of the day (0 = midnight .. 23 = 11pm).
+     * @param hourIndex
+     * @return
+     */
+    public static int hourOfDay(int hourIndex) {
+        return Math.floorMod(hourIndex, HOURS_PER_DAY);
+    }
+
+    /**
+     * The day of the week, 0 = Monday .. 6 = Sunday (1970-01-01 was a Thursday).
+     * @param hourIndex
+     * @return
+     */
+    public static int dayOfWeek(int hourIndex) {
+        return Math.floorMod(Math.floorDiv(hourIndex, HOURS_PER_DAY) + 3, 7);
+    }
+
+    /**
+     * The hour of the week, 0 = Monday midnight .. 167 = Sunday 11pm.
+     * @param hourIndex
+     * @return
+     */
+    public static int hourOfWeek(int hourIndex) {
+        return dayOfWeek(hourIndex) * HOURS_PER_DAY + hourOfDay(hourIndex);
+    }
+}
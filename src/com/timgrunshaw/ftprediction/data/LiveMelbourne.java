@@ -0,0 +1,215 @@
+package com.timgrunshaw.ftprediction.data;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+/**
+ * Melbourne data that can be read while new days are being ingested.
+ *
+ * Readers call snapshot() and get an immutable, consistent MelbourneSnapshot;
+ * they never take a lock. A single writer appends whole days with appendDay(),
+ * which builds a new snapshot sharing all existing day chunks and publishes it
+ * with a volatile write. A day that was skipped, such as one whose file was
+ * quarantined, can be appended later. Readers holding an older snapshot continue to see the
+ * data as it was when they took it.
+ *
+ * Melbourne and Sensor themselves are not thread safe, and should only be used
+ * to load the data before it is handed to LiveMelbourne.
+ *
+ * @author Tim Grunshaw
+ */
+public class LiveMelbourne {
+
+    private final String[] sensorNames;
+    private final Object writeLock = new Object();
+    private volatile MelbourneSnapshot current;
+
+    public LiveMelbourne(String[] sensorNames) {
+        this.sensorNames = sensorNames.clone();
+        this.current = new MelbourneSnapshot(0, this.sensorNames, 0, new int[0][], new long[0][]);
+    }
+
+    /**
+     * Creates live data holding everything in a loaded Melbourne. Days
+     * without any reading are left without data.
+     * @param melbourne
+     * @return
+     */
+    public static LiveMelbourne from(Melbourne melbourne) {
+        LiveMelbourne live = new LiveMelbourne(melbourne.getSensorNames());
+        SensorColumns columns = melbourne.toColumns();
+        if (columns.getHours() == 0) {
+            return live;
+        }
+        int firstDay = Math.floorDiv(columns.getFirstHour(), HourIndex.HOURS_PER_DAY);
+        int lastDay = Math.floorDiv(columns.getFirstHour() + columns.getHours() - 1, HourIndex.HOURS_PER_DAY);
+
+        int[][] days = new int[lastDay - firstDay + 1][];
+        long[][] missing = new long[days.length][];
+        int[][] counts = new int[live.sensorNames.length][HourIndex.HOURS_PER_DAY];
+        long[][] dayMissing = new long[live.sensorNames.length][Bitmaps.length(HourIndex.HOURS_PER_DAY)];
+        for (int d = 0; d < days.length; d++) {
+            if (live.readDay((firstDay + d) * HourIndex.HOURS_PER_DAY, columns, counts, dayMissing)) {
+                days[d] = live.toChunk(counts);
+                missing[d] = live.toMissingBits(dayMissing);
+            }
+        }
+        // Leave out days without data at either end.
+        int from = 0;
+        int to = days.length;
+        while (from < to && days[from] == null) {
+            from++;
+        }
+        while (to > from && days[to - 1] == null) {
+            to--;
+        }
+        if (from == to) {
+            return live;
+        }
+        live.current = new MelbourneSnapshot(1, live.sensorNames, firstDay + from,
+                Arrays.copyOfRange(days, from, to), Arrays.copyOfRange(missing, from, to));
+        return live;
+    }
+
+    /**
+     * The current snapshot. Never blocks.
+     * @return
+     */
+    public MelbourneSnapshot snapshot() {
+        return current;
+    }
+
+    /**
+     * Appends a day of readings, without missing hours, and publishes a new
+     * snapshot.
+     * @see #appendDay(LocalDate, int[][], long[][])
+     * @param day
+     * @param counts
+     * @return the new snapshot
+     */
+    public MelbourneSnapshot appendDay(LocalDate day, int[][] counts) {
+        return appendDay(day, counts, null);
+    }
+
+    /**
+     * Appends a day of readings and publishes a new snapshot. A day whose
+     * every hour is missing is not appended, and stays without data.
+     * @param day - must be after the last day of the current snapshot, or a
+     * day of it without data
+     * @param counts - counts[sensor][hour], one row per sensor in the order of the sensor names
+     * @param missing - a bitmap of the 24 hours per sensor, or null if every
+     * hour was read
+     * @return the new snapshot
+     */
+    public MelbourneSnapshot appendDay(LocalDate day, int[][] counts, long[][] missing) {
+        if (counts.length != sensorNames.length || (missing != null && missing.length != sensorNames.length)) {
+            throw new IllegalArgumentException("Need counts for " + sensorNames.length + " sensors");
+        }
+        for (int s = 0; s < counts.length; s++) {
+            if (counts[s].length != HourIndex.HOURS_PER_DAY) {
+                throw new IllegalArgumentException("Need 24 hourly counts for sensor " + sensorNames[s]);
+            }
+        }
+        int[] chunk = toChunk(counts);
+        long[] missingBits = missing == null ? null : toMissingBits(missing);
+        if (missingBits != null && Bitmaps.cardinality(missingBits) == chunk.length) {
+            return current;
+        }
+
+        synchronized (writeLock) {
+            MelbourneSnapshot next = current.withDay((int) day.toEpochDay(), chunk, missingBits);
+            current = next;
+            return next;
+        }
+    }
+
+    /**
+     * Appends every day of a loaded Melbourne that is after the last day of
+     * the current snapshot, or that the current snapshot has no data for.
+     * Days without any reading are skipped.
+     * @param melbourne
+     * @return the number of days appended
+     */
+    public int appendNewDays(Melbourne melbourne) {
+        SensorColumns columns = melbourne.toColumns();
+        if (columns.getHours() == 0) {
+            return 0;
+        }
+        MelbourneSnapshot snapshot = current;
+        LocalDate first = snapshot.getLastDay() == null ? null : snapshot.getFirstDay();
+        LocalDate last = snapshot.getLastDay();
+        LocalDate day = HourIndex.toDate(columns.getFirstHour());
+        LocalDate end = HourIndex.toDate(columns.getFirstHour() + columns.getHours() - 1);
+
+        int appended = 0;
+        int[][] counts = new int[sensorNames.length][HourIndex.HOURS_PER_DAY];
+        long[][] missing = new long[sensorNames.length][Bitmaps.length(HourIndex.HOURS_PER_DAY)];
+        for (; !day.isAfter(end); day = day.plusDays(1)) {
+            int dayHour = HourIndex.of(day);
+            boolean open = last == null || day.isAfter(last)
+                    || (!day.isBefore(first) && !snapshot.hasData(dayHour));
+            if (open && readDay(dayHour, columns, counts, missing)) {
+                appendDay(day, counts, missing);
+                appended++;
+            }
+        }
+        return appended;
+    }
+
+    /**
+     * Copies a day of the columns, matched by sensor name, into counts and
+     * missing. Hours outside of the columns are missing.
+     * @return true if any hour of the day has a reading
+     */
+    private boolean readDay(int dayHour, SensorColumns columns, int[][] counts, long[][] missing) {
+        boolean present = false;
+        for (int s = 0; s < sensorNames.length; s++) {
+            int sensor = columns.getSensorIndex(sensorNames[s]);
+            int[] column = columns.getColumn(sensor);
+            Arrays.fill(missing[s], 0L);
+            for (int h = 0; h < HourIndex.HOURS_PER_DAY; h++) {
+                int row = dayHour + h - columns.getFirstHour();
+                if (row >= 0 && row < column.length && !columns.isMissing(sensor, row)) {
+                    counts[s][h] = column[row];
+                    present = true;
+                } else {
+                    counts[s][h] = 0;
+                    Bitmaps.set(missing[s], h);
+                }
+            }
+        }
+        return present;
+    }
+
+    private int[] toChunk(int[][] counts) {
+        int[] chunk = new int[sensorNames.length * HourIndex.HOURS_PER_DAY];
+        for (int s = 0; s < counts.length; s++) {
+            System.arraycopy(counts[s], 0, chunk, s * HourIndex.HOURS_PER_DAY, HourIndex.HOURS_PER_DAY);
+        }
+        return chunk;
+    }
+
+    /**
+     * @return the missing hours as sensor * 24 + hour bits, or null if there
+     * are none.
+     */
+    private long[] toMissingBits(long[][] missing) {
+        long[] bits = null;
+        for (int s = 0; s < missing.length; s++) {
+            for (int h = 0; h < HourIndex.HOURS_PER_DAY; h++) {
+                if (Bitmaps.get(missing[s], h)) {
+                    if (bits == null) {
+                        bits = new long[Bitmaps.length(sensorNames.length * HourIndex.HOURS_PER_DAY)];
+                    }
+                    Bitmaps.set(bits, s * HourIndex.HOURS_PER_DAY + h);
+                }
+            }
+        }
+        return bits;
+    }
+
+    public int getCount(String sensor, LocalDateTime hour) {
+        return current.getCount(sensor, hour);
+    }
+}
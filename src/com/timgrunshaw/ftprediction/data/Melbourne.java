@@ -1,5 +1,8 @@
 package com.timgrunshaw.ftprediction.data;
 
+import com.timgrunshaw.ftprediction.arrow.ArrowExporter;
+import com.timgrunshaw.ftprediction.arrow.ArrowImporter;
+import com.timgrunshaw.ftprediction.sketch.SensorSketches;
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.nio.file.Files;
@@ -9,6 +12,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Melbourne represents the foot traffic sensor data available for the city of 
@@ -64,6 +68,10 @@ public class Melbourne {
 
     private final HashMap<String, Sensor> sensors = new HashMap<>();
 
+    // Quantiles of each sensor by hour of the week, updated as data is read.
+    // Created on first use, as many instances only need the sensor names.
+    private SensorSketches sketches;
+
     public Melbourne() {
         for (String s : sensorNames) {
             sensors.put(s, new Sensor());
@@ -74,6 +82,22 @@ public class Melbourne {
         return sensors.get(sensor);
     }
 
+    public SensorSketches getSketches() {
+        if (sketches == null) {
+            sketches = new SensorSketches(sensorNames);
+        }
+        return sketches;
+    }
+
+    /**
+     * The names of all sensors, in the same order as the columns of the CSV
+     * output.
+     * @return a copy of the sensor names.
+     */
+    public String[] getSensorNames() {
+        return sensorNames.clone();
+    }
+
     public int getCountOfAllSensors(LocalDateTime hour) {
         int count = 0;
         for (Map.Entry<String, Sensor> entry : sensors.entrySet()) {
@@ -83,7 +107,95 @@ public class Melbourne {
         return count;
     }
 
-    
+    /**
+     * Copies the data into primitive columns, one per sensor in the order of
+     * sensorNames, covering every hour from the earliest to the latest reading
+     * of any sensor. Hours without a reading, or with an 'N/A' reading, are
+     * marked as missing.
+     * @return
+     */
+    public SensorColumns toColumns() {
+        int firstHour = Integer.MAX_VALUE;
+        int lastHour = Integer.MIN_VALUE;
+        for (String s : sensorNames) {
+            TreeMap<LocalDateTime, Integer> records = sensors.get(s).getAllRecords();
+            if (!records.isEmpty()) {
+                firstHour = Math.min(firstHour, HourIndex.of(records.firstKey()));
+                lastHour = Math.max(lastHour, HourIndex.of(records.lastKey()));
+            }
+        }
+        if (firstHour == Integer.MAX_VALUE) {
+            return new SensorColumns(sensorNames, 0, new int[sensorNames.length][0]);
+        }
+
+        int hours = lastHour - firstHour + 1;
+        int[][] counts = new int[sensorNames.length][hours];
+        long[][] missing = new long[sensorNames.length][Bitmaps.length(hours)];
+        for (int i = 0; i < sensorNames.length; i++) {
+            // Every hour starts as missing until a reading is found.
+            Bitmaps.setRange(missing[i], 0, hours);
+            Sensor sensor = sensors.get(sensorNames[i]);
+            for (Map.Entry<LocalDateTime, Integer> entry : sensor.getAllRecords().entrySet()) {
+                int row = HourIndex.of(entry.getKey()) - firstHour;
+                counts[i][row] = entry.getValue();
+                if (!sensor.isMissing(entry.getKey())) {
+                    Bitmaps.clear(missing[i], row);
+                }
+            }
+        }
+        return new SensorColumns(sensorNames, firstHour, counts, missing);
+    }
+
+    /**
+     * Creates a Melbourne holding the data of the columns. Columns for sensors
+     * that are not known are ignored, and missing hours are set as missing.
+     * @param columns
+     * @return
+     */
+    public static Melbourne fromColumns(SensorColumns columns) {
+        Melbourne melbourne = new Melbourne();
+        String[] names = columns.getSensorNames();
+        for (int s = 0; s < names.length; s++) {
+            Sensor sensor = melbourne.getSensor(names[s]);
+            if (sensor == null) {
+                continue;
+            }
+            int[] column = columns.getColumn(s);
+            for (int row = 0; row < columns.getHours(); row++) {
+                LocalDateTime hour = HourIndex.toDateTime(columns.getFirstHour() + row);
+                if (columns.isMissing(s, row)) {
+                    sensor.setMissing(hour);
+                } else {
+                    sensor.setCount(hour, column[row]);
+                    melbourne.getSketches().add(names[s], hour, column[row]);
+                }
+            }
+        }
+        return melbourne;
+    }
+
+    /**
+     * Write this data as an Apache Arrow IPC file, with a time column and
+     * one int32 column per sensor. Missing readings are null.
+     * @see ArrowExporter
+     * @param dest
+     * @throws IOException 
+     */
+    public void writeArrow(Path dest) throws IOException {
+        ArrowExporter.write(toColumns(), dest);
+    }
+
+    /**
+     * Reads data written by writeArrow.
+     * @see ArrowImporter
+     * @param source
+     * @return
+     * @throws IOException 
+     */
+    public static Melbourne readArrow(Path source) throws IOException {
+        return fromColumns(ArrowImporter.read(source));
+    }
+
     /**
      * Write this data to CSV format. The first row contains the sensors names,
      * the first column contains the date and time of the reading. 
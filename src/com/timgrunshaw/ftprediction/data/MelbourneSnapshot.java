@@ -0,0 +1,192 @@
+package com.timgrunshaw.ftprediction.data;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+/**
+ * An immutable, consistent view of the sensor data at one point in time.
+ *
+ * The data is held as one chunk per day (sensor * 24 + hour). Chunks are
+ * never modified once published, so a new snapshot with an extra day shares
+ * every existing chunk with the previous snapshot and only copies the array
+ * of chunk references. Readers may hold on to a snapshot for as long as they
+ * like without blocking the writer, see LiveMelbourne.
+ *
+ * Each day chunk has a bitmap of its missing ('N/A') hours, null when every
+ * hour was read. Days for which there is no data have no chunk. Both read as
+ * zero and are reported by isMissing.
+ *
+ * @author Tim Grunshaw
+ */
+public final class MelbourneSnapshot {
+
+    private final long epoch;
+    private final String[] sensorNames;
+    private final int firstDay; // Epoch day of days[0]
+    private final int[][] days; // null for days without data
+    private final long[][] missing; // sensor * 24 + hour bits, null for days with every reading
+
+    // Lazily built column copy, a benign race as it is derived from immutable data.
+    private volatile SensorColumns columns;
+
+    MelbourneSnapshot(long epoch, String[] sensorNames, int firstDay, int[][] days, long[][] missing) {
+        this.epoch = epoch;
+        this.sensorNames = sensorNames;
+        this.firstDay = firstDay;
+        this.days = days;
+        this.missing = missing;
+    }
+
+    /**
+     * The version of the data, increases by one with each published snapshot.
+     * @return
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public String[] getSensorNames() {
+        return sensorNames.clone();
+    }
+
+    public int getSensorIndex(String sensor) {
+        for (int i = 0; i < sensorNames.length; i++) {
+            if (sensorNames[i].equals(sensor)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("No such sensor: " + sensor);
+    }
+
+    public int getDayCount() {
+        return days.length;
+    }
+
+    public LocalDate getFirstDay() {
+        return LocalDate.ofEpochDay(firstDay);
+    }
+
+    /**
+     * @return the last day with data, or null if the snapshot is empty.
+     */
+    public LocalDate getLastDay() {
+        return days.length == 0 ? null : LocalDate.ofEpochDay(firstDay + days.length - 1L);
+    }
+
+    public int getFirstHour() {
+        return firstDay * HourIndex.HOURS_PER_DAY;
+    }
+
+    /**
+     * @return the hour index after the last hour of the last day.
+     */
+    public int getEndHour() {
+        return (firstDay + days.length) * HourIndex.HOURS_PER_DAY;
+    }
+
+    /**
+     * @param hourIndex
+     * @return true if the day of the hour is in this snapshot and was not
+     * skipped when appending.
+     */
+    public boolean hasData(int hourIndex) {
+        int day = Math.floorDiv(hourIndex, HourIndex.HOURS_PER_DAY) - firstDay;
+        return day >= 0 && day < days.length && days[day] != null;
+    }
+
+    public int getCount(int sensor, int hourIndex) {
+        int day = Math.floorDiv(hourIndex, HourIndex.HOURS_PER_DAY) - firstDay;
+        if (day < 0 || day >= days.length) {
+            throw new IllegalArgumentException("Hour is outside of this snapshot: "
+                    + HourIndex.toDateTime(hourIndex));
+        }
+        int[] chunk = days[day];
+        return chunk == null ? 0 : chunk[sensor * HourIndex.HOURS_PER_DAY + HourIndex.hourOfDay(hourIndex)];
+    }
+
+    /**
+     * @param sensor
+     * @param hourIndex - an hour of this snapshot
+     * @return true if the sensor has no reading for the hour, either because
+     * it was 'N/A' or because the day has no data.
+     */
+    public boolean isMissing(int sensor, int hourIndex) {
+        int day = Math.floorDiv(hourIndex, HourIndex.HOURS_PER_DAY) - firstDay;
+        if (day < 0 || day >= days.length) {
+            throw new IllegalArgumentException("Hour is outside of this snapshot: "
+                    + HourIndex.toDateTime(hourIndex));
+        }
+        return days[day] == null || (missing[day] != null
+                && Bitmaps.get(missing[day], sensor * HourIndex.HOURS_PER_DAY + HourIndex.hourOfDay(hourIndex)));
+    }
+
+    public int getCount(String sensor, LocalDateTime hour) {
+        return getCount(getSensorIndex(sensor), HourIndex.of(hour));
+    }
+
+    public int getCountOfAllSensors(LocalDateTime hour) {
+        int hourIndex = HourIndex.of(hour);
+        int count = 0;
+        for (int s = 0; s < sensorNames.length; s++) {
+            count += getCount(s, hourIndex);
+        }
+        return count;
+    }
+
+    /**
+     * The data of this snapshot as primitive columns. Built on first use and
+     * then shared by all callers.
+     * @return
+     */
+    public SensorColumns toColumns() {
+        SensorColumns result = columns;
+        if (result == null) {
+            int hours = days.length * HourIndex.HOURS_PER_DAY;
+            int[][] counts = new int[sensorNames.length][hours];
+            long[][] missingHours = new long[sensorNames.length][Bitmaps.length(hours)];
+            for (int d = 0; d < days.length; d++) {
+                int dayRow = d * HourIndex.HOURS_PER_DAY;
+                for (int s = 0; s < sensorNames.length; s++) {
+                    if (days[d] == null) {
+                        Bitmaps.setRange(missingHours[s], dayRow, dayRow + HourIndex.HOURS_PER_DAY);
+                        continue;
+                    }
+                    System.arraycopy(days[d], s * HourIndex.HOURS_PER_DAY, counts[s], dayRow, HourIndex.HOURS_PER_DAY);
+                    for (int h = 0; missing[d] != null && h < HourIndex.HOURS_PER_DAY; h++) {
+                        if (Bitmaps.get(missing[d], s * HourIndex.HOURS_PER_DAY + h)) {
+                            Bitmaps.set(missingHours[s], dayRow + h);
+                        }
+                    }
+                }
+            }
+            result = new SensorColumns(sensorNames, getFirstHour(), counts, missingHours);
+            columns = result;
+        }
+        return result;
+    }
+
+    /**
+     * A new snapshot with the day chunk added. Days between the end of this
+     * snapshot and the new day are left without data. A day of this snapshot
+     * without data may also be filled in.
+     * @param missingBits - sensor * 24 + hour bits, or null if every hour was read
+     */
+    MelbourneSnapshot withDay(int epochDay, int[] chunk, long[] missingBits) {
+        if (days.length == 0) {
+            return new MelbourneSnapshot(epoch + 1, sensorNames, epochDay,
+                    new int[][]{chunk}, new long[][]{missingBits});
+        }
+        int offset = epochDay - firstDay;
+        if (offset < 0 || (offset < days.length && days[offset] != null)) {
+            throw new IllegalArgumentException("Days can only be appended after the last day or into a day without data: "
+                    + LocalDate.ofEpochDay(epochDay));
+        }
+        int length = Math.max(days.length, offset + 1);
+        int[][] newDays = Arrays.copyOf(days, length);
+        long[][] newMissing = Arrays.copyOf(missing, length);
+        newDays[offset] = chunk;
+        newMissing[offset] = missingBits;
+        return new MelbourneSnapshot(epoch + 1, sensorNames, firstDay, newDays, newMissing);
+    }
+}
@@ -2,6 +2,7 @@ package com.timgrunshaw.ftprediction.data;
 
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
+import java.util.HashSet;
 import java.util.TreeMap;
 
 /**
@@ -14,6 +15,9 @@ public class Sensor {
     // log(n) performance for get,set. Allows us to quickly (n) iterate over time in order.
     private final TreeMap<LocalDateTime, Integer> recording = new TreeMap<>();
 
+    // Hours that were 'N/A' in the source data, recorded as a count of zero.
+    private final HashSet<LocalDateTime> missing = new HashSet<>();
+
     
     public int getCount(LocalDateTime hour) {
         if (!hour.isEqual(hour.truncatedTo(ChronoUnit.HOURS))) {
@@ -27,6 +31,21 @@ public class Sensor {
             throw new IllegalArgumentException("LocalDateTime must be exactly to the hour (00 mins, 00 seconds): " + hour);
         }
         recording.put(hour, count);
+        missing.remove(hour);
+    }
+
+    /**
+     * Records that there is no reading for the hour. The count for the hour
+     * will be zero.
+     * @param hour 
+     */
+    public void setMissing(LocalDateTime hour) {
+        setCount(hour, 0);
+        missing.add(hour);
+    }
+
+    public boolean isMissing(LocalDateTime hour) {
+        return missing.contains(hour);
     }
     
     /**
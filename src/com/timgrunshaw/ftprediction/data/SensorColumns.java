@@ -0,0 +1,109 @@
+package com.timgrunshaw.ftprediction.data;
+
+/**
+ * A column-oriented copy of the sensor data: one primitive int column per
+ * sensor, all covering the same contiguous range of hours. Row i of every
+ * column is the hour index getFirstHour() + i (see HourIndex).
+ *
+ * Hours for which a sensor has no reading or an 'N/A' reading are stored as
+ * zero. They may also be marked in a per sensor missing bitmap (see
+ * Bitmaps, bit i is row i), when the source of the columns knows about them.
+ *
+ * The columns are not copied when returned, callers must not modify them.
+ *
+ * @author Tim Grunshaw
+ */
+public class SensorColumns {
+
+    private final String[] sensorNames;
+    private final int firstHour;
+    private final int hours;
+    private final int[][] counts;
+    private final long[][] missing; // null if not known
+
+    public SensorColumns(String[] sensorNames, int firstHour, int[][] counts) {
+        this(sensorNames, firstHour, counts, null);
+    }
+
+    /**
+     * @param sensorNames
+     * @param firstHour - hour index of the first row
+     * @param counts - one column per sensor, all the same length
+     * @param missing - one bitmap per sensor (see Bitmaps), or null if missing
+     * hours are not known
+     */
+    public SensorColumns(String[] sensorNames, int firstHour, int[][] counts, long[][] missing) {
+        if (sensorNames.length != counts.length) {
+            throw new IllegalArgumentException("Need one column per sensor");
+        }
+        this.sensorNames = sensorNames.clone();
+        this.firstHour = firstHour;
+        this.hours = counts.length == 0 ? 0 : counts[0].length;
+        for (int[] column : counts) {
+            if (column.length != hours) {
+                throw new IllegalArgumentException("All columns must have the same number of hours");
+            }
+        }
+        this.counts = counts;
+        if (missing != null && missing.length != counts.length) {
+            throw new IllegalArgumentException("Need one missing bitmap per sensor");
+        }
+        this.missing = missing;
+    }
+
+
+    public String[] getSensorNames() {
+        return sensorNames.clone();
+    }
+
+    public int getSensorCount() {
+        return sensorNames.length;
+    }
+
+    public int getSensorIndex(String sensor) {
+        for (int i = 0; i < sensorNames.length; i++) {
+            if (sensorNames[i].equals(sensor)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("No such sensor: " + sensor);
+    }
+
+    /**
+     * @return the hour index of the first row.
+     */
+    public int getFirstHour() {
+        return firstHour;
+    }
+
+    /**
+     * @return the number of rows (hours) in each column.
+     */
+    public int getHours() {
+        return hours;
+    }
+
+    public int[] getColumn(int sensor) {
+        return counts[sensor];
+    }
+
+    /**
+     * @param sensor
+     * @return the missing bitmap of the sensor, or null if not known.
+     */
+    public long[] getMissing(int sensor) {
+        return missing == null ? null : missing[sensor];
+    }
+
+    public boolean hasMissingInfo() {
+        return missing != null;
+    }
+
+    public boolean isMissing(int sensor, int row) {
+        return missing != null && Bitmaps.get(missing[sensor], row);
+    }
+
+    public int getCount(int sensor, int hourIndex) {
+        return counts[sensor][hourIndex - firstHour];
+    }
+}
@@ -0,0 +1,275 @@
+package com.timgrunshaw.ftprediction.dataretrieval;
+
+import com.timgrunshaw.ftprediction.dataretrieval.MelbourneDataSource.MelbourneCSVFile;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.CharacterCodingException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Checks the structure of day files before they are parsed, so that one bad
+ * download does not stop the rest of the data loading.
+ *
+ * Each file is read once, up to its Total row: the first line, the headings,
+ * one row of 24 counts (or N/A) for each known sensor, and a Total row that
+ * matches the sum of each hour. Files are checked in parallel. Nothing is
+ * kept but the running hour sums, so a file costs about as much as reading
+ * it.
+ *
+ * @author Tim Grunshaw
+ */
+public class DayFileValidator {
+
+    public static final String QUARANTINE_DIRECTORY = "quarantine";
+    public static final String REPORT_FILENAME = "report.tsv";
+
+    static final int HOURS = 24;
+    private static final int COLUMNS = HOURS + 1;
+
+    // Returned by parseCount.
+    private static final long NOT_AVAILABLE = -1;
+    private static final long NOT_A_COUNT = -2;
+
+    private final HashMap<String, Integer> sensorIndex = new HashMap<>();
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * @param sensorNames - the sensors a file must have a row for, e.g.
+     * Melbourne.getSensorNames()
+     */
+    public DayFileValidator(String[] sensorNames) {
+        for (int s = 0; s < sensorNames.length; s++) {
+            sensorIndex.put(sensorNames[s], s);
+        }
+    }
+
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Need at least 1 thread: " + threads);
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Validates a single day file.
+     * @param file
+     * @return null if the file is valid, otherwise the first problem found
+     * @throws IOException if the file cannot be read
+     */
+    public String validate(Path file) throws IOException {
+        long[] totals = new long[HOURS];
+        boolean[] seen = new boolean[sensorIndex.size()];
+
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            int lineNumber = 0;
+            String line = null;
+            while ((line = reader.readLine()) != null) {
+                String problem = null;
+                if (lineNumber == 0 && !line.equals(MelbourneCSVFile.EXPECTED_FIRST_LINE)) {
+                    problem = "expected '" + MelbourneCSVFile.EXPECTED_FIRST_LINE + "'";
+                } else if (lineNumber == MelbourneCSVFile.HEADINGS_ROW) {
+                    problem = checkHeadings(line);
+                } else if (lineNumber >= MelbourneCSVFile.DATA_START_ROW
+                        && lineNumber <= MelbourneCSVFile.DATA_FINAL_ROW) {
+                    problem = checkSensorRow(line, totals, seen);
+                } else if (lineNumber == MelbourneCSVFile.TOTAL_ROW) {
+                    problem = checkTotalRow(line, totals);
+                    return problem == null ? null : "Line " + lineNumber + ": " + problem;
+                }
+                if (problem != null) {
+                    return "Line " + lineNumber + ": " + problem;
+                }
+                lineNumber++;
+            }
+            return "File ends after " + lineNumber + " lines, the Total row should be line "
+                    + MelbourneCSVFile.TOTAL_ROW;
+        } catch (CharacterCodingException ccEx) {
+            return "Not a text file: " + ccEx;
+        }
+    }
+
+    private String checkHeadings(String line) {
+        if (!line.startsWith(MelbourneCSVFile.EXPECTED_HEADING_NAME + ",")) {
+            return "expected the headings row, starting '" + MelbourneCSVFile.EXPECTED_HEADING_NAME + "'";
+        }
+        int columns = 1;
+        for (int i = 0; i < line.length(); i++) {
+            if (line.charAt(i) == ',') {
+                columns++;
+            }
+        }
+        return columns == COLUMNS ? null : "headings row has " + columns + " columns, expected " + COLUMNS;
+    }
+
+    private String checkSensorRow(String line, long[] totals, boolean[] seen) {
+        int comma = line.indexOf(',');
+        if (comma < 0) {
+            return "expected a sensor row";
+        }
+        String sensor = line.substring(0, comma);
+        Integer s = sensorIndex.get(sensor);
+        if (s == null) {
+            return "unknown sensor '" + sensor + "'";
+        }
+        if (seen[s]) {
+            return "second row for " + sensor;
+        }
+        seen[s] = true;
+
+        int start = comma + 1;
+        for (int hour = 0; hour < HOURS; hour++) {
+            int end = nextField(line, start, hour);
+            if (end < 0) {
+                return sensor + " has " + (hour + 2) + " columns, expected " + COLUMNS;
+            }
+            long count = parseCount(line, start, end);
+            if (count == NOT_A_COUNT) {
+                return sensor + " has '" + line.substring(start, end) + "' for hour " + hour;
+            }
+            if (count != NOT_AVAILABLE) {
+                totals[hour] += count;
+            }
+            start = end + 1;
+        }
+        return start <= line.length() ? sensor + " has more than " + COLUMNS + " columns" : null;
+    }
+
+    private String checkTotalRow(String line, long[] totals) {
+        if (!line.startsWith(MelbourneCSVFile.EXPECTED_TOTAL_NAME + ",")) {
+            return "expected the Total row";
+        }
+        int start = MelbourneCSVFile.EXPECTED_TOTAL_NAME.length() + 1;
+        for (int hour = 0; hour < HOURS; hour++) {
+            int end = nextField(line, start, hour);
+            if (end < 0) {
+                return "Total row has " + (hour + 2) + " columns, expected " + COLUMNS;
+            }
+            long total = parseCount(line, start, end);
+            if (total == NOT_A_COUNT) {
+                return "Total row has '" + line.substring(start, end) + "' for hour " + hour;
+            }
+            if (total != NOT_AVAILABLE && total != totals[hour]) {
+                return "Total for hour " + hour + " is " + total + " but the sensors sum to " + totals[hour];
+            }
+            start = end + 1;
+        }
+        return start <= line.length() ? "Total row has more than " + COLUMNS + " columns" : null;
+    }
+
+    /**
+     * The end of the field starting at start, or -1 if the line ends before
+     * the last hour.
+     */
+    private static int nextField(String line, int start, int hour) {
+        int end = line.indexOf(',', start);
+        if (end < 0) {
+            return hour == HOURS - 1 ? line.length() : -1;
+        }
+        return end;
+    }
+
+    /**
+     * Parses a count without allocating.
+     * @return the count, NOT_AVAILABLE for N/A or NOT_A_COUNT
+     */
+    static long parseCount(String line, int start, int end) {
+        if (line.regionMatches(start, "N/A", 0, 3) && end - start == 3) {
+            return NOT_AVAILABLE;
+        }
+        if (end == start || end - start > 9) {
+            return NOT_A_COUNT;
+        }
+        long count = 0;
+        for (int i = start; i < end; i++) {
+            char c = line.charAt(i);
+            if (c < '0' || c > '9') {
+                return NOT_A_COUNT;
+            }
+            count = count * 10 + (c - '0');
+        }
+        return count;
+    }
+
+    /**
+     * Validates the files in parallel.
+     * @param files
+     * @return
+     * @throws IOException if a file cannot be read
+     */
+    public ValidationReport validateAll(List<Path> files) throws IOException {
+        ValidationReport report = new ValidationReport();
+        if (files.isEmpty()) {
+            return report;
+        }
+        List<Callable<String>> tasks = new ArrayList<>();
+        for (final Path file : files) {
+            tasks.add(new Callable<String>() {
+                @Override
+                public String call() throws IOException {
+                    return validate(file);
+                }
+            });
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, files.size()));
+        try {
+            List<Future<String>> problems = executor.invokeAll(tasks);
+            for (int i = 0; i < files.size(); i++) {
+                String problem = problems.get(i).get();
+                if (problem == null) {
+                    report.addValid(files.get(i));
+                } else {
+                    report.addRejected(files.get(i), problem);
+                }
+            }
+            return report;
+        } catch (InterruptedException iEx) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Validation was interrupted", iEx);
+        } catch (ExecutionException eEx) {
+            if (eEx.getCause() instanceof IOException) {
+                throw (IOException) eEx.getCause();
+            }
+            throw new IllegalStateException("Validation failed", eEx.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Moves the rejected files of the report into the quarantine directory,
+     * replacing any earlier file of the same name, and appends the report to
+     * the REPORT_FILENAME there.
+     * @param report
+     * @param quarantineDir
+     * @throws IOException
+     */
+    public static void quarantine(ValidationReport report, Path quarantineDir) throws IOException {
+        if (report.isAllValid()) {
+            return;
+        }
+        Files.createDirectories(quarantineDir);
+        for (Path file : report.getRejectedFiles().keySet()) {
+            Files.move(file, quarantineDir.resolve(file.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(quarantineDir.resolve(REPORT_FILENAME),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            writer.append("# ").append(LocalDateTime.now().toString())
+                    .append(", quarantined ").append(String.valueOf(report.getRejectedCount())).append('\n');
+            report.write(writer);
+        }
+    }
+}
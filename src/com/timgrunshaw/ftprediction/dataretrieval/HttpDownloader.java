@@ -0,0 +1,217 @@
+package com.timgrunshaw.ftprediction.dataretrieval;
+
+import com.timgrunshaw.ftprediction.dataretrieval.ValidatorCache.Entry;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Downloads day files over HTTP, replacing FileUtils.copyURLToFile.
+ *
+ * <ul>
+ * <li>Conditional: the ETag / Last-Modified of each file is kept in a
+ * ValidatorCache, and a file that has not changed costs a 304.</li>
+ * <li>Compressed: asks for gzip, and decompresses after the download.</li>
+ * <li>Resumable: the body is written to a hidden .part file first. If the
+ * transfer fails part way, the next attempt asks for the rest with a Range
+ * request guarded by If-Range, so a file that changed in between is
+ * downloaded again from the start.</li>
+ * <li>Persistent connections: every response body is read to the end and
+ * closed without disconnecting, so HttpURLConnection reuses the connection
+ * for the next day of a range.</li>
+ * </ul>
+ * The finished file is moved into place atomically, so readers of the
+ * output folder never see a partial day.
+ *
+ * Not thread safe; a MelbourneDataSource downloads one day at a time.
+ *
+ * @author Tim Grunshaw
+ */
+class HttpDownloader {
+
+    enum Result {
+        DOWNLOADED, RESUMED, NOT_MODIFIED
+    }
+
+    /**
+     * A response other than 200, 206 or 304. Retrying will not help.
+     */
+    static class HttpStatusException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        final int code;
+
+        HttpStatusException(int code, URL url) {
+            // Same message as HttpURLConnection.getInputStream() uses.
+            super("Server returned HTTP response code: " + code + " for URL: " + url);
+            this.code = code;
+        }
+    }
+
+    static final int MAX_ATTEMPTS = 3;
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final ValidatorCache cache;
+    private int connectTimeout = 30000; // 30 seconds
+    private int readTimeout = 30000; // 30 seconds
+
+    private long requests;
+    private long bytesReceived;
+    private long notModified;
+
+    HttpDownloader(ValidatorCache cache) {
+        this.cache = cache;
+    }
+
+    void setTimeouts(int connectTimeout, int readTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    long getRequests() {
+        return requests;
+    }
+
+    /**
+     * Response body bytes received, before decompression.
+     */
+    long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    long getNotModified() {
+        return notModified;
+    }
+
+    /**
+     * Downloads the url to the file, unless the file is already there and the
+     * server says it has not changed. Failed transfers are resumed, up to
+     * MAX_ATTEMPTS requests in total.
+     * @param url
+     * @param file
+     * @return
+     * @throws IOException if the last attempt failed; the partial download is
+     * kept and resumed by the next call for the same file.
+     */
+    Result download(URL url, Path file) throws IOException {
+        IOException failure = null;
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            try {
+                return attempt(url, file);
+            } catch (HttpStatusException statusEx) {
+                throw statusEx;
+            } catch (IOException ioEx) {
+                failure = ioEx;
+            }
+        }
+        throw failure;
+    }
+
+    private Result attempt(URL url, Path file) throws IOException {
+        String name = file.getFileName().toString();
+        Path partial = file.resolveSibling("." + name + ".part");
+        Entry entry = cache.get(name);
+
+        long have = Files.exists(partial) ? Files.size(partial) : 0;
+        boolean resuming = have > 0 && entry != null && !entry.complete && entry.hasValidator();
+
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout);
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        if (resuming) {
+            connection.setRequestProperty("Range", "bytes=" + have + "-");
+            connection.setRequestProperty("If-Range", entry.etag != null ? entry.etag : entry.lastModified);
+        } else if (entry != null && entry.complete && Files.exists(file)) {
+            if (entry.etag != null) {
+                connection.setRequestProperty("If-None-Match", entry.etag);
+            }
+            if (entry.lastModified != null) {
+                connection.setRequestProperty("If-Modified-Since", entry.lastModified);
+            }
+        }
+        requests++;
+
+        int code = connection.getResponseCode();
+        if (code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            drain(connection.getInputStream());
+            notModified++;
+            return Result.NOT_MODIFIED;
+        }
+        if (code != HttpURLConnection.HTTP_OK && code != HttpURLConnection.HTTP_PARTIAL) {
+            drain(connection.getErrorStream());
+            throw new HttpStatusException(code, url);
+        }
+
+        boolean append = resuming && code == HttpURLConnection.HTTP_PARTIAL;
+        if (!append) {
+            entry = new Entry(false, connection.getContentEncoding(),
+                    connection.getHeaderField("ETag"), connection.getHeaderField("Last-Modified"));
+            cache.put(name, entry);
+        }
+
+        long expected = connection.getContentLengthLong();
+        long received = 0;
+        try (InputStream in = connection.getInputStream();
+                OutputStream out = Files.newOutputStream(partial, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                received += read;
+            }
+        } catch (IOException ioEx) {
+            connection.disconnect(); // Don't reuse a broken connection.
+            throw ioEx;
+        } finally {
+            bytesReceived += received;
+        }
+        if (expected >= 0 && received != expected) {
+            connection.disconnect();
+            throw new IOException("Connection closed after " + received + " of " + expected + " bytes: " + url);
+        }
+
+        moveIntoPlace(partial, file, "gzip".equalsIgnoreCase(entry.encoding));
+        cache.put(name, new Entry(true, null, entry.etag, entry.lastModified));
+        return append ? Result.RESUMED : Result.DOWNLOADED;
+    }
+
+    private static void moveIntoPlace(Path partial, Path file, boolean gzipped) throws IOException {
+        if (gzipped) {
+            Path decoded = file.resolveSibling("." + file.getFileName() + ".tmp");
+            try (InputStream in = new GZIPInputStream(Files.newInputStream(partial), BUFFER_SIZE)) {
+                Files.copy(in, decoded, StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.move(decoded, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.delete(partial);
+        } else {
+            Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * Reads a response body to the end so the connection can be reused.
+     */
+    private static void drain(InputStream in) throws IOException {
+        if (in == null) {
+            return;
+        }
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (in.read(buffer) != -1) {
+                // Discard
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -1,7 +1,11 @@
 package com.timgrunshaw.ftprediction.dataretrieval;
 
+import com.timgrunshaw.ftprediction.data.HourIndex;
+import com.timgrunshaw.ftprediction.data.LiveMelbourne;
 import com.timgrunshaw.ftprediction.data.Melbourne;
+import com.timgrunshaw.ftprediction.data.MelbourneSnapshot;
 import com.timgrunshaw.ftprediction.data.Sensor;
+import com.timgrunshaw.ftprediction.sketch.SensorSketches;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.IOException;
@@ -38,7 +42,12 @@ import java.util.List;
 public class MelbourneDataSource {
 
     final static String URL_PREFIX = "http://uioomcomcall.jit.su/api/bydatecsv/";
+    final static String SKETCH_FILENAME = "sketches.kll";
+    final static String VALIDATOR_FILENAME = "validators.tsv";
     private String outputDirectory = "output/";
+    private String urlPrefix = URL_PREFIX;
+    private HttpDownloader downloader;
+    private volatile ValidationReport lastValidation = new ValidationReport();
 
     public static class MelbourneCSVFile {
 
@@ -61,7 +70,6 @@ public class MelbourneDataSource {
         static final String EXPECTED_FIRST_LINE = "CITY OF MELBOURNE";
         static final String EXPECTED_TOTAL_NAME = "Total";
         static final String EXPECTED_HEADING_NAME = "Sensor";
-        static final String EXPECTED_ROW_30_NAME = "Spencer St-Collins St (South)";
     }
 
     /**
@@ -73,6 +81,26 @@ public class MelbourneDataSource {
 
     public void setOutputDirectory(String folderName) {
         outputDirectory = folderName + "/";
+        downloader = null;
+    }
+
+    /**
+     * For testing against a local stand-in for the data source.
+     * @param urlPrefix
+     */
+    void setUrlPrefix(String urlPrefix) {
+        this.urlPrefix = urlPrefix;
+    }
+
+    /**
+     * The downloader for the output directory, which keeps the validators of
+     * the files in the directory.
+     */
+    HttpDownloader getDownloader() {
+        if (downloader == null) {
+            downloader = new HttpDownloader(new ValidatorCache(Paths.get(outputDirectory + VALIDATOR_FILENAME)));
+        }
+        return downloader;
     }
 
     /**
@@ -114,26 +142,51 @@ public class MelbourneDataSource {
         return downloadFile(generateCSVUrl(day), destinationPath);
     }
 
+    /**
+     * Asks the data source again for the files of the last number of days
+     * before today that are already in the output directory, and replaces
+     * any that have been corrected since they were downloaded. Unchanged
+     * files cost a 304 (Not Modified) response each.
+     *
+     * Note: a Melbourne or LiveMelbourne that has already read a corrected
+     * day is not changed.
+     *
+     * @param days
+     * @return the number of files that were replaced
+     * @throws IOException
+     */
+    public int recheckRecentDays(int days) throws IOException {
+        int replaced = 0;
+        LocalDate today = LocalDate.now();
+        for (LocalDate day = today.minusDays(days); day.isBefore(today); day = day.plusDays(1)) {
+            Path file = Paths.get(outputDirectory + day.format(MelbourneCSVFile.FILENAME_TO_DATE) + ".csv");
+            if (Files.exists(file)
+                    && getDownloader().download(new URL(generateCSVUrl(day)), file) != HttpDownloader.Result.NOT_MODIFIED) {
+                replaced++;
+            }
+        }
+        return replaced;
+    }
+
     Path downloadFile(String urlString, String destinationPath) throws MalformedURLException, IOException {
         Path file = Paths.get(destinationPath);
         return downloadFile(urlString, file);
     }
 
+    /**
+     * Downloads the url to the file, see HttpDownloader. Does nothing if the
+     * file is there and has not changed on the server.
+     */
     Path downloadFile(String urlString, Path file) throws MalformedURLException, IOException {
-        final int CONNECTION_TIMEOUT = 30000; // 30 seconds
-        final int READ_TIMEOUT = 30000; // 30 seconds
-
-        URL url = new URL(urlString);
-
-        org.apache.commons.io.FileUtils.copyURLToFile(url, file.toFile(), CONNECTION_TIMEOUT, READ_TIMEOUT);
-
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        getDownloader().download(new URL(urlString), file);
         return file;
     }
 
     String generateCSVUrl(LocalDate date) {
         String dateString = date.format(MelbourneCSVFile.FILENAME_TO_DATE);
 
-        return URL_PREFIX + dateString;
+        return urlPrefix + dateString;
     }
 
     /**
@@ -148,6 +201,9 @@ public class MelbourneDataSource {
             Iterator<Path> it = dirStream.iterator();
             while (it.hasNext()) {
                 Path file = it.next();
+                if (!file.getFileName().toString().matches(MelbourneCSVFile.FILENAME_REGEX)) {
+                    continue; // Another file in the folder, e.g. the sketches.
+                }
                 try {
                     currentFiles.add(parseDateFromFilename(file));
                 } catch (DateTimeParseException pEx) {
@@ -193,7 +249,7 @@ public class MelbourneDataSource {
     /**
      * Extracts only the useful data from all original CSV files in the
      * output directory and writes to files of the same name in the specified
-     * destination
+     * destination. Other files and directories are skipped.
      * @see convertCSVFile
      *
      * @param destDir
@@ -206,6 +262,11 @@ public class MelbourneDataSource {
             int count = 0;
             while (it.hasNext()) {
                 Path input = it.next();
+
+                // Ignore files that are not a data file.
+                if (!input.getFileName().toString().matches(MelbourneCSVFile.FILENAME_REGEX)) {
+                    continue;
+                }
                 Path output = Paths.get(destDir.toString(), input.getFileName().toString());
                 convertCSVFile(input, output);
                 count++;
@@ -270,10 +331,6 @@ public class MelbourneDataSource {
             return false;
         }
 
-        if (lineNum == 30 && !line.startsWith(MelbourneCSVFile.EXPECTED_ROW_30_NAME)) {
-            return false;
-        }
-
         if (lineNum == MelbourneCSVFile.TOTAL_ROW && !line.startsWith(MelbourneCSVFile.EXPECTED_TOTAL_NAME)) {
             return false;
         }
@@ -303,7 +360,11 @@ public class MelbourneDataSource {
     /**
      * Reads all CSV files in the output folder and creates a Melbourne foot
      * traffic object which contains all the sensors and all their readings.
-     * 'N/A' readings are converted to the value of zero.
+     * 'N/A' readings are converted to the value of zero, and marked as missing
+     * (see Sensor.isMissing).
+     *
+     * Files that fail validation are moved to the quarantine directory and
+     * the rest are read (see getLastValidation).
      *
      * @return
      * @throws IOException
@@ -311,6 +372,7 @@ public class MelbourneDataSource {
     public Melbourne createMelbourne() throws IOException {
 
         Melbourne melbourne = new Melbourne();
+        List<Path> dayFiles = new ArrayList<>();
 
         // Read directory
         try (DirectoryStream<Path> dirStream = Files.newDirectoryStream(Paths.get(outputDirectory))) {
@@ -322,65 +384,193 @@ public class MelbourneDataSource {
 
                 // Ignore files that are not a data file. 
                 if (input.getFileName().toString().matches(MelbourneCSVFile.FILENAME_REGEX)) {
+                    dayFiles.add(input);
+                }
+            }
+        }
+        for (Path input : validateDayFiles(dayFiles, melbourne)) {
+            readCSVFile(input, melbourne);
+        }
+        return melbourne;
+    }
+
+    /**
+     * Validates the day files, quarantining the bad ones.
+     * @return the valid files
+     */
+    private List<Path> validateDayFiles(List<Path> dayFiles, Melbourne melbourne) throws IOException {
+        ValidationReport report = new DayFileValidator(melbourne.getSensorNames()).validateAll(dayFiles);
+        lastValidation = report;
+        DayFileValidator.quarantine(report, getQuarantineDirectory());
+        return report.getValidFiles();
+    }
 
-                    LocalDate fileDate = parseDateFromFilename(input);
-
-                    // Open the file
-                    try (BufferedReader reader = Files.newBufferedReader(input)) {
-                        int lineNumber = 0;
-                        String line = null;
-                        String lineContent[] = null;
-
-                        // Read file lines
-                        while ((line = reader.readLine()) != null) {
-
-                            // Ensure file content is valid.
-                            if (!isValidCsvContent(line, lineNumber)) {
-                                throw new IllegalArgumentException("Not a valid Melbourne CSV file or format has changed: " + input + "\n"
-                                        + "Line: " + lineNumber + "\n"
-                                        + "Line content: " + line);
-                            }
-
-                            // Only read data rows
-                            if (lineNumber >= (MelbourneCSVFile.HEADINGS_ROW + 1)
-                                    && lineNumber <= MelbourneCSVFile.DATA_FINAL_ROW) {
-                                lineContent = line.split(",");
-
-                                // Get the sensor associated with this line
-                                Sensor s = melbourne.getSensor(lineContent[0]);
-
-                                LocalTime hour = LocalTime.of(0, 0); // Midnight
-                                LocalDateTime dateTime = LocalDateTime.of(fileDate, hour);
-                                for (String val : lineContent) {
-                                    // Skip first
-                                    if (val.equals(lineContent[0])) {
-                                        continue;
-                                    }
-
-                                    // Set count
-                                    int count;
-                                    if (val.equals("N/A")) {
-                                        count = 0;
-                                    } else {
-                                        count = Integer.parseInt(val);
-                                    }
-                                    s.setCount(dateTime, count);
-
-                                    dateTime = dateTime.plusHours(1);
-                                }
-                            }
-
-                            // Break once we have finished reading data rows
-                            if (lineNumber > MelbourneCSVFile.DATA_FINAL_ROW) {
-                                break;
-                            }
-
-                            lineNumber++;
+    /**
+     * The report of the files validated by the last createMelbourne or
+     * ingestNewDays, including any that were quarantined.
+     * @return
+     */
+    public ValidationReport getLastValidation() {
+        return lastValidation;
+    }
+
+    /**
+     * Where day files that fail validation are moved to, with a report of
+     * why.
+     * @return
+     */
+    public Path getQuarantineDirectory() {
+        return Paths.get(outputDirectory + DayFileValidator.QUARANTINE_DIRECTORY);
+    }
+
+    /**
+     * Saves the quantile sketches of the melbourne object in the output folder,
+     * alongside the CSV files they were built from.
+     *
+     * @param melbourne
+     * @throws IOException
+     */
+    public void saveSketches(Melbourne melbourne) throws IOException {
+        saveSketches(melbourne.getSketches());
+    }
+
+    public void saveSketches(SensorSketches sketches) throws IOException {
+        sketches.write(Paths.get(outputDirectory + SKETCH_FILENAME));
+    }
+
+    /**
+     * Loads the quantile sketches saved by saveSketches, without reading the
+     * CSV files.
+     *
+     * @return
+     * @throws IOException
+     */
+    public SensorSketches loadSketches() throws IOException {
+        return SensorSketches.read(Paths.get(outputDirectory + SKETCH_FILENAME));
+    }
+
+    /**
+     * Reads any CSV files in the output folder that are newer than the last
+     * day of the live data, or for a day the live data has no data for (such
+     * as a day that was quarantined and downloaded again), and appends them as
+     * new snapshots. Readers of the live data are not blocked while this
+     * runs. Files that fail validation are quarantined, as in createMelbourne.
+     *
+     * @param live
+     * @return the number of days appended
+     * @throws IOException
+     */
+    public int ingestNewDays(LiveMelbourne live) throws IOException {
+        return ingestNewDays(live, null);
+    }
+
+    /**
+     * As ingestNewDays(live), also merging the readings of the new days into
+     * the sketches.
+     *
+     * @param live
+     * @param sketches - may be null
+     * @return the number of days appended
+     * @throws IOException
+     */
+    public int ingestNewDays(LiveMelbourne live, SensorSketches sketches) throws IOException {
+        MelbourneSnapshot snapshot = live.snapshot();
+        LocalDate lastDay = snapshot.getLastDay();
+        Melbourne newDays = new Melbourne();
+        List<Path> dayFiles = new ArrayList<>();
+
+        try (DirectoryStream<Path> dirStream = Files.newDirectoryStream(Paths.get(outputDirectory))) {
+            Iterator<Path> it = dirStream.iterator();
+            while (it.hasNext()) {
+                Path input = it.next();
+                if (!input.getFileName().toString().matches(MelbourneCSVFile.FILENAME_REGEX)) {
+                    continue;
+                }
+                LocalDate date = parseDateFromFilename(input);
+                if (lastDay == null || date.isAfter(lastDay)
+                        || (!date.isBefore(snapshot.getFirstDay()) && !snapshot.hasData(HourIndex.of(date)))) {
+                    dayFiles.add(input);
+                }
+            }
+        }
+        if (dayFiles.isEmpty()) {
+            return 0;
+        }
+        List<Path> valid = validateDayFiles(dayFiles, newDays);
+        if (valid.isEmpty()) {
+            return 0;
+        }
+        for (Path input : valid) {
+            readCSVFile(input, newDays);
+        }
+        if (sketches != null) {
+            sketches.merge(newDays.getSketches());
+        }
+        return live.appendNewDays(newDays);
+    }
+
+    /**
+     * Reads the readings of a single CSV file into the melbourne object.
+     *
+     * @param input
+     * @param melbourne
+     * @throws IOException
+     */
+    void readCSVFile(Path input, Melbourne melbourne) throws IOException {
+        LocalDate fileDate = parseDateFromFilename(input);
+
+        // Open the file
+        try (BufferedReader reader = Files.newBufferedReader(input)) {
+            int lineNumber = 0;
+            String line = null;
+            String lineContent[] = null;
+
+            // Read file lines
+            while ((line = reader.readLine()) != null) {
+
+                // Ensure file content is valid.
+                if (!isValidCsvContent(line, lineNumber)) {
+                    throw new IllegalArgumentException("Not a valid Melbourne CSV file or format has changed: " + input + "\n"
+                            + "Line: " + lineNumber + "\n"
+                            + "Line content: " + line);
+                }
+
+                // Only read data rows
+                if (lineNumber >= (MelbourneCSVFile.HEADINGS_ROW + 1)
+                        && lineNumber <= MelbourneCSVFile.DATA_FINAL_ROW) {
+                    lineContent = line.split(",");
+
+                    // Get the sensor associated with this line
+                    Sensor s = melbourne.getSensor(lineContent[0]);
+
+                    LocalTime hour = LocalTime.of(0, 0); // Midnight
+                    LocalDateTime dateTime = LocalDateTime.of(fileDate, hour);
+                    for (String val : lineContent) {
+                        // Skip first
+                        if (val.equals(lineContent[0])) {
+                            continue;
                         }
+
+                        // Set count
+                        if (val.equals("N/A")) {
+                            s.setMissing(dateTime);
+                        } else {
+                            int count = Integer.parseInt(val);
+                            s.setCount(dateTime, count);
+                            melbourne.getSketches().add(lineContent[0], dateTime, count);
+                        }
+
+                        dateTime = dateTime.plusHours(1);
                     }
                 }
+
+                // Break once we have finished reading data rows
+                if (lineNumber > MelbourneCSVFile.DATA_FINAL_ROW) {
+                    break;
+                }
+
+                lineNumber++;
             }
         }
-        return melbourne;
     }
 }
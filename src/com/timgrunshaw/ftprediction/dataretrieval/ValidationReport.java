@@ -0,0 +1,64 @@
+package com.timgrunshaw.ftprediction.dataretrieval;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The outcome of validating a set of day files: the files that can be parsed,
+ * and the problem found with each of the others.
+ *
+ * @author Tim Grunshaw
+ */
+public class ValidationReport {
+
+    private final List<Path> valid = new ArrayList<>();
+    private final Map<Path, String> rejected = new LinkedHashMap<>();
+
+    void addValid(Path file) {
+        valid.add(file);
+    }
+
+    void addRejected(Path file, String problem) {
+        rejected.put(file, problem);
+    }
+
+    /**
+     * @return the valid files, in the order they were given
+     */
+    public List<Path> getValidFiles() {
+        return Collections.unmodifiableList(valid);
+    }
+
+    /**
+     * @return the rejected files (where they were when validated) and the
+     * first problem found in each
+     */
+    public Map<Path, String> getRejectedFiles() {
+        return Collections.unmodifiableMap(rejected);
+    }
+
+    public int getRejectedCount() {
+        return rejected.size();
+    }
+
+    public boolean isAllValid() {
+        return rejected.isEmpty();
+    }
+
+    /**
+     * Writes one line per rejected file: file name, tab, problem.
+     * @param out
+     * @throws IOException
+     */
+    public void write(Appendable out) throws IOException {
+        for (Map.Entry<Path, String> entry : rejected.entrySet()) {
+            out.append(entry.getKey().getFileName().toString()).append('\t')
+                    .append(entry.getValue().replaceAll("[\t\r\n]", " ")).append('\n');
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.timgrunshaw.ftprediction.dataretrieval;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The HTTP validators (ETag, Last-Modified) of each downloaded day file,
+ * saved in a tab separated file alongside the CSV files so that later runs
+ * can make conditional and ranged requests.
+ *
+ * Each line is: file name, complete (1 or 0), content encoding, ETag,
+ * Last-Modified. Empty values are written as "-". An incomplete entry
+ * describes the partial download of the file, not the file itself.
+ *
+ * The file is a journal: each change appends one line, and a later line for
+ * a file name replaces the earlier ones (a complete field of "-" removes the
+ * entry). Saving a day therefore costs one line however many days there
+ * are. The file is rewritten without the replaced lines once they outnumber
+ * the entries, and a torn last line from a crash while appending is ignored.
+ *
+ * @author Tim Grunshaw
+ */
+class ValidatorCache {
+
+    static class Entry {
+
+        final boolean complete;
+        final String encoding;
+        final String etag;
+        final String lastModified;
+
+        Entry(boolean complete, String encoding, String etag, String lastModified) {
+            this.complete = complete;
+            this.encoding = encoding;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        boolean hasValidator() {
+            return etag != null || lastModified != null;
+        }
+    }
+
+    private static final String EMPTY = "-";
+    // Lines that may be replaced before compacting, beyond one per entry.
+    private static final int MIN_REPLACED_LINES = 64;
+
+    private final Path file;
+    private Map<String, Entry> entries;
+    private int lines; // In the file
+
+    ValidatorCache(Path file) {
+        this.file = file;
+    }
+
+    synchronized Entry get(String fileName) throws IOException {
+        return entries().get(fileName);
+    }
+
+    synchronized void put(String fileName, Entry entry) throws IOException {
+        entries().put(fileName, entry);
+        append(fileName, entry);
+    }
+
+    synchronized void remove(String fileName) throws IOException {
+        if (entries().remove(fileName) != null) {
+            append(fileName, null);
+        }
+    }
+
+    private Map<String, Entry> entries() throws IOException {
+        if (entries == null) {
+            entries = new HashMap<>();
+            lines = 0;
+            boolean torn = false;
+            if (Files.exists(file)) {
+                try (BufferedReader reader = Files.newBufferedReader(file)) {
+                    String line = reader.readLine();
+                    while (line != null) {
+                        String next = reader.readLine();
+                        String[] fields = line.split("\t");
+                        if (fields.length != 5) {
+                            if (next == null) {
+                                torn = true; // By a crash while appending
+                                break;
+                            }
+                            throw new IOException("Invalid validator cache line in " + file + ": " + line);
+                        }
+                        if (fields[1].equals(EMPTY)) {
+                            entries.remove(fields[0]);
+                        } else {
+                            entries.put(fields[0], new Entry(fields[1].equals("1"),
+                                    value(fields[2]), value(fields[3]), value(fields[4])));
+                        }
+                        lines++;
+                        line = next;
+                    }
+                }
+            }
+            // Rewrite a torn file, so the next line is not appended to the torn one.
+            if (torn || !endsWithNewline() || lines > 2 * entries.size() + MIN_REPLACED_LINES) {
+                save();
+            }
+        }
+        return entries;
+    }
+
+    private boolean endsWithNewline() throws IOException {
+        if (!Files.exists(file) || Files.size(file) == 0) {
+            return true;
+        }
+        try (SeekableByteChannel channel = Files.newByteChannel(file)) {
+            ByteBuffer last = ByteBuffer.allocate(1);
+            channel.position(channel.size() - 1);
+            channel.read(last);
+            return last.get(0) == '\n';
+        }
+    }
+
+    /**
+     * Appends the change to the journal, or rewrites the file when it has
+     * collected too many replaced lines.
+     * @param entry - null for a removal
+     */
+    private void append(String fileName, Entry entry) throws IOException {
+        if (lines + 1 > 2 * entries.size() + MIN_REPLACED_LINES) {
+            save();
+            return;
+        }
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        try (BufferedWriter writer = Files.newBufferedWriter(file,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            writer.write(line(fileName, entry));
+            writer.newLine();
+        }
+        lines++;
+    }
+
+    private static String line(String fileName, Entry entry) {
+        if (entry == null) {
+            return fileName + "\t" + EMPTY + "\t" + EMPTY + "\t" + EMPTY + "\t" + EMPTY;
+        }
+        return fileName + "\t" + (entry.complete ? "1" : "0") + "\t"
+                + field(entry.encoding) + "\t" + field(entry.etag) + "\t" + field(entry.lastModified);
+    }
+
+    private static String value(String field) {
+        return field.equals(EMPTY) ? null : field;
+    }
+
+    private static String field(String value) {
+        return value == null || value.isEmpty() ? EMPTY : value.replace('\t', ' ');
+    }
+
+    /**
+     * Writes one line per entry to a temporary file and moves it into place,
+     * so a crash never leaves a truncated cache.
+     */
+    private void save() throws IOException {
+        Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path temp = Files.createTempFile(dir, ".validators-", ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(temp)) {
+                for (Map.Entry<String, Entry> e : new TreeMap<>(entries).entrySet()) {
+                    writer.write(line(e.getKey(), e.getValue()));
+                    writer.newLine();
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            lines = entries.size();
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.timgrunshaw.ftprediction.forecast;
+
+import com.timgrunshaw.ftprediction.data.Bitmaps;
+import com.timgrunshaw.ftprediction.data.HourIndex;
+import com.timgrunshaw.ftprediction.data.Melbourne;
+import com.timgrunshaw.ftprediction.data.SensorColumns;
+import java.util.Arrays;
+
+/**
+ * The baseline forecast of each sensor: its mean count for each hour of the
+ * week (0 = Monday midnight) over the most recent weeks of its history.
+ *
+ * Missing readings are left out. An hour of the week without any reading
+ * takes the mean of the sensor's other hours, and a sensor without any
+ * reading in the window has no profile.
+ *
+ * @author Tim Grunshaw
+ */
+public class BaselineProfiles {
+
+    public static final int DEFAULT_WEEKS = 8;
+
+    private final String[] sensorNames;
+    private final double[] means; // [sensor][hour of week]
+    private final boolean[] profiled;
+
+    /**
+     * @param sensorNames
+     * @param means - HOURS_PER_WEEK means per sensor, sensor by sensor
+     * @param profiled - whether each sensor has a profile
+     */
+    public BaselineProfiles(String[] sensorNames, double[] means, boolean[] profiled) {
+        if (means.length != sensorNames.length * HourIndex.HOURS_PER_WEEK || profiled.length != sensorNames.length) {
+            throw new IllegalArgumentException("Need " + HourIndex.HOURS_PER_WEEK + " means per sensor");
+        }
+        this.sensorNames = sensorNames.clone();
+        this.means = means.clone();
+        this.profiled = profiled.clone();
+    }
+
+    /**
+     * Fits the profiles to the last DEFAULT_WEEKS weeks of the data.
+     * @param melbourne
+     * @return
+     */
+    public static BaselineProfiles fit(Melbourne melbourne) {
+        return fit(melbourne.toColumns(), DEFAULT_WEEKS);
+    }
+
+    /**
+     * Fits the profiles to the last weeks of the columns.
+     * @param columns
+     * @param weeks
+     * @return
+     */
+    public static BaselineProfiles fit(SensorColumns columns, int weeks) {
+        if (weeks < 1) {
+            throw new IllegalArgumentException("Need at least 1 week: " + weeks);
+        }
+        final int week = HourIndex.HOURS_PER_WEEK;
+        int sensors = columns.getSensorCount();
+        int to = columns.getHours();
+        int from = Math.max(0, to - weeks * week);
+        double[] means = new double[sensors * week];
+        boolean[] profiled = new boolean[sensors];
+
+        long[] sums = new long[week];
+        int[] counts = new int[week];
+        for (int s = 0; s < sensors; s++) {
+            Arrays.fill(sums, 0);
+            Arrays.fill(counts, 0);
+            int[] column = columns.getColumn(s);
+            long[] missing = columns.hasMissingInfo() ? columns.getMissing(s) : null;
+            int hourOfWeek = HourIndex.hourOfWeek(columns.getFirstHour() + from);
+            for (int row = from; row < to; row++) {
+                if (missing == null || !Bitmaps.get(missing, row)) {
+                    sums[hourOfWeek] += column[row];
+                    counts[hourOfWeek]++;
+                }
+                if (++hourOfWeek == week) {
+                    hourOfWeek = 0;
+                }
+            }
+
+            long total = 0;
+            int present = 0;
+            for (int h = 0; h < week; h++) {
+                total += sums[h];
+                present += counts[h];
+            }
+            profiled[s] = present > 0;
+            double fallback = present > 0 ? (double) total / present : 0;
+            for (int h = 0; h < week; h++) {
+                means[s * week + h] = counts[h] > 0 ? (double) sums[h] / counts[h] : fallback;
+            }
+        }
+        return new BaselineProfiles(columns.getSensorNames(), means, profiled);
+    }
+
+    public String[] getSensorNames() {
+        return sensorNames.clone();
+    }
+
+    public int getSensorCount() {
+        return sensorNames.length;
+    }
+
+    public boolean hasProfile(int sensor) {
+        return profiled[sensor];
+    }
+
+    public double getMean(int sensor, int hourOfWeek) {
+        return means[sensor * HourIndex.HOURS_PER_WEEK + hourOfWeek];
+    }
+
+    /**
+     * The means of all sensors, HOURS_PER_WEEK per sensor. Not a copy.
+     */
+    double[] table() {
+        return means;
+    }
+}
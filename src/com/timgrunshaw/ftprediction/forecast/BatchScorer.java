@@ -0,0 +1,148 @@
+package com.timgrunshaw.ftprediction.forecast;
+
+import com.timgrunshaw.ftprediction.data.Bitmaps;
+import com.timgrunshaw.ftprediction.data.HourIndex;
+import com.timgrunshaw.ftprediction.data.SensorColumns;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Forecasts every sensor for every hour of a range in one pass, into a
+ * sensor x hour matrix of counts (the columns of a SensorColumns, so the
+ * result can be written like any other data).
+ *
+ * A sensor's forecast repeats weekly, so each sensor's profile is rounded
+ * once into a run of two weeks and its column is filled by copying a week at
+ * a time from the right offset of the run. Sensors are split between
+ * threads; each thread only writes its own columns.
+ *
+ * @author Tim Grunshaw
+ */
+public class BatchScorer {
+
+    private final BaselineProfiles profiles;
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    public BatchScorer(BaselineProfiles profiles) {
+        this.profiles = profiles;
+    }
+
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Need at least 1 thread: " + threads);
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Forecasts every hour of the days [from, from + days).
+     * @param from
+     * @param days
+     * @return
+     */
+    public SensorColumns score(LocalDate from, int days) {
+        return score(HourIndex.of(from), days * HourIndex.HOURS_PER_DAY);
+    }
+
+    /**
+     * Forecasts the hours [fromHour, fromHour + hours). Sensors without a
+     * profile are missing for every hour.
+     * @param fromHour - hour index
+     * @param hours
+     * @return
+     */
+    public SensorColumns score(int fromHour, int hours) {
+        if (hours < 0) {
+            throw new IllegalArgumentException("Hours cannot be negative: " + hours);
+        }
+        int sensors = profiles.getSensorCount();
+        int[][] counts = new int[sensors][hours];
+        long[][] missing = new long[sensors][Bitmaps.length(hours)];
+        score(fromHour, counts, missing);
+        return new SensorColumns(profiles.getSensorNames(), fromHour, counts, missing);
+    }
+
+    /**
+     * Forecasts into preallocated columns, so that repeated runs do not
+     * allocate.
+     * @param fromHour - hour index of row 0
+     * @param counts - one column per sensor, all the same length, overwritten
+     * @param missing - one bitmap per sensor, overwritten; may be null, in
+     * which case sensors without a profile are forecast as 0
+     */
+    public void score(final int fromHour, final int[][] counts, final long[][] missing) {
+        final int sensors = profiles.getSensorCount();
+        if (counts.length != sensors || (missing != null && missing.length != sensors)) {
+            throw new IllegalArgumentException("Need one column per sensor");
+        }
+        for (int s = 0; missing != null && s < sensors; s++) {
+            if (missing[s].length < Bitmaps.length(counts[s].length)) {
+                throw new IllegalArgumentException("Missing bitmap is too short for " + counts[s].length + " hours");
+            }
+        }
+        int workers = Math.min(threads, sensors);
+        if (workers <= 1) {
+            scoreSensors(0, sensors, fromHour, counts, missing);
+            return;
+        }
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int w = 0; w < workers; w++) {
+            final int first = sensors * w / workers;
+            final int last = sensors * (w + 1) / workers;
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    scoreSensors(first, last, fromHour, counts, missing);
+                    return null;
+                }
+            });
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try {
+            for (Future<Void> done : executor.invokeAll(tasks)) {
+                done.get();
+            }
+        } catch (InterruptedException iEx) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Scoring was interrupted", iEx);
+        } catch (ExecutionException eEx) {
+            throw new IllegalStateException("Scoring failed", eEx.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void scoreSensors(int first, int last, int fromHour, int[][] counts, long[][] missing) {
+        final int week = HourIndex.HOURS_PER_WEEK;
+        double[] table = profiles.table();
+        int start = HourIndex.hourOfWeek(fromHour);
+        int[] run = new int[2 * week];
+
+        for (int s = first; s < last; s++) {
+            int[] column = counts[s];
+            int hours = column.length;
+            for (int h = 0; h < week; h++) {
+                run[h] = (int) Math.round(table[s * week + h]);
+            }
+            System.arraycopy(run, 0, run, week, week);
+            for (int row = 0; row < hours; row += week) {
+                System.arraycopy(run, start, column, row, Math.min(week, hours - row));
+            }
+
+            if (missing != null) {
+                Arrays.fill(missing[s], 0L);
+                if (!profiles.hasProfile(s)) {
+                    Bitmaps.setRange(missing[s], 0, hours);
+                }
+            }
+        }
+    }
+}
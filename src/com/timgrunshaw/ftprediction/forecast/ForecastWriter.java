@@ -0,0 +1,174 @@
+package com.timgrunshaw.ftprediction.forecast;
+
+import com.timgrunshaw.ftprediction.arrow.ArrowExporter;
+import com.timgrunshaw.ftprediction.data.HourIndex;
+import com.timgrunshaw.ftprediction.data.SensorColumns;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes a sensor x hour matrix in the layout of Melbourne.writeData: a
+ * first row of "Sensor" and the sensor names, then one row per hour of the
+ * date and time followed by the count of each sensor. Like writeData, a
+ * missing hour is written as its stored count unless a missing text (such
+ * as "N/A") is given.
+ *
+ * Rows are formatted straight into a byte buffer, without a String per
+ * value, and the buffer is written out whenever it fills, so only the buffer
+ * is held however many hours there are.
+ *
+ * @author Tim Grunshaw
+ */
+public final class ForecastWriter {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    // An int is at most 11 characters, plus the comma.
+    private static final int MAX_VALUE_BYTES = 12;
+    // yyyy-MM-dd, then THH:00
+    private static final int DATE_BYTES = 10;
+    private static final int TIME_BYTES = DATE_BYTES + 6;
+
+    private ForecastWriter() {
+    }
+
+    /**
+     * Writes the columns as CSV, replacing dest.
+     * @param columns
+     * @param dest
+     * @throws IOException
+     */
+    public static void writeCsv(SensorColumns columns, Path dest) throws IOException {
+        writeCsv(columns, dest, null);
+    }
+
+    /**
+     * Writes the columns as CSV, replacing dest.
+     * @param columns
+     * @param dest
+     * @param missingText - written for missing hours, or null to write
+     * their stored count
+     * @throws IOException
+     */
+    public static void writeCsv(SensorColumns columns, Path dest, String missingText) throws IOException {
+        try (OutputStream out = Files.newOutputStream(dest)) {
+            writeCsv(columns, out, missingText);
+        }
+    }
+
+    /**
+     * Writes the columns as CSV to the stream, which is left open.
+     * @param columns
+     * @param out
+     * @throws IOException
+     */
+    public static void writeCsv(SensorColumns columns, OutputStream out) throws IOException {
+        writeCsv(columns, out, null);
+    }
+
+    /**
+     * Writes the columns as CSV to the stream, which is left open.
+     * @param columns
+     * @param out
+     * @param missingText - written for missing hours, or null to write
+     * their stored count
+     * @throws IOException
+     */
+    public static void writeCsv(SensorColumns columns, OutputStream out, String missingText) throws IOException {
+        int sensors = columns.getSensorCount();
+        int hours = columns.getHours();
+        byte[] missingBytes = missingText == null ? null : missingText.getBytes(StandardCharsets.UTF_8);
+        int maxValue = missingBytes == null ? MAX_VALUE_BYTES : Math.max(MAX_VALUE_BYTES, 1 + missingBytes.length);
+        int maxRow = 1 + TIME_BYTES + sensors * maxValue;
+        byte[] buffer = new byte[Math.max(BUFFER_SIZE, maxRow)];
+
+        StringBuilder header = new StringBuilder("Sensor");
+        for (String sensor : columns.getSensorNames()) {
+            header.append(',').append(sensor);
+        }
+        out.write(header.toString().getBytes(StandardCharsets.UTF_8));
+
+        int[][] counts = new int[sensors][];
+        for (int s = 0; s < sensors; s++) {
+            counts[s] = columns.getColumn(s);
+        }
+        byte[] date = null;
+        int pos = 0;
+        for (int row = 0; row < hours; row++) {
+            if (pos + maxRow > buffer.length) {
+                out.write(buffer, 0, pos);
+                pos = 0;
+            }
+            int hourIndex = columns.getFirstHour() + row;
+            int hourOfDay = HourIndex.hourOfDay(hourIndex);
+            if (row == 0 || hourOfDay == 0) {
+                byte[] text = HourIndex.toDate(hourIndex).toString().getBytes(StandardCharsets.US_ASCII);
+                if (text.length != DATE_BYTES) {
+                    throw new IllegalArgumentException("Cannot write the date of hour " + hourIndex + " as yyyy-MM-dd");
+                }
+                date = text;
+            }
+
+            buffer[pos++] = '\n';
+            System.arraycopy(date, 0, buffer, pos, date.length);
+            pos += date.length;
+            buffer[pos++] = 'T';
+            buffer[pos++] = (byte) ('0' + hourOfDay / 10);
+            buffer[pos++] = (byte) ('0' + hourOfDay % 10);
+            buffer[pos++] = ':';
+            buffer[pos++] = '0';
+            buffer[pos++] = '0';
+
+            for (int s = 0; s < sensors; s++) {
+                buffer[pos++] = ',';
+                if (missingBytes != null && columns.isMissing(s, row)) {
+                    System.arraycopy(missingBytes, 0, buffer, pos, missingBytes.length);
+                    pos += missingBytes.length;
+                } else {
+                    pos = writeInt(counts[s][row], buffer, pos);
+                }
+            }
+        }
+        out.write(buffer, 0, pos);
+    }
+
+    /**
+     * Writes the decimal digits of value at pos.
+     * @return the position after the last digit
+     */
+    static int writeInt(int value, byte[] buffer, int pos) {
+        if (value == Integer.MIN_VALUE) {
+            byte[] text = Integer.toString(value).getBytes(StandardCharsets.US_ASCII);
+            System.arraycopy(text, 0, buffer, pos, text.length);
+            return pos + text.length;
+        }
+        if (value < 0) {
+            buffer[pos++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (int v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        int end = pos + digits;
+        for (int i = end - 1; i >= pos; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return end;
+    }
+
+    /**
+     * Writes the columns as an Arrow IPC file, the binary equivalent with
+     * the same columns.
+     * @see ArrowExporter
+     * @param columns
+     * @param dest
+     * @throws IOException
+     */
+    public static void writeArrow(SensorColumns columns, Path dest) throws IOException {
+        ArrowExporter.write(columns, dest);
+    }
+}
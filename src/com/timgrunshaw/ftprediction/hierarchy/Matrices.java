@@ -0,0 +1,124 @@
+package com.timgrunshaw.ftprediction.hierarchy;
+
+/**
+ * Small dense linear algebra helpers for the reconciliation matrices. All
+ * matrices are row-major double arrays.
+ *
+ * @author Tim Grunshaw
+ */
+final class Matrices {
+
+    private Matrices() {
+    }
+
+    /**
+     * Replaces the symmetric positive definite n x n matrix a with its lower
+     * Cholesky factor L (a = L L').
+     */
+    static void cholesky(double[] a, int n) {
+        for (int j = 0; j < n; j++) {
+            double d = a[j * n + j];
+            for (int k = 0; k < j; k++) {
+                d -= a[j * n + k] * a[j * n + k];
+            }
+            if (d <= 0) {
+                throw new IllegalArgumentException("Matrix is not positive definite (row " + j + ")");
+            }
+            d = Math.sqrt(d);
+            a[j * n + j] = d;
+            for (int i = j + 1; i < n; i++) {
+                double s = a[i * n + j];
+                for (int k = 0; k < j; k++) {
+                    s -= a[i * n + k] * a[j * n + k];
+                }
+                a[i * n + j] = s / d;
+            }
+            for (int k = j + 1; k < n; k++) {
+                a[j * n + k] = 0.0;
+            }
+        }
+    }
+
+    /**
+     * Solves L L' X = B in place, where l is a Cholesky factor from cholesky()
+     * and b is n x cols.
+     */
+    static void choleskySolve(double[] l, int n, double[] b, int cols) {
+        // Forward substitution, L Y = B
+        for (int i = 0; i < n; i++) {
+            for (int k = 0; k < i; k++) {
+                double lik = l[i * n + k];
+                if (lik != 0.0) {
+                    for (int c = 0; c < cols; c++) {
+                        b[i * cols + c] -= lik * b[k * cols + c];
+                    }
+                }
+            }
+            double lii = l[i * n + i];
+            for (int c = 0; c < cols; c++) {
+                b[i * cols + c] /= lii;
+            }
+        }
+        // Back substitution, L' X = Y
+        for (int i = n - 1; i >= 0; i--) {
+            for (int k = i + 1; k < n; k++) {
+                double lki = l[k * n + i];
+                if (lki != 0.0) {
+                    for (int c = 0; c < cols; c++) {
+                        b[i * cols + c] -= lki * b[k * cols + c];
+                    }
+                }
+            }
+            double lii = l[i * n + i];
+            for (int c = 0; c < cols; c++) {
+                b[i * cols + c] /= lii;
+            }
+        }
+    }
+
+    /**
+     * Returns a' b, where a is rows x aCols and b is rows x bCols.
+     */
+    static double[] transposeMultiply(double[] a, int rows, int aCols, double[] b, int bCols) {
+        double[] result = new double[aCols * bCols];
+        for (int r = 0; r < rows; r++) {
+            for (int i = 0; i < aCols; i++) {
+                double ari = a[r * aCols + i];
+                if (ari != 0.0) {
+                    for (int j = 0; j < bCols; j++) {
+                        result[i * bCols + j] += ari * b[r * bCols + j];
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns a b, where a is rows x inner and b is inner x cols.
+     */
+    static double[] multiply(double[] a, int rows, int inner, double[] b, int cols) {
+        double[] result = new double[rows * cols];
+        for (int r = 0; r < rows; r++) {
+            for (int k = 0; k < inner; k++) {
+                double ark = a[r * inner + k];
+                if (ark != 0.0) {
+                    for (int c = 0; c < cols; c++) {
+                        result[r * cols + c] += ark * b[k * cols + c];
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    static double[] transpose(double[] a, int rows, int cols) {
+        double[] result = new double[rows * cols];
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                result[c * rows + r] = a[r * cols + c];
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,221 @@
+package com.timgrunshaw.ftprediction.hierarchy;
+
+import java.util.Arrays;
+
+/**
+ * Reconciles base forecasts for every node of a SensorHierarchy so that the
+ * city and group forecasts are exactly the sum of their sensors.
+ *
+ * Reconciled forecasts are y~ = S G y^, where S is the summing matrix and G
+ * depends on the method. The m x m projection P = S G is computed once when
+ * the Reconciler is created, so reconciling each hour is a single m x m
+ * matrix-vector product.
+ *
+ * The MinT estimators follow Wickramasuriya, Athanasopoulos and Hyndman (2019),
+ * G = (S' W^-1 S)^-1 S' W^-1, with W the covariance of base forecast errors.
+ *
+ * @author Tim Grunshaw
+ */
+public class Reconciler {
+
+    private final int nodes;
+    private final double[] projection; // nodes x nodes
+
+    private Reconciler(int nodes, double[] projection) {
+        this.nodes = nodes;
+        this.projection = projection;
+    }
+
+    /**
+     * Bottom-up: only the sensor forecasts are used, groups and total are summed.
+     * @param hierarchy
+     * @return
+     */
+    public static Reconciler bottomUp(SensorHierarchy hierarchy) {
+        int m = hierarchy.getNodeCount();
+        int n = hierarchy.getSensorCount();
+        int first = hierarchy.getFirstSensorNode();
+        double[] s = hierarchy.summingMatrix();
+
+        // P = S [0 | I], i.e. column first + j of P is column j of S.
+        double[] p = new double[m * m];
+        for (int r = 0; r < m; r++) {
+            for (int j = 0; j < n; j++) {
+                p[r * m + first + j] = s[r * n + j];
+            }
+        }
+        return new Reconciler(m, p);
+    }
+
+    /**
+     * OLS reconciliation (W = I).
+     * @param hierarchy
+     * @return
+     */
+    public static Reconciler ols(SensorHierarchy hierarchy) {
+        double[] variances = new double[hierarchy.getNodeCount()];
+        Arrays.fill(variances, 1.0);
+        return wls(hierarchy, variances);
+    }
+
+    /**
+     * Weighted least squares / MinT with a diagonal W.
+     * @param hierarchy
+     * @param variances - the base forecast error variance of each node
+     * @return
+     */
+    public static Reconciler wls(SensorHierarchy hierarchy, double[] variances) {
+        int m = hierarchy.getNodeCount();
+        int n = hierarchy.getSensorCount();
+        if (variances.length != m) {
+            throw new IllegalArgumentException("Need one variance per node: " + m);
+        }
+        double[] s = hierarchy.summingMatrix();
+        double[] winvS = new double[m * n];
+        for (int r = 0; r < m; r++) {
+            if (variances[r] <= 0) {
+                throw new IllegalArgumentException("Variances must be positive, node " + r);
+            }
+            for (int c = 0; c < n; c++) {
+                winvS[r * n + c] = s[r * n + c] / variances[r];
+            }
+        }
+        return fromWinvS(m, n, s, winvS);
+    }
+
+    /**
+     * MinT with a full covariance matrix W (nodes x nodes, row-major).
+     * @param hierarchy
+     * @param covariance
+     * @return
+     */
+    public static Reconciler mint(SensorHierarchy hierarchy, double[] covariance) {
+        int m = hierarchy.getNodeCount();
+        int n = hierarchy.getSensorCount();
+        if (covariance.length != m * m) {
+            throw new IllegalArgumentException("Covariance must be " + m + " x " + m);
+        }
+        double[] s = hierarchy.summingMatrix();
+        double[] l = covariance.clone();
+        Matrices.cholesky(l, m);
+        double[] winvS = s.clone();
+        Matrices.choleskySolve(l, m, winvS, n);
+        return fromWinvS(m, n, s, winvS);
+    }
+
+    /**
+     * MinT with W estimated from in-sample base forecast errors, shrunk
+     * towards its diagonal (Schafer and Strimmer 2005).
+     * @param hierarchy
+     * @param residuals - observations x nodes, row-major
+     * @param observations
+     * @return
+     */
+    public static Reconciler mintShrink(SensorHierarchy hierarchy, double[] residuals, int observations) {
+        return mint(hierarchy, shrinkCovariance(residuals, observations, hierarchy.getNodeCount()));
+    }
+
+    /**
+     * P = S (S' W^-1 S)^-1 (W^-1 S)'
+     */
+    private static Reconciler fromWinvS(int m, int n, double[] s, double[] winvS) {
+        double[] a = Matrices.transposeMultiply(s, m, n, winvS, n); // n x n
+        Matrices.cholesky(a, n);
+        double[] g = Matrices.transpose(winvS, m, n); // n x m
+        Matrices.choleskySolve(a, n, g, m);
+        return new Reconciler(m, Matrices.multiply(s, m, n, g, m));
+    }
+
+    static double[] shrinkCovariance(double[] residuals, int t, int m) {
+        if (t < 2 || residuals.length != t * m) {
+            throw new IllegalArgumentException("Need at least 2 observations of " + m + " nodes");
+        }
+        double[] mean = new double[m];
+        for (int r = 0; r < t; r++) {
+            for (int i = 0; i < m; i++) {
+                mean[i] += residuals[r * m + i];
+            }
+        }
+        for (int i = 0; i < m; i++) {
+            mean[i] /= t;
+        }
+
+        double[] cov = new double[m * m];
+        for (int r = 0; r < t; r++) {
+            for (int i = 0; i < m; i++) {
+                double ei = residuals[r * m + i] - mean[i];
+                for (int j = i; j < m; j++) {
+                    cov[i * m + j] += ei * (residuals[r * m + j] - mean[j]);
+                }
+            }
+        }
+        double[] sd = new double[m];
+        for (int i = 0; i < m; i++) {
+            for (int j = i; j < m; j++) {
+                cov[i * m + j] /= t - 1;
+                cov[j * m + i] = cov[i * m + j];
+            }
+            sd[i] = Math.sqrt(cov[i * m + i]);
+            if (sd[i] == 0) {
+                throw new IllegalArgumentException("Residuals of node " + i + " have zero variance");
+            }
+        }
+
+        // Variance of each standardised cross product gives the shrinkage intensity.
+        double varSum = 0;
+        double corSum = 0;
+        for (int i = 0; i < m; i++) {
+            for (int j = i + 1; j < m; j++) {
+                double sum = 0;
+                double sumSq = 0;
+                for (int r = 0; r < t; r++) {
+                    double w = (residuals[r * m + i] - mean[i]) / sd[i]
+                            * (residuals[r * m + j] - mean[j]) / sd[j];
+                    sum += w;
+                    sumSq += w * w;
+                }
+                double wMean = sum / t;
+                varSum += (sumSq / t - wMean * wMean) * t * t / ((double) (t - 1) * (t - 1) * (t - 1));
+                double cor = cov[i * m + j] / (sd[i] * sd[j]);
+                corSum += cor * cor;
+            }
+        }
+        double lambda = corSum == 0 ? 1.0 : Math.max(0.0, Math.min(1.0, varSum / corSum));
+
+        for (int i = 0; i < m; i++) {
+            for (int j = 0; j < m; j++) {
+                if (i != j) {
+                    cov[i * m + j] *= 1.0 - lambda;
+                }
+            }
+        }
+        return cov;
+    }
+
+    public int getNodeCount() {
+        return nodes;
+    }
+
+    /**
+     * Reconciles the forecasts for a number of hours.
+     * @param base - hours x nodes base forecasts, row-major
+     * @param hours
+     * @param reconciled - hours x nodes, filled with the coherent forecasts
+     */
+    public void reconcile(double[] base, int hours, double[] reconciled) {
+        if (base.length < hours * nodes || reconciled.length < hours * nodes) {
+            throw new IllegalArgumentException("Forecast arrays must hold " + hours + " x " + nodes);
+        }
+        for (int h = 0; h < hours; h++) {
+            int offset = h * nodes;
+            for (int r = 0; r < nodes; r++) {
+                double sum = 0;
+                int row = r * nodes;
+                for (int c = 0; c < nodes; c++) {
+                    sum += projection[row + c] * base[offset + c];
+                }
+                reconciled[offset + r] = sum;
+            }
+        }
+    }
+}
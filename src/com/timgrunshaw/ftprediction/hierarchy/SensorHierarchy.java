@@ -0,0 +1,243 @@
+package com.timgrunshaw.ftprediction.hierarchy;
+
+import com.timgrunshaw.ftprediction.data.Melbourne;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A hierarchy of the Melbourne sensors: the city total, groups of sensors
+ * (precincts) and the individual sensors.
+ *
+ * Each node is a sum of sensors. Nodes are numbered with the city total first
+ * (node 0), then the groups in the order they were added, then one node per
+ * sensor in the order of Melbourne.getSensorNames(). This is the row order of
+ * the summing matrix and of all forecast vectors used for reconciliation.
+ *
+ * Groups may be loaded from a local file with one group per line:
+ * Group name: sensor; sensor; sensor
+ *
+ * @author Tim Grunshaw
+ */
+public class SensorHierarchy {
+
+    public static final String TOTAL_NAME = "Melbourne";
+
+    private final String[] sensorNames;
+    private final HashMap<String, Integer> sensorIndex = new HashMap<>();
+    private final ArrayList<String> groupNames = new ArrayList<>();
+    private final ArrayList<int[]> groupMembers = new ArrayList<>();
+
+    public SensorHierarchy(String[] sensorNames) {
+        this.sensorNames = sensorNames.clone();
+        for (int i = 0; i < sensorNames.length; i++) {
+            sensorIndex.put(sensorNames[i], i);
+        }
+    }
+
+    /**
+     * Adds a group (e.g. a precinct) made up of the specified sensors.
+     * @param name
+     * @param sensors
+     */
+    public void addGroup(String name, String... sensors) {
+        if (groupNames.contains(name) || TOTAL_NAME.equals(name)) {
+            throw new IllegalArgumentException("Duplicate group name: " + name);
+        }
+        if (sensors.length == 0) {
+            throw new IllegalArgumentException("Group must contain at least one sensor: " + name);
+        }
+        int[] members = new int[sensors.length];
+        for (int i = 0; i < sensors.length; i++) {
+            Integer index = sensorIndex.get(sensors[i]);
+            if (index == null) {
+                throw new IllegalArgumentException("Unknown sensor in group " + name + ": " + sensors[i]);
+            }
+            members[i] = index;
+        }
+        groupNames.add(name);
+        groupMembers.add(members);
+    }
+
+    /**
+     * The number of nodes: total + groups + sensors.
+     * @return
+     */
+    public int getNodeCount() {
+        return 1 + groupNames.size() + sensorNames.length;
+    }
+
+    public int getSensorCount() {
+        return sensorNames.length;
+    }
+
+    public int getGroupCount() {
+        return groupNames.size();
+    }
+
+    /**
+     * The node number of the first sensor, sensor i is at node getFirstSensorNode() + i.
+     * @return
+     */
+    public int getFirstSensorNode() {
+        return 1 + groupNames.size();
+    }
+
+    public String getNodeName(int node) {
+        if (node == 0) {
+            return TOTAL_NAME;
+        } else if (node < getFirstSensorNode()) {
+            return groupNames.get(node - 1);
+        } else {
+            return sensorNames[node - getFirstSensorNode()];
+        }
+    }
+
+    public int getNode(String name) {
+        if (TOTAL_NAME.equals(name)) {
+            return 0;
+        }
+        int group = groupNames.indexOf(name);
+        if (group >= 0) {
+            return 1 + group;
+        }
+        Integer sensor = sensorIndex.get(name);
+        if (sensor == null) {
+            throw new IllegalArgumentException("No such node: " + name);
+        }
+        return getFirstSensorNode() + sensor;
+    }
+
+    /**
+     * The summing matrix S (nodes x sensors, row-major), where S[node][sensor]
+     * is 1 if the sensor is part of the node.
+     * @return
+     */
+    public double[] summingMatrix() {
+        int n = sensorNames.length;
+        double[] s = new double[getNodeCount() * n];
+        Arrays.fill(s, 0, n, 1.0);
+        for (int g = 0; g < groupMembers.size(); g++) {
+            for (int sensor : groupMembers.get(g)) {
+                s[(1 + g) * n + sensor] = 1.0;
+            }
+        }
+        int first = getFirstSensorNode();
+        for (int i = 0; i < n; i++) {
+            s[(first + i) * n + i] = 1.0;
+        }
+        return s;
+    }
+
+    /**
+     * Sums sensor level values up to every node of the hierarchy.
+     * @param sensorValues - one value per sensor
+     * @param nodeValues - filled with one value per node
+     */
+    public void aggregate(double[] sensorValues, double[] nodeValues) {
+        double total = 0;
+        for (double v : sensorValues) {
+            total += v;
+        }
+        nodeValues[0] = total;
+        for (int g = 0; g < groupMembers.size(); g++) {
+            double sum = 0;
+            for (int sensor : groupMembers.get(g)) {
+                sum += sensorValues[sensor];
+            }
+            nodeValues[1 + g] = sum;
+        }
+        System.arraycopy(sensorValues, 0, nodeValues, getFirstSensorNode(), sensorValues.length);
+    }
+
+    /**
+     * The actual count of a node of the hierarchy for the hour.
+     * @param melbourne
+     * @param node
+     * @param hour
+     * @return
+     */
+    public int getCount(Melbourne melbourne, int node, LocalDateTime hour) {
+        if (node == 0) {
+            return melbourne.getCountOfAllSensors(hour);
+        } else if (node < getFirstSensorNode()) {
+            int count = 0;
+            for (int sensor : groupMembers.get(node - 1)) {
+                count += melbourne.getSensor(sensorNames[sensor]).getCount(hour);
+            }
+            return count;
+        } else {
+            return melbourne.getSensor(sensorNames[node - getFirstSensorNode()]).getCount(hour);
+        }
+    }
+
+    /**
+     * Reads groups from a local file in the format described above.
+     * @param file
+     * @param sensorNames
+     * @return
+     * @throws IOException
+     */
+    public static SensorHierarchy load(Path file, String[] sensorNames) throws IOException {
+        SensorHierarchy hierarchy = new SensorHierarchy(sensorNames);
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            String line = null;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                int colon = line.indexOf(':');
+                if (colon < 0) {
+                    throw new IllegalArgumentException("Group line must be 'name: sensor; sensor': " + line);
+                }
+                List<String> members = new ArrayList<>();
+                for (String sensor : line.substring(colon + 1).split(";")) {
+                    if (!sensor.trim().isEmpty()) {
+                        members.add(sensor.trim());
+                    }
+                }
+                hierarchy.addGroup(line.substring(0, colon).trim(), members.toArray(new String[members.size()]));
+            }
+        }
+        return hierarchy;
+    }
+
+    /**
+     * The default precincts of the Melbourne CBD.
+     * @param melbourne
+     * @return
+     */
+    public static SensorHierarchy melbournePrecincts(Melbourne melbourne) {
+        SensorHierarchy hierarchy = new SensorHierarchy(melbourne.getSensorNames());
+        hierarchy.addGroup("Swanston corridor",
+                "State Library",
+                "Melbourne Central",
+                "Town Hall (West)",
+                "Chinatown-Swanston St (North)",
+                "Flinders St-Swanston St (West)",
+                "Flinders St Station Underpass",
+                "Princes Bridge");
+        hierarchy.addGroup("Southbank",
+                "Sandridge Bridge",
+                "Vic Arts Centre",
+                "Convention/Exhibition Centre",
+                "Webb Bridge");
+        hierarchy.addGroup("Docklands",
+                "Victoria Point",
+                "New Quay",
+                "Waterfront City",
+                "Southern Cross Station");
+        hierarchy.addGroup("Bourke Street",
+                "Bourke Street Mall (North)",
+                "Bourke Street Mall (South)",
+                "Bourke St-Russell St (West)");
+        return hierarchy;
+    }
+}
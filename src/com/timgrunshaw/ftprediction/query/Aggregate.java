@@ -0,0 +1,51 @@
+package com.timgrunshaw.ftprediction.query;
+
+/**
+ * An aggregate function of a query, computed over the hourly totals of the
+ * selected sensors within each group.
+ *
+ * @author Tim Grunshaw
+ */
+public class Aggregate {
+
+    public enum Kind {
+        SUM, AVG, MIN, MAX, COUNT, PERCENTILE
+    }
+
+    private final Kind kind;
+    private final double percentile; // Only for PERCENTILE, 0..100
+
+    public Aggregate(Kind kind) {
+        this(kind, 0);
+    }
+
+    public Aggregate(Kind kind, double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100: " + percentile);
+        }
+        this.kind = kind;
+        this.percentile = percentile;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public double getPercentile() {
+        return percentile;
+    }
+
+    public String getLabel() {
+        if (kind == Kind.PERCENTILE) {
+            String p = percentile == Math.rint(percentile)
+                    ? Integer.toString((int) percentile) : Double.toString(percentile);
+            return "p" + p;
+        }
+        return kind.name().toLowerCase();
+    }
+
+    @Override
+    public String toString() {
+        return getLabel();
+    }
+}
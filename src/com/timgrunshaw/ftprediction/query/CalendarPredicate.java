@@ -0,0 +1,113 @@
+package com.timgrunshaw.ftprediction.query;
+
+import com.timgrunshaw.ftprediction.calendar.CalendarFeatureStore;
+
+/**
+ * A condition on the calendar features of an hour, e.g. weekend, public
+ * holiday or hour of the day between 7am and 9am.
+ *
+ * Hour of day and day of week conditions are a set of allowed values held as
+ * a bit mask, so every predicate is evaluated with a few bit operations on the
+ * packed features of CalendarFeatureStore.
+ *
+ * @author Tim Grunshaw
+ */
+public class CalendarPredicate {
+
+    public enum Field {
+        HOUR_OF_DAY, DAY_OF_WEEK, WEEKEND, PUBLIC_HOLIDAY, SCHOOL_TERM, SCHOOL_HOLIDAY, EVENT
+    }
+
+    private final Field field;
+    private final int allowed; // Bit mask of allowed values for HOUR_OF_DAY and DAY_OF_WEEK
+    private final boolean negated;
+
+    private CalendarPredicate(Field field, int allowed, boolean negated) {
+        this.field = field;
+        this.allowed = allowed;
+        this.negated = negated;
+    }
+
+    /**
+     * A predicate on one of the boolean fields (WEEKEND, PUBLIC_HOLIDAY etc.)
+     * @param field
+     * @return
+     */
+    public static CalendarPredicate is(Field field) {
+        if (field == Field.HOUR_OF_DAY || field == Field.DAY_OF_WEEK) {
+            throw new IllegalArgumentException("Field requires a set of values: " + field);
+        }
+        return new CalendarPredicate(field, 0, false);
+    }
+
+    /**
+     * Hour of day within [from, to], both inclusive (0..23).
+     * @param from
+     * @param to
+     * @return
+     */
+    public static CalendarPredicate hourBetween(int from, int to) {
+        if (from < 0 || to > 23 || from > to) {
+            throw new IllegalArgumentException("Invalid hour range: " + from + " - " + to);
+        }
+        int mask = 0;
+        for (int h = from; h <= to; h++) {
+            mask |= 1 << h;
+        }
+        return new CalendarPredicate(Field.HOUR_OF_DAY, mask, false);
+    }
+
+    /**
+     * Day of the week is one of the days, 0 = Monday .. 6 = Sunday.
+     * @param days
+     * @return
+     */
+    public static CalendarPredicate dayIn(int... days) {
+        int mask = 0;
+        for (int d : days) {
+            if (d < 0 || d > 6) {
+                throw new IllegalArgumentException("Invalid day of week: " + d);
+            }
+            mask |= 1 << d;
+        }
+        return new CalendarPredicate(Field.DAY_OF_WEEK, mask, false);
+    }
+
+    public CalendarPredicate negate() {
+        return new CalendarPredicate(field, allowed, !negated);
+    }
+
+    public Field getField() {
+        return field;
+    }
+
+    public boolean test(long packed) {
+        boolean result;
+        switch (field) {
+            case HOUR_OF_DAY:
+                result = (allowed & (1 << CalendarFeatureStore.hourOfDay(packed))) != 0;
+                break;
+            case DAY_OF_WEEK:
+                result = (allowed & (1 << CalendarFeatureStore.dayOfWeek(packed))) != 0;
+                break;
+            case WEEKEND:
+                result = CalendarFeatureStore.isWeekend(packed);
+                break;
+            case PUBLIC_HOLIDAY:
+                result = CalendarFeatureStore.isPublicHoliday(packed);
+                break;
+            case SCHOOL_TERM:
+                result = CalendarFeatureStore.isSchoolTerm(packed);
+                break;
+            case SCHOOL_HOLIDAY:
+                result = CalendarFeatureStore.isSchoolHoliday(packed);
+                break;
+            case EVENT:
+                result = CalendarFeatureStore.eventMask(packed) != 0;
+                break;
+            default:
+                throw new AssertionError("Unknown field: " + field);
+        }
+        return result != negated;
+    }
+}
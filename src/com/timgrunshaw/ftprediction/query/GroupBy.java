@@ -0,0 +1,29 @@
+package com.timgrunshaw.ftprediction.query;
+
+/**
+ * How the selected hours of a query are grouped before aggregation.
+ *
+ * @author Tim Grunshaw
+ */
+public enum GroupBy {
+    /**
+     * A single group containing every selected hour.
+     */
+    NONE,
+    /**
+     * Hour of the day, midnight..11pm.
+     */
+    HOUR,
+    /**
+     * Day of the week, Monday..Sunday.
+     */
+    WEEKDAY,
+    /**
+     * Weeks starting on a Monday.
+     */
+    WEEK,
+    /**
+     * Calendar months.
+     */
+    MONTH
+}
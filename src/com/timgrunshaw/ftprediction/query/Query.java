@@ -0,0 +1,76 @@
+package com.timgrunshaw.ftprediction.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A parsed query over the Melbourne data: which sensors, which hours, how to
+ * group them and what to compute for each group. Usually created with
+ * QueryParser.
+ *
+ * @author Tim Grunshaw
+ */
+public class Query {
+
+    private final ArrayList<Aggregate> aggregates = new ArrayList<>();
+    private final ArrayList<String> sensors = new ArrayList<>(); // Empty for all sensors
+    private final ArrayList<CalendarPredicate> predicates = new ArrayList<>();
+    private int fromHour = Integer.MIN_VALUE; // Inclusive hour index
+    private int toHour = Integer.MAX_VALUE; // Exclusive hour index
+    private GroupBy groupBy = GroupBy.NONE;
+
+    public void addAggregate(Aggregate aggregate) {
+        aggregates.add(aggregate);
+    }
+
+    public void addSensor(String sensor) {
+        sensors.add(sensor);
+    }
+
+    public void addPredicate(CalendarPredicate predicate) {
+        predicates.add(predicate);
+    }
+
+    /**
+     * Restricts the query to hour indexes in [fromHour, toHour). Successive
+     * calls narrow the range.
+     * @param fromHour - inclusive
+     * @param toHour - exclusive
+     */
+    public void restrictHours(int fromHour, int toHour) {
+        this.fromHour = Math.max(this.fromHour, fromHour);
+        this.toHour = Math.min(this.toHour, toHour);
+    }
+
+    public void setGroupBy(GroupBy groupBy) {
+        this.groupBy = groupBy;
+    }
+
+    public List<Aggregate> getAggregates() {
+        return Collections.unmodifiableList(aggregates);
+    }
+
+    /**
+     * @return the selected sensors, empty if all sensors are selected.
+     */
+    public List<String> getSensors() {
+        return Collections.unmodifiableList(sensors);
+    }
+
+    public List<CalendarPredicate> getPredicates() {
+        return Collections.unmodifiableList(predicates);
+    }
+
+    public int getFromHour() {
+        return fromHour;
+    }
+
+    public int getToHour() {
+        return toHour;
+    }
+
+    public GroupBy getGroupBy() {
+        return groupBy;
+    }
+}
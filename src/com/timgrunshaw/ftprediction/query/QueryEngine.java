@@ -0,0 +1,305 @@
+package com.timgrunshaw.ftprediction.query;
+
+import com.timgrunshaw.ftprediction.calendar.CalendarFeatureStore;
+import com.timgrunshaw.ftprediction.calendar.EventCalendar;
+import com.timgrunshaw.ftprediction.data.Bitmaps;
+import com.timgrunshaw.ftprediction.data.HourIndex;
+import com.timgrunshaw.ftprediction.data.SensorColumns;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.format.TextStyle;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Executes queries over the sensor columns.
+ *
+ * Execution is column at a time over primitive arrays: the time range gives
+ * an initial selection of rows, each calendar predicate then compacts the
+ * selection vector, the selected sensor columns are summed into a values
+ * vector, a group key vector is computed, and finally all aggregates are
+ * computed in a single pass per group.
+ *
+ * The aggregated value of each hour is the total count of the selected
+ * sensors that have a reading for that hour. Missing hours (N/A readings and
+ * days without data) add nothing, and an hour for which every selected
+ * sensor is missing is left out of the selection, so it does not count as 0
+ * in AVG, MIN, COUNT or a percentile.
+ *
+ * @author Tim Grunshaw
+ */
+public class QueryEngine {
+
+    // Offset so that week 0 starts on Monday 1969-12-29 (hour index -72).
+    private static final int WEEK_OFFSET = 3 * HourIndex.HOURS_PER_DAY;
+
+    private final SensorColumns columns;
+    private final CalendarFeatureStore calendar;
+    private final long[] packed; // Calendar features for each row of the columns
+    private final int firstDay; // Day number (epoch day) of the first row
+    private final int[] monthOfDay; // year * 12 + month - 1, for each day from firstDay
+
+    public QueryEngine(SensorColumns columns, EventCalendar events) {
+        this.columns = columns;
+        int first = columns.getFirstHour();
+        int end = first + columns.getHours();
+        LocalDate fromDay = HourIndex.toDate(first);
+        LocalDate toDay = HourIndex.toDate(Math.max(first, end - 1)).plusDays(1);
+        this.calendar = new CalendarFeatureStore(fromDay, toDay, events);
+
+        this.packed = new long[columns.getHours()];
+        for (int i = 0; i < packed.length; i++) {
+            packed[i] = calendar.getPacked(first + i);
+        }
+
+        this.firstDay = (int) fromDay.toEpochDay();
+        this.monthOfDay = new int[(int) (toDay.toEpochDay() - firstDay)];
+        LocalDate day = fromDay;
+        for (int d = 0; d < monthOfDay.length; d++) {
+            monthOfDay[d] = day.getYear() * 12 + day.getMonthValue() - 1;
+            day = day.plusDays(1);
+        }
+    }
+
+    public CalendarFeatureStore getCalendar() {
+        return calendar;
+    }
+
+    public QueryResult execute(String query) {
+        return execute(new QueryParser().parse(query));
+    }
+
+    public QueryResult execute(Query query) {
+        int first = columns.getFirstHour();
+
+        // Initial selection from the time range.
+        int from = (int) Math.max(0L, (long) query.getFromHour() - first);
+        int to = (int) Math.min(columns.getHours(), Math.max(0L, (long) query.getToHour() - first));
+        int size = Math.max(0, to - from);
+        int[] selection = new int[size];
+        for (int i = 0; i < size; i++) {
+            selection[i] = from + i;
+        }
+
+        // Each predicate compacts the selection vector.
+        for (CalendarPredicate predicate : query.getPredicates()) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                int row = selection[i];
+                if (predicate.test(packed[row])) {
+                    selection[kept++] = row;
+                }
+            }
+            size = kept;
+        }
+
+        // Sum the selected sensors, one column at a time, counting the
+        // sensors with a reading for each hour.
+        long[] values = new long[size];
+        int[] present = columns.hasMissingInfo() ? new int[size] : null;
+        for (int sensor : sensorIndexes(query.getSensors())) {
+            int[] column = columns.getColumn(sensor);
+            if (present == null) {
+                for (int i = 0; i < size; i++) {
+                    values[i] += column[selection[i]];
+                }
+            } else {
+                long[] missing = columns.getMissing(sensor);
+                for (int i = 0; i < size; i++) {
+                    int row = selection[i];
+                    if (!Bitmaps.get(missing, row)) {
+                        values[i] += column[row];
+                        present[i]++;
+                    }
+                }
+            }
+        }
+
+        // Drop the hours without any reading.
+        if (present != null) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (present[i] > 0) {
+                    selection[kept] = selection[i];
+                    values[kept++] = values[i];
+                }
+            }
+            size = kept;
+        }
+
+        // Group keys, relative to the smallest key.
+        int[] keys = new int[size];
+        int minKey = computeKeys(query.getGroupBy(), selection, size, keys);
+        int groups = 0;
+        for (int i = 0; i < size; i++) {
+            groups = Math.max(groups, keys[i] + 1);
+        }
+
+        return aggregate(query, values, keys, size, groups, minKey);
+    }
+
+    private int[] sensorIndexes(List<String> sensors) {
+        if (sensors.isEmpty()) {
+            int[] all = new int[columns.getSensorCount()];
+            for (int i = 0; i < all.length; i++) {
+                all[i] = i;
+            }
+            return all;
+        }
+        int[] indexes = new int[sensors.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = columns.getSensorIndex(sensors.get(i));
+        }
+        return indexes;
+    }
+
+    /**
+     * Fills keys with a zero based group number for each selected row.
+     * @return the absolute key of group 0
+     */
+    private int computeKeys(GroupBy groupBy, int[] selection, int size, int[] keys) {
+        int first = columns.getFirstHour();
+        switch (groupBy) {
+            case NONE:
+                return 0; // keys are already zero
+            case HOUR:
+                for (int i = 0; i < size; i++) {
+                    keys[i] = CalendarFeatureStore.hourOfDay(packed[selection[i]]);
+                }
+                return 0;
+            case WEEKDAY:
+                for (int i = 0; i < size; i++) {
+                    keys[i] = CalendarFeatureStore.dayOfWeek(packed[selection[i]]);
+                }
+                return 0;
+            case WEEK: {
+                int minWeek = Math.floorDiv(first + WEEK_OFFSET, HourIndex.HOURS_PER_WEEK);
+                for (int i = 0; i < size; i++) {
+                    keys[i] = Math.floorDiv(first + selection[i] + WEEK_OFFSET, HourIndex.HOURS_PER_WEEK) - minWeek;
+                }
+                return minWeek;
+            }
+            case MONTH: {
+                int firstDayHour = firstDay * HourIndex.HOURS_PER_DAY;
+                int minMonth = monthOfDay.length == 0 ? 0 : monthOfDay[0];
+                for (int i = 0; i < size; i++) {
+                    keys[i] = monthOfDay[(first + selection[i] - firstDayHour) / HourIndex.HOURS_PER_DAY] - minMonth;
+                }
+                return minMonth;
+            }
+            default:
+                throw new AssertionError("Unknown group by: " + groupBy);
+        }
+    }
+
+    private QueryResult aggregate(Query query, long[] values, int[] keys, int size, int groups, int minKey) {
+        // Counting sort the values by group so each group is contiguous.
+        int[] start = new int[groups + 1];
+        for (int i = 0; i < size; i++) {
+            start[keys[i] + 1]++;
+        }
+        for (int g = 0; g < groups; g++) {
+            start[g + 1] += start[g];
+        }
+        long[] sorted = new long[size];
+        int[] next = Arrays.copyOf(start, groups);
+        for (int i = 0; i < size; i++) {
+            sorted[next[keys[i]]++] = values[i];
+        }
+
+        boolean needsOrder = false;
+        for (Aggregate a : query.getAggregates()) {
+            needsOrder |= a.getKind() == Aggregate.Kind.PERCENTILE;
+        }
+
+        int nonEmpty = 0;
+        for (int g = 0; g < groups; g++) {
+            if (start[g + 1] > start[g]) {
+                nonEmpty++;
+            }
+        }
+        String[] labels = new String[nonEmpty];
+        double[][] results = new double[nonEmpty][];
+
+        int row = 0;
+        for (int g = 0; g < groups; g++) {
+            int lo = start[g];
+            int hi = start[g + 1];
+            if (lo == hi) {
+                continue;
+            }
+            if (needsOrder) {
+                Arrays.sort(sorted, lo, hi);
+            }
+            long sum = 0;
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            for (int i = lo; i < hi; i++) {
+                long v = sorted[i];
+                sum += v;
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+            }
+
+            List<Aggregate> aggregates = query.getAggregates();
+            double[] result = new double[aggregates.size()];
+            for (int a = 0; a < result.length; a++) {
+                switch (aggregates.get(a).getKind()) {
+                    case SUM:
+                        result[a] = sum;
+                        break;
+                    case AVG:
+                        result[a] = (double) sum / (hi - lo);
+                        break;
+                    case MIN:
+                        result[a] = min;
+                        break;
+                    case MAX:
+                        result[a] = max;
+                        break;
+                    case COUNT:
+                        result[a] = hi - lo;
+                        break;
+                    case PERCENTILE:
+                        result[a] = percentile(sorted, lo, hi, aggregates.get(a).getPercentile());
+                        break;
+                    default:
+                        throw new AssertionError("Unknown aggregate: " + aggregates.get(a));
+                }
+            }
+            labels[row] = groupLabel(query.getGroupBy(), g + minKey);
+            results[row] = result;
+            row++;
+        }
+        return new QueryResult(query.getAggregates(), labels, results);
+    }
+
+    /**
+     * Linearly interpolated percentile of the sorted values in [lo, hi).
+     */
+    static double percentile(long[] sorted, int lo, int hi, double percentile) {
+        double rank = percentile / 100.0 * (hi - lo - 1);
+        int below = (int) Math.floor(rank);
+        int above = Math.min(below + 1, hi - lo - 1);
+        double fraction = rank - below;
+        return sorted[lo + below] + fraction * (sorted[lo + above] - sorted[lo + below]);
+    }
+
+    private String groupLabel(GroupBy groupBy, int key) {
+        switch (groupBy) {
+            case NONE:
+                return "all";
+            case HOUR:
+                return String.format("%02d:00", key);
+            case WEEKDAY:
+                return DayOfWeek.of(key + 1).getDisplayName(TextStyle.SHORT, Locale.ENGLISH);
+            case WEEK:
+                return HourIndex.toDate(key * HourIndex.HOURS_PER_WEEK - WEEK_OFFSET).toString();
+            case MONTH:
+                return String.format("%04d-%02d", key / 12, key % 12 + 1);
+            default:
+                throw new AssertionError("Unknown group by: " + groupBy);
+        }
+    }
+}
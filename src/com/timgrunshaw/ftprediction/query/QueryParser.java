@@ -0,0 +1,266 @@
+package com.timgrunshaw.ftprediction.query;
+
+import com.timgrunshaw.ftprediction.data.HourIndex;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Parses the query language. Keywords are case insensitive, sensor names are
+ * in double quotes:
+ *
+ * SELECT aggregate, ... [FROM ALL | "sensor", ...] [WHERE condition AND ...]
+ * [GROUP BY HOUR | WEEKDAY | WEEK | MONTH]
+ *
+ * aggregate: SUM | AVG | MIN | MAX | COUNT | P50 | P90 | P99 ...
+ * condition: [NOT] one of
+ *   WEEKDAY | WEEKEND | HOLIDAY | SCHOOLTERM | SCHOOLHOLIDAY | EVENT
+ *   TIME BETWEEN date AND date (end exclusive) | TIME >= date | TIME < date
+ *   HOUR BETWEEN n AND m (both inclusive) | HOUR = n
+ *   DAY IN (MON, TUE, ...) | DAY = SAT
+ * date: yyyy-mm-dd or yyyy-mm-ddThh:00
+ *
+ * e.g. SELECT avg, p90 FROM "Princes Bridge" WHERE TIME >= 2015-01-01 AND
+ * WEEKEND AND NOT HOLIDAY GROUP BY HOUR
+ *
+ * @author Tim Grunshaw
+ */
+public class QueryParser {
+
+    private static final List<String> DAYS = Arrays.asList("MON", "TUE", "WED", "THU", "FRI", "SAT", "SUN");
+
+    private List<String> tokens;
+    private int position;
+
+    public Query parse(String text) {
+        tokens = tokenize(text);
+        position = 0;
+        Query query = new Query();
+
+        expect("SELECT");
+        do {
+            query.addAggregate(parseAggregate(next()));
+        } while (accept(","));
+
+        if (accept("FROM")) {
+            if (!accept("ALL")) {
+                do {
+                    String sensor = next();
+                    if (!sensor.startsWith("\"")) {
+                        throw error("Sensor names must be in double quotes: " + sensor);
+                    }
+                    query.addSensor(sensor.substring(1, sensor.length() - 1));
+                } while (accept(","));
+            }
+        }
+
+        if (accept("WHERE")) {
+            do {
+                parseCondition(query);
+            } while (accept("AND"));
+        }
+
+        if (accept("GROUP")) {
+            expect("BY");
+            String key = next().toUpperCase();
+            try {
+                query.setGroupBy(GroupBy.valueOf(key));
+            } catch (IllegalArgumentException iaEx) {
+                throw error("Cannot group by " + key);
+            }
+        }
+
+        if (position < tokens.size()) {
+            throw error("Unexpected " + tokens.get(position));
+        }
+        return query;
+    }
+
+    private Aggregate parseAggregate(String token) {
+        String name = token.toUpperCase();
+        if (name.startsWith("P") && name.length() > 1) {
+            try {
+                return new Aggregate(Aggregate.Kind.PERCENTILE, Double.parseDouble(name.substring(1)));
+            } catch (NumberFormatException nfEx) {
+                throw error("Unknown aggregate: " + token);
+            }
+        }
+        try {
+            Aggregate.Kind kind = Aggregate.Kind.valueOf(name);
+            if (kind == Aggregate.Kind.PERCENTILE) {
+                throw error("Use Pnn for percentiles, e.g. P90");
+            }
+            return new Aggregate(kind);
+        } catch (IllegalArgumentException iaEx) {
+            throw error("Unknown aggregate: " + token);
+        }
+    }
+
+    private void parseCondition(Query query) {
+        boolean negated = accept("NOT");
+        String field = next().toUpperCase();
+        CalendarPredicate predicate;
+        switch (field) {
+            case "WEEKDAY":
+                predicate = CalendarPredicate.is(CalendarPredicate.Field.WEEKEND).negate();
+                break;
+            case "WEEKEND":
+                predicate = CalendarPredicate.is(CalendarPredicate.Field.WEEKEND);
+                break;
+            case "HOLIDAY":
+                predicate = CalendarPredicate.is(CalendarPredicate.Field.PUBLIC_HOLIDAY);
+                break;
+            case "SCHOOLTERM":
+                predicate = CalendarPredicate.is(CalendarPredicate.Field.SCHOOL_TERM);
+                break;
+            case "SCHOOLHOLIDAY":
+                predicate = CalendarPredicate.is(CalendarPredicate.Field.SCHOOL_HOLIDAY);
+                break;
+            case "EVENT":
+                predicate = CalendarPredicate.is(CalendarPredicate.Field.EVENT);
+                break;
+            case "HOUR":
+                if (accept("=")) {
+                    int hour = parseInt(next());
+                    predicate = CalendarPredicate.hourBetween(hour, hour);
+                } else {
+                    expect("BETWEEN");
+                    int from = parseInt(next());
+                    expect("AND");
+                    predicate = CalendarPredicate.hourBetween(from, parseInt(next()));
+                }
+                break;
+            case "DAY":
+                if (accept("=")) {
+                    predicate = CalendarPredicate.dayIn(parseDay(next()));
+                } else {
+                    expect("IN");
+                    expect("(");
+                    ArrayList<Integer> days = new ArrayList<>();
+                    do {
+                        days.add(parseDay(next()));
+                    } while (accept(","));
+                    expect(")");
+                    int[] dayArray = new int[days.size()];
+                    for (int i = 0; i < dayArray.length; i++) {
+                        dayArray[i] = days.get(i);
+                    }
+                    predicate = CalendarPredicate.dayIn(dayArray);
+                }
+                break;
+            case "TIME":
+                if (negated) {
+                    throw error("NOT cannot be used with TIME, use the opposite comparison");
+                }
+                if (accept("BETWEEN")) {
+                    int from = parseHour(next());
+                    expect("AND");
+                    query.restrictHours(from, parseHour(next()));
+                } else if (accept(">=")) {
+                    query.restrictHours(parseHour(next()), Integer.MAX_VALUE);
+                } else {
+                    expect("<");
+                    query.restrictHours(Integer.MIN_VALUE, parseHour(next()));
+                }
+                return;
+            default:
+                throw error("Unknown condition: " + field);
+        }
+        query.addPredicate(negated ? predicate.negate() : predicate);
+    }
+
+    private int parseInt(String token) {
+        try {
+            return Integer.parseInt(token);
+        } catch (NumberFormatException nfEx) {
+            throw error("Expected a number: " + token);
+        }
+    }
+
+    private int parseDay(String token) {
+        int day = DAYS.indexOf(token.toUpperCase());
+        if (day < 0) {
+            throw error("Expected a day (MON..SUN): " + token);
+        }
+        return day;
+    }
+
+    private int parseHour(String token) {
+        try {
+            if (token.contains("T")) {
+                return HourIndex.of(LocalDateTime.parse(token));
+            }
+            return HourIndex.of(LocalDate.parse(token));
+        } catch (DateTimeParseException pEx) {
+            throw error("Expected a date (yyyy-mm-dd or yyyy-mm-ddThh:00): " + token);
+        }
+    }
+
+    private String next() {
+        if (position >= tokens.size()) {
+            throw error("Unexpected end of query");
+        }
+        return tokens.get(position++);
+    }
+
+    private boolean accept(String keyword) {
+        if (position < tokens.size() && tokens.get(position).equalsIgnoreCase(keyword)) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(String keyword) {
+        if (!accept(keyword)) {
+            throw error("Expected " + keyword
+                    + (position < tokens.size() ? " but found " + tokens.get(position) : " at end of query"));
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("Invalid query: " + message);
+    }
+
+    /**
+     * Splits into words, quoted strings (kept with their quotes) and the
+     * symbols , ( ) = >= <
+     */
+    static List<String> tokenize(String text) {
+        ArrayList<String> tokens = new ArrayList<>();
+        int i = 0;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '"') {
+                int end = text.indexOf('"', i + 1);
+                if (end < 0) {
+                    throw new IllegalArgumentException("Invalid query: unterminated quote");
+                }
+                tokens.add(text.substring(i, end + 1));
+                i = end + 1;
+            } else if (c == ',' || c == '(' || c == ')' || c == '=' || c == '<') {
+                tokens.add(String.valueOf(c));
+                i++;
+            } else if (c == '>' && i + 1 < text.length() && text.charAt(i + 1) == '=') {
+                tokens.add(">=");
+                i += 2;
+            } else {
+                int start = i;
+                while (i < text.length() && !Character.isWhitespace(text.charAt(i))
+                        && ",()=<>\"".indexOf(text.charAt(i)) < 0) {
+                    i++;
+                }
+                if (start == i) {
+                    throw new IllegalArgumentException("Invalid query: unexpected character " + c);
+                }
+                tokens.add(text.substring(start, i));
+            }
+        }
+        return tokens;
+    }
+}
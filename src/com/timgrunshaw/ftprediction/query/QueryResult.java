@@ -0,0 +1,78 @@
+package com.timgrunshaw.ftprediction.query;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The result of a query: one row per non-empty group and one column per
+ * aggregate.
+ *
+ * @author Tim Grunshaw
+ */
+public class QueryResult {
+
+    private final String[] aggregateLabels;
+    private final String[] groupLabels;
+    private final double[][] values; // [group][aggregate]
+
+    QueryResult(List<Aggregate> aggregates, String[] groupLabels, double[][] values) {
+        this.aggregateLabels = new String[aggregates.size()];
+        for (int i = 0; i < aggregateLabels.length; i++) {
+            aggregateLabels[i] = aggregates.get(i).getLabel();
+        }
+        this.groupLabels = groupLabels;
+        this.values = values;
+    }
+
+    public int getGroupCount() {
+        return groupLabels.length;
+    }
+
+    public String getGroupLabel(int group) {
+        return groupLabels[group];
+    }
+
+    public String[] getAggregateLabels() {
+        return aggregateLabels.clone();
+    }
+
+    public double getValue(int group, int aggregate) {
+        return values[group][aggregate];
+    }
+
+    /**
+     * Writes the result as CSV, with a heading row.
+     * @param out
+     * @throws IOException
+     */
+    public void write(Appendable out) throws IOException {
+        out.append("group");
+        for (String label : aggregateLabels) {
+            out.append(",").append(label);
+        }
+        out.append(System.lineSeparator());
+        for (int g = 0; g < groupLabels.length; g++) {
+            out.append(groupLabels[g]);
+            for (double v : values[g]) {
+                out.append(",");
+                if (v == Math.rint(v) && Math.abs(v) < 1e15) {
+                    out.append(Long.toString((long) v));
+                } else {
+                    out.append(String.format("%.2f", v));
+                }
+            }
+            out.append(System.lineSeparator());
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        try {
+            write(sb);
+        } catch (IOException ioEx) {
+            throw new AssertionError(ioEx); // StringBuilder does not throw
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,82 @@
+package com.timgrunshaw.ftprediction.simulation;
+
+/**
+ * Many histograms of counts packed into one int array, BUCKETS ints per
+ * histogram, so a simulation can record millions of values per second
+ * without allocating.
+ *
+ * Counts below 64 have a bucket each. Above that each power of two is split
+ * into 32 buckets, so a value read back from a bucket is within 1.6% of the
+ * values in it. Counts of 2^20 or more all go in the last bucket.
+ *
+ * @author Tim Grunshaw
+ */
+final class CountHistograms {
+
+    static final int BUCKETS = 512;
+
+    private static final int LINEAR = 64; // 2^LINEAR_BITS
+    private static final int LINEAR_BITS = 6;
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private CountHistograms() {
+    }
+
+    static int bucket(double value) {
+        if (value < LINEAR) {
+            return value <= 0 ? 0 : (int) value;
+        }
+        int exponent = Math.getExponent(value);
+        int sub = (int) (Double.doubleToRawLongBits(value) >>> (52 - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return Math.min(BUCKETS - 1, LINEAR + ((exponent - LINEAR_BITS) << SUB_BUCKET_BITS) + sub);
+    }
+
+    /**
+     * A value representing the bucket: the count itself below 64, the middle
+     * of the bucket above.
+     */
+    static double value(int bucket) {
+        if (bucket < LINEAR) {
+            return bucket;
+        }
+        int exponent = LINEAR_BITS + ((bucket - LINEAR) >> SUB_BUCKET_BITS);
+        int sub = (bucket - LINEAR) & (SUB_BUCKETS - 1);
+        double width = Math.scalb(1.0, exponent - SUB_BUCKET_BITS);
+        return Math.scalb(1.0, exponent) + (sub + 0.5) * width;
+    }
+
+    static void add(int[] histograms, int histogram, double value) {
+        histograms[histogram * BUCKETS + bucket(value)]++;
+    }
+
+    /**
+     * The value at the quantile of one histogram.
+     * @param histograms
+     * @param histogram
+     * @param q - between 0 and 1
+     * @return NaN if the histogram is empty
+     */
+    static double quantile(int[] histograms, int histogram, double q) {
+        if (q < 0 || q > 1) {
+            throw new IllegalArgumentException("Quantile must be between 0 and 1: " + q);
+        }
+        int base = histogram * BUCKETS;
+        long total = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            total += histograms[base + b];
+        }
+        if (total == 0) {
+            return Double.NaN;
+        }
+        long rank = Math.max(1, (long) Math.ceil(q * total));
+        long cumulative = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            cumulative += histograms[base + b];
+            if (cumulative >= rank) {
+                return value(b);
+            }
+        }
+        return value(BUCKETS - 1);
+    }
+}
@@ -0,0 +1,162 @@
+package com.timgrunshaw.ftprediction.simulation;
+
+import com.timgrunshaw.ftprediction.data.HourIndex;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A what-if question for the ScenarioSimulator: a period of hours, and the
+ * closures and extra event load during it. For example "Princes Bridge is
+ * closed on Saturday evening and a concert adds 2000 people an hour at
+ * Birrarung Marr".
+ *
+ * While a sensor is closed its count is zero. Of the people who would have
+ * walked past it, the diversion share walk past its open neighbours instead
+ * (in proportion to their own counts at the time) and the rest stay away.
+ *
+ * @author Tim Grunshaw
+ */
+public class Scenario {
+
+    public static final double DEFAULT_DIVERSION = 0.8;
+    public static final double DEFAULT_CORRELATION = 0.6;
+
+    static class Change {
+
+        final String sensor;
+        final int fromHour;
+        final int toHour;
+        final double extraPerHour; // 0 for a closure
+
+        Change(String sensor, int fromHour, int toHour, double extraPerHour) {
+            this.sensor = sensor;
+            this.fromHour = fromHour;
+            this.toHour = toHour;
+            this.extraPerHour = extraPerHour;
+        }
+    }
+
+    private final int fromHour;
+    private final int toHour;
+    private final List<Change> closures = new ArrayList<>();
+    private final List<Change> eventLoads = new ArrayList<>();
+    private double diversion = DEFAULT_DIVERSION;
+    private double correlation = DEFAULT_CORRELATION;
+
+    /**
+     * @param from - first hour simulated
+     * @param to - exclusive
+     */
+    public Scenario(LocalDateTime from, LocalDateTime to) {
+        this.fromHour = HourIndex.of(from);
+        this.toHour = HourIndex.of(to);
+        if (toHour <= fromHour) {
+            throw new IllegalArgumentException("Scenario must end after it starts: " + from + " - " + to);
+        }
+    }
+
+    public int getFromHour() {
+        return fromHour;
+    }
+
+    public int getHours() {
+        return toHour - fromHour;
+    }
+
+    /**
+     * Closes the sensor from one hour until (not including) another.
+     * @param sensor
+     * @param from
+     * @param to
+     * @return this
+     */
+    public Scenario addClosure(String sensor, LocalDateTime from, LocalDateTime to) {
+        closures.add(new Change(sensor, HourIndex.of(from), HourIndex.of(to), 0));
+        return this;
+    }
+
+    /**
+     * Adds people walking past the sensor, on average extraPerHour each hour
+     * (Poisson distributed) from one hour until (not including) another.
+     * @param sensor
+     * @param from
+     * @param to
+     * @param extraPerHour
+     * @return this
+     */
+    public Scenario addEventLoad(String sensor, LocalDateTime from, LocalDateTime to, double extraPerHour) {
+        if (extraPerHour < 0) {
+            throw new IllegalArgumentException("Event load cannot be negative: " + extraPerHour);
+        }
+        eventLoads.add(new Change(sensor, HourIndex.of(from), HourIndex.of(to), extraPerHour));
+        return this;
+    }
+
+    public double getDiversion() {
+        return diversion;
+    }
+
+    /**
+     * @param diversion - share of the people at a closed sensor who walk past
+     * its neighbours instead, 0 - 1
+     * @return this
+     */
+    public Scenario setDiversion(double diversion) {
+        if (diversion < 0 || diversion > 1) {
+            throw new IllegalArgumentException("Diversion must be between 0 and 1: " + diversion);
+        }
+        this.diversion = diversion;
+        return this;
+    }
+
+    public double getCorrelation() {
+        return correlation;
+    }
+
+    /**
+     * How strongly the sensors move together within one simulated hour (a
+     * busy hour tends to be busy everywhere). Each hour is drawn
+     * independently of the hours before it.
+     * @param correlation - 0 (independent) to 1 (all sensors at the same
+     * quantile of their history)
+     * @return this
+     */
+    public Scenario setCorrelation(double correlation) {
+        if (correlation < 0 || correlation > 1) {
+            throw new IllegalArgumentException("Correlation must be between 0 and 1: " + correlation);
+        }
+        this.correlation = correlation;
+        return this;
+    }
+
+    /**
+     * Whether each sensor is closed, [hour - fromHour][sensor].
+     */
+    boolean[] closedTable(SensorGraph graph) {
+        int sensors = graph.getSensorCount();
+        boolean[] closed = new boolean[getHours() * sensors];
+        for (Change closure : closures) {
+            int s = graph.getSensorIndex(closure.sensor);
+            for (int h = Math.max(closure.fromHour, fromHour); h < Math.min(closure.toHour, toHour); h++) {
+                closed[(h - fromHour) * sensors + s] = true;
+            }
+        }
+        return closed;
+    }
+
+    /**
+     * The mean extra people at each sensor, [hour - fromHour][sensor].
+     */
+    double[] eventLoadTable(SensorGraph graph) {
+        int sensors = graph.getSensorCount();
+        double[] extra = new double[getHours() * sensors];
+        for (Change load : eventLoads) {
+            int s = graph.getSensorIndex(load.sensor);
+            for (int h = Math.max(load.fromHour, fromHour); h < Math.min(load.toHour, toHour); h++) {
+                extra[(h - fromHour) * sensors + s] += load.extraPerHour;
+            }
+        }
+        return extra;
+    }
+}
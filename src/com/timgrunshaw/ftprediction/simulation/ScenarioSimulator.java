@@ -0,0 +1,332 @@
+package com.timgrunshaw.ftprediction.simulation;
+
+import com.timgrunshaw.ftprediction.data.HourIndex;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs Monte Carlo trials of a Scenario.
+ *
+ * Each trial draws a count for every sensor and hour from the historical
+ * TrafficProfiles. The draws of one hour are correlated between sensors with
+ * a Gaussian copula (see Scenario.setCorrelation). The event load is then
+ * added and the traffic of closed sensors is moved to their neighbours in the
+ * SensorGraph. Both the scenario count and its change from the undisturbed
+ * draw are recorded, so the change is measured against the same trial. The
+ * distribution of each sensor and hour is kept in a CountHistograms bucket
+ * array rather than a KllSketch, as a sketch update costs several times more
+ * than simulating the count.
+ *
+ * The trials are split evenly between worker threads. Each worker has its
+ * own SplittableRandom, split from one seeded at the start, and allocates all
+ * of its state before the first trial. Results are therefore repeatable for
+ * the same seed and number of threads.
+ *
+ * @author Tim Grunshaw
+ */
+public class ScenarioSimulator {
+
+    private final TrafficProfiles profiles;
+    private final SensorGraph graph;
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    public ScenarioSimulator(TrafficProfiles profiles, SensorGraph graph) {
+        if (profiles.getSensorCount() != graph.getSensorCount()) {
+            throw new IllegalArgumentException("Profiles and graph must have the same sensors");
+        }
+        String[] names = graph.getSensorNames();
+        String[] profileNames = profiles.getSensorNames();
+        for (int i = 0; i < names.length; i++) {
+            if (!names[i].equals(profileNames[i])) {
+                throw new IllegalArgumentException("Profiles and graph must have the same sensors: " + names[i]);
+            }
+        }
+        this.profiles = profiles;
+        this.graph = graph;
+    }
+
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Need at least 1 thread: " + threads);
+        }
+        this.threads = threads;
+    }
+
+    public SimulationResult run(Scenario scenario, int trials, long seed) {
+        if (trials < 1) {
+            throw new IllegalArgumentException("Need at least 1 trial: " + trials);
+        }
+        int workers = Math.min(threads, trials);
+        boolean[] closed = scenario.closedTable(graph);
+        double[] eventLoad = scenario.eventLoadTable(graph);
+
+        SplittableRandom root = new SplittableRandom(seed);
+        List<Worker> tasks = new ArrayList<>();
+        for (int w = 0; w < workers; w++) {
+            int first = (int) ((long) trials * w / workers);
+            int last = (int) ((long) trials * (w + 1) / workers);
+            tasks.add(new Worker(scenario, closed, eventLoad, last - first, root.split()));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<Worker>> done = executor.invokeAll(tasks);
+            Worker total = done.get(0).get();
+            for (int w = 1; w < done.size(); w++) {
+                total.add(done.get(w).get());
+            }
+            return new SimulationResult(graph.getSensorNames(), scenario.getFromHour(), scenario.getHours(),
+                    trials, total.histograms, total.sums, total.squareSums, total.changeSums);
+        } catch (InterruptedException iEx) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Simulation was interrupted", iEx);
+        } catch (ExecutionException eEx) {
+            throw new IllegalStateException("Simulation failed", eEx.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Runs a share of the trials. Everything it touches per trial is
+     * allocated in the constructor.
+     */
+    private class Worker implements Callable<Worker> {
+
+        private final int sensors = graph.getSensorCount();
+        private final int fromHour;
+        private final int hours;
+        private final double diversion;
+        private final double correlation;
+        private final double independence;
+        private final boolean[] closed;
+        private final double[] eventLoad;
+        private final int trials;
+        private final SplittableRandom random;
+
+        private final double[] base = new double[sensors];
+        private final double[] counts = new double[sensors];
+        private final int[] histograms;
+        private final double[] sums;
+        private final double[] squareSums;
+        private final double[] changeSums;
+
+        Worker(Scenario scenario, boolean[] closed, double[] eventLoad, int trials, SplittableRandom random) {
+            this.fromHour = scenario.getFromHour();
+            this.hours = scenario.getHours();
+            this.diversion = scenario.getDiversion();
+            this.correlation = scenario.getCorrelation();
+            this.independence = Math.sqrt(1 - correlation * correlation);
+            this.closed = closed;
+            this.eventLoad = eventLoad;
+            this.trials = trials;
+            this.random = random;
+            this.histograms = new int[sensors * hours * CountHistograms.BUCKETS];
+            this.sums = new double[sensors * hours];
+            this.squareSums = new double[sensors * hours];
+            this.changeSums = new double[sensors * hours];
+        }
+
+        /**
+         * The hours of a trial are drawn independently, so all trials of one
+         * hour are run together: the profile rows and histograms of that hour
+         * then stay in cache, instead of every hour of every trial missing.
+         */
+        @Override
+        public Worker call() {
+            for (int h = 0; h < hours; h++) {
+                for (int t = 0; t < trials; t++) {
+                    simulateHour(h);
+                }
+            }
+            return this;
+        }
+
+        private void simulateHour(int h) {
+            int hourOfWeek = HourIndex.hourOfWeek(fromHour + h);
+            int row = h * sensors;
+
+            double common = gaussian();
+            for (int s = 0; s < sensors; s++) {
+                double u = tableNormalCdf(correlation * common + independence * gaussian());
+                base[s] = profiles.sample(s, hourOfWeek, u);
+                counts[s] = base[s];
+                double extra = eventLoad[row + s];
+                if (extra > 0) {
+                    counts[s] += poisson(extra);
+                }
+            }
+
+            for (int s = 0; s < sensors; s++) {
+                if (closed[row + s]) {
+                    divert(s, row, binomial(counts[s], diversion));
+                }
+            }
+            for (int s = 0; s < sensors; s++) {
+                if (closed[row + s]) {
+                    counts[s] = 0;
+                }
+            }
+
+            for (int s = 0; s < sensors; s++) {
+                int cell = row + s;
+                double c = counts[s];
+                CountHistograms.add(histograms, cell, c);
+                sums[cell] += c;
+                squareSums[cell] += c * c;
+                changeSums[cell] += c - base[s];
+            }
+        }
+
+        /**
+         * Shares the diverted people between the open neighbours in proportion
+         * to their counts this hour, or evenly if they are all zero. If every
+         * neighbour is closed the people are lost.
+         */
+        private void divert(int sensor, int row, double diverted) {
+            double weight = 0;
+            int open = 0;
+            for (int n : graph.getNeighbours(sensor)) {
+                if (!closed[row + n]) {
+                    weight += base[n];
+                    open++;
+                }
+            }
+            if (open == 0) {
+                return;
+            }
+            for (int n : graph.getNeighbours(sensor)) {
+                if (!closed[row + n]) {
+                    counts[n] += weight > 0 ? diverted * base[n] / weight : diverted / open;
+                }
+            }
+        }
+
+        void add(Worker other) {
+            for (int i = 0; i < histograms.length; i++) {
+                histograms[i] += other.histograms[i];
+            }
+            for (int i = 0; i < sums.length; i++) {
+                sums[i] += other.sums[i];
+                squareSums[i] += other.squareSums[i];
+                changeSums[i] += other.changeSums[i];
+            }
+        }
+
+        /**
+         * Standard normal, by interpolating in the table of its quantiles.
+         */
+        private double gaussian() {
+            double position = random.nextDouble() * TABLE_SIZE;
+            int i = (int) position;
+            return NORMAL_QUANTILES[i] + (position - i) * (NORMAL_QUANTILES[i + 1] - NORMAL_QUANTILES[i]);
+        }
+
+        /**
+         * Knuth's method for small means, a rounded normal otherwise.
+         */
+        private double poisson(double mean) {
+            if (mean < 30) {
+                double limit = Math.exp(-mean);
+                double product = random.nextDouble();
+                int k = 0;
+                while (product > limit) {
+                    product *= random.nextDouble();
+                    k++;
+                }
+                return k;
+            }
+            return Math.max(0, Math.rint(mean + Math.sqrt(mean) * gaussian()));
+        }
+
+        /**
+         * Bernoulli trials for small n, a clamped normal otherwise.
+         */
+        private double binomial(double n, double p) {
+            if (n <= 0 || p == 0) {
+                return 0;
+            }
+            if (p == 1) {
+                return n;
+            }
+            if (n < 30) {
+                int k = 0;
+                for (int i = 0; i < (int) Math.rint(n); i++) {
+                    if (random.nextDouble() < p) {
+                        k++;
+                    }
+                }
+                return k;
+            }
+            double k = Math.rint(n * p + Math.sqrt(n * p * (1 - p)) * gaussian());
+            return Math.max(0, Math.min(n, k));
+        }
+    }
+
+    /*
+     Drawing and transforming normals with Math.log / Math.exp takes most of
+     the time of a trial, so both directions are tabulated once and linearly
+     interpolated. Normals drawn this way are cut off at about 3.7 standard
+     deviations, which is far enough out for the copula and the Poisson and
+     binomial approximations.
+     */
+    private static final int TABLE_SIZE = 4096;
+    private static final double CDF_RANGE = 8;
+    private static final double[] NORMAL_QUANTILES = new double[TABLE_SIZE + 1];
+    private static final double[] NORMAL_CDF = new double[TABLE_SIZE + 1];
+
+    static {
+        for (int i = 0; i <= TABLE_SIZE; i++) {
+            double p = Math.min(Math.max(i, 0.5), TABLE_SIZE - 0.5) / TABLE_SIZE;
+            NORMAL_QUANTILES[i] = normalQuantile(p);
+            NORMAL_CDF[i] = normalCdf(-CDF_RANGE + 2 * CDF_RANGE * i / TABLE_SIZE);
+        }
+    }
+
+    static double tableNormalCdf(double x) {
+        double position = (x + CDF_RANGE) * (TABLE_SIZE / (2 * CDF_RANGE));
+        if (position <= 0) {
+            return 0;
+        }
+        if (position >= TABLE_SIZE) {
+            return 1;
+        }
+        int i = (int) position;
+        return NORMAL_CDF[i] + (position - i) * (NORMAL_CDF[i + 1] - NORMAL_CDF[i]);
+    }
+
+    /**
+     * The standard normal CDF, using the erf approximation 7.1.26 of
+     * Abramowitz and Stegun (absolute error below 1.5e-7).
+     */
+    static double normalCdf(double x) {
+        double z = Math.abs(x) / Math.sqrt(2);
+        double t = 1 / (1 + 0.3275911 * z);
+        double poly = t * (0.254829592 + t * (-0.284496736 + t * (1.421413741 + t * (-1.453152027 + t * 1.061405429))));
+        double erf = 1 - poly * Math.exp(-z * z);
+        return x >= 0 ? 0.5 * (1 + erf) : 0.5 * (1 - erf);
+    }
+
+    /**
+     * The inverse of normalCdf, by bisection. Only used to build the table.
+     */
+    static double normalQuantile(double p) {
+        double low = -CDF_RANGE;
+        double high = CDF_RANGE;
+        for (int i = 0; i < 60; i++) {
+            double mid = (low + high) / 2;
+            if (normalCdf(mid) < p) {
+                low = mid;
+            } else {
+                high = mid;
+            }
+        }
+        return (low + high) / 2;
+    }
+}
@@ -0,0 +1,190 @@
+package com.timgrunshaw.ftprediction.simulation;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Which sensors are near enough to each other that pedestrians kept away from
+ * one (e.g. by a closure) are likely to walk past the other instead. The
+ * graph is undirected.
+ *
+ * Edges may be loaded from a local file with one sensor per line:
+ * Sensor name: neighbour; neighbour; neighbour
+ *
+ * @author Tim Grunshaw
+ */
+public class SensorGraph {
+
+    private final String[] sensorNames;
+    private final HashMap<String, Integer> sensorIndex = new HashMap<>();
+    private final int[][] neighbours;
+
+    public SensorGraph(String[] sensorNames) {
+        this.sensorNames = sensorNames.clone();
+        this.neighbours = new int[sensorNames.length][0];
+        for (int i = 0; i < sensorNames.length; i++) {
+            sensorIndex.put(sensorNames[i], i);
+        }
+    }
+
+    public String[] getSensorNames() {
+        return sensorNames.clone();
+    }
+
+    public int getSensorCount() {
+        return sensorNames.length;
+    }
+
+    public int getSensorIndex(String sensor) {
+        Integer index = sensorIndex.get(sensor);
+        if (index == null) {
+            throw new IllegalArgumentException("No such sensor: " + sensor);
+        }
+        return index;
+    }
+
+    /**
+     * Adds an edge between the two sensors, if there is not one already.
+     * @param a
+     * @param b
+     */
+    public void connect(String a, String b) {
+        int i = getSensorIndex(a);
+        int j = getSensorIndex(b);
+        if (i == j) {
+            throw new IllegalArgumentException("A sensor cannot neighbour itself: " + a);
+        }
+        if (!isConnected(i, j)) {
+            neighbours[i] = append(neighbours[i], j);
+            neighbours[j] = append(neighbours[j], i);
+        }
+    }
+
+    private static int[] append(int[] array, int value) {
+        int[] result = Arrays.copyOf(array, array.length + 1);
+        result[array.length] = value;
+        return result;
+    }
+
+    public boolean isConnected(int a, int b) {
+        for (int n : neighbours[a]) {
+            if (n == b) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The neighbours of the sensor. Do not modify.
+     * @param sensor
+     * @return
+     */
+    public int[] getNeighbours(int sensor) {
+        return neighbours[sensor];
+    }
+
+    /**
+     * Reads edges from a local file in the format described above.
+     * @param file
+     * @param sensorNames
+     * @return
+     * @throws IOException
+     */
+    public static SensorGraph load(Path file, String[] sensorNames) throws IOException {
+        SensorGraph graph = new SensorGraph(sensorNames);
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            String line = null;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                int colon = line.indexOf(':');
+                if (colon < 0) {
+                    throw new IllegalArgumentException("Edge line must be 'sensor: neighbour; neighbour': " + line);
+                }
+                String sensor = line.substring(0, colon).trim();
+                for (String neighbour : line.substring(colon + 1).split(";")) {
+                    if (!neighbour.trim().isEmpty()) {
+                        graph.connect(sensor, neighbour.trim());
+                    }
+                }
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * The default graph of the Melbourne CBD: each sensor is connected to the
+     * nearest sensors along the streets it is on.
+     * @param sensorNames - must include all of the Melbourne sensors
+     * @return
+     */
+    public static SensorGraph melbourneStreets(String[] sensorNames) {
+        SensorGraph graph = new SensorGraph(sensorNames);
+        String[][] edges = {
+            // Swanston St, north to south, and across the river
+            {"Lygon St (West)", "Lygon Street (East)"},
+            {"Lygon St (West)", "QV Market-Peel St"},
+            {"State Library", "Melbourne Central"},
+            {"State Library", "QV Market-Elizabeth (West)"},
+            {"Melbourne Central", "Lonsdale St (South)"},
+            {"Melbourne Central", "Chinatown-Swanston St (North)"},
+            {"Chinatown-Swanston St (North)", "Chinatown-Lt Bourke St (South)"},
+            {"Chinatown-Swanston St (North)", "Town Hall (West)"},
+            {"Town Hall (West)", "Bourke Street Mall (North)"},
+            {"Town Hall (West)", "Flinders St-Swanston St (West)"},
+            {"Flinders St-Swanston St (West)", "Flinders St Station Underpass"},
+            {"Flinders St-Swanston St (West)", "Princes Bridge"},
+            {"Flinders St Station Underpass", "Princes Bridge"},
+            {"Princes Bridge", "Vic Arts Centre"},
+            {"Princes Bridge", "Birrarung Marr"},
+            // Elizabeth St and the Queen Victoria Market
+            {"QV Market-Elizabeth (West)", "QV Market-Peel St"},
+            {"QV Market-Elizabeth (West)", "Flagstaff Station"},
+            {"Flinders St-Elizabeth St (East)", "Flinders St Station Underpass"},
+            {"Flinders St-Elizabeth St (East)", "Sandridge Bridge"},
+            {"Flinders St-Elizabeth St (East)", "Queen Street (West)"},
+            // Bourke St and the east end
+            {"Bourke Street Mall (North)", "Bourke Street Mall (South)"},
+            {"Bourke Street Mall (North)", "Chinatown-Lt Bourke St (South)"},
+            {"Bourke Street Mall (South)", "Australia on Collins"},
+            {"Chinatown-Lt Bourke St (South)", "Bourke St-Russell St (West)"},
+            {"Bourke St-Russell St (West)", "Alfred Place"},
+            {"Bourke St-Russell St (West)", "Lonsdale St (South)"},
+            {"Lonsdale St (South)", "Spring St-Lonsdale St (South)"},
+            {"Alfred Place", "Collins Place (North)"},
+            {"Collins Place (North)", "Collins Place (South)"},
+            {"Collins Place (South)", "Flinders St-Spark Lane"},
+            {"Flinders St-Spark Lane", "Flinders St-Spring St (West)"},
+            {"Flinders St-Spring St (West)", "Birrarung Marr"},
+            {"Spring St-Lonsdale St (South)", "Flinders St-Spring St (West)"},
+            // Collins St, Queen St and the west end
+            {"Australia on Collins", "Town Hall (West)"},
+            {"Australia on Collins", "Queen Street (West)"},
+            {"Queen Street (West)", "Flagstaff Station"},
+            {"Queen Street (West)", "Spencer St-Collins St (North)"},
+            {"Spencer St-Collins St (North)", "Spencer St-Collins St (South)"},
+            {"Spencer St-Collins St (North)", "Southern Cross Station"},
+            {"Spencer St-Collins St (South)", "Southern Cross Station"},
+            // Southbank and Docklands
+            {"Sandridge Bridge", "Vic Arts Centre"},
+            {"Sandridge Bridge", "Convention/Exhibition Centre"},
+            {"Convention/Exhibition Centre", "Webb Bridge"},
+            {"Webb Bridge", "Southern Cross Station"},
+            {"Webb Bridge", "Victoria Point"},
+            {"Southern Cross Station", "Victoria Point"},
+            {"Victoria Point", "New Quay"},
+            {"New Quay", "Waterfront City"}
+        };
+        for (String[] edge : edges) {
+            graph.connect(edge[0], edge[1]);
+        }
+        return graph;
+    }
+}
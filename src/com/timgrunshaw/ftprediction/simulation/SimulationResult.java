@@ -0,0 +1,136 @@
+package com.timgrunshaw.ftprediction.simulation;
+
+import com.timgrunshaw.ftprediction.data.HourIndex;
+import java.io.IOException;
+import java.time.LocalDateTime;
+
+/**
+ * The distribution of each sensor's simulated count for each hour of a
+ * scenario, over all trials, and the mean change from the same trial without
+ * the closures and event load.
+ *
+ * @author Tim Grunshaw
+ */
+public class SimulationResult {
+
+    private final String[] sensorNames;
+    private final int fromHour;
+    private final int hours;
+    private final long trials;
+    // All [hour - fromHour][sensor]
+    private final int[] histograms; // CountHistograms.BUCKETS per sensor and hour
+    private final double[] sums;
+    private final double[] squareSums;
+    private final double[] changeSums;
+
+    SimulationResult(String[] sensorNames, int fromHour, int hours, long trials,
+            int[] histograms, double[] sums, double[] squareSums, double[] changeSums) {
+        this.sensorNames = sensorNames;
+        this.fromHour = fromHour;
+        this.hours = hours;
+        this.trials = trials;
+        this.histograms = histograms;
+        this.sums = sums;
+        this.squareSums = squareSums;
+        this.changeSums = changeSums;
+    }
+
+    public String[] getSensorNames() {
+        return sensorNames.clone();
+    }
+
+    public int getFromHour() {
+        return fromHour;
+    }
+
+    public int getHours() {
+        return hours;
+    }
+
+    public long getTrials() {
+        return trials;
+    }
+
+    private int cell(int sensor, int hourIndex) {
+        if (hourIndex < fromHour || hourIndex >= fromHour + hours) {
+            throw new IllegalArgumentException("Hour is outside of the scenario: " + HourIndex.toDateTime(hourIndex));
+        }
+        return (hourIndex - fromHour) * sensorNames.length + sensor;
+    }
+
+    private int sensorIndex(String sensor) {
+        for (int i = 0; i < sensorNames.length; i++) {
+            if (sensorNames[i].equals(sensor)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("No such sensor: " + sensor);
+    }
+
+    public double getMean(int sensor, int hourIndex) {
+        return sums[cell(sensor, hourIndex)] / trials;
+    }
+
+    public double getMean(String sensor, LocalDateTime hour) {
+        return getMean(sensorIndex(sensor), HourIndex.of(hour));
+    }
+
+    public double getStdDev(int sensor, int hourIndex) {
+        int c = cell(sensor, hourIndex);
+        double mean = sums[c] / trials;
+        return Math.sqrt(Math.max(0, squareSums[c] / trials - mean * mean));
+    }
+
+    public double getStdDev(String sensor, LocalDateTime hour) {
+        return getStdDev(sensorIndex(sensor), HourIndex.of(hour));
+    }
+
+    /**
+     * The simulated count at the quantile, to within 1.6%.
+     * @param sensor
+     * @param hourIndex
+     * @param q - between 0 and 1, e.g. 0.95
+     * @return
+     */
+    public double getQuantile(int sensor, int hourIndex, double q) {
+        return CountHistograms.quantile(histograms, cell(sensor, hourIndex), q);
+    }
+
+    public double getQuantile(String sensor, LocalDateTime hour, double q) {
+        return getQuantile(sensorIndex(sensor), HourIndex.of(hour), q);
+    }
+
+    /**
+     * The mean of (scenario count - count of the same trial without the
+     * closures and event load).
+     * @param sensor
+     * @param hourIndex
+     * @return
+     */
+    public double getMeanChange(int sensor, int hourIndex) {
+        return changeSums[cell(sensor, hourIndex)] / trials;
+    }
+
+    public double getMeanChange(String sensor, LocalDateTime hour) {
+        return getMeanChange(sensorIndex(sensor), HourIndex.of(hour));
+    }
+
+    /**
+     * Writes one CSV row per sensor and hour:
+     * Sensor,Hour,Mean,StdDev,P05,P50,P95,MeanChange
+     * @param out
+     * @throws IOException
+     */
+    public void write(Appendable out) throws IOException {
+        out.append("Sensor,Hour,Mean,StdDev,P05,P50,P95,MeanChange\n");
+        for (int s = 0; s < sensorNames.length; s++) {
+            for (int h = fromHour; h < fromHour + hours; h++) {
+                out.append(sensorNames[s]).append(',')
+                        .append(HourIndex.toDateTime(h).toString()).append(',')
+                        .append(String.format("%.1f,%.1f,%.1f,%.1f,%.1f,%.1f\n",
+                                getMean(s, h), getStdDev(s, h), getQuantile(s, h, 0.05),
+                                getQuantile(s, h, 0.5), getQuantile(s, h, 0.95), getMeanChange(s, h)));
+            }
+        }
+    }
+}
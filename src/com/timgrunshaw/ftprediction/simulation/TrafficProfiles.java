@@ -0,0 +1,92 @@
+package com.timgrunshaw.ftprediction.simulation;
+
+import com.timgrunshaw.ftprediction.data.HourIndex;
+import com.timgrunshaw.ftprediction.sketch.KllSketch;
+import com.timgrunshaw.ftprediction.sketch.SensorSketches;
+
+/**
+ * The historical distribution of each sensor's count for each hour of the
+ * week, as a table of evenly spaced quantiles. Drawing a count is a table
+ * lookup and an interpolation, so a simulation never has to query the
+ * sketches themselves.
+ *
+ * @author Tim Grunshaw
+ */
+public class TrafficProfiles {
+
+    public static final int DEFAULT_QUANTILES = 64;
+
+    private final String[] sensorNames;
+    private final int quantiles;
+    // [sensor][hourOfWeek][0..quantiles], quantile i at q = i / quantiles
+    private final double[] table;
+
+    /**
+     * @param sensorNames
+     * @param quantiles - number of intervals between the quantiles in the table
+     * @param table - (quantiles + 1) ascending values per sensor and hour of
+     * the week, sensor major
+     */
+    public TrafficProfiles(String[] sensorNames, int quantiles, double[] table) {
+        if (quantiles < 1) {
+            throw new IllegalArgumentException("Need at least 1 quantile interval: " + quantiles);
+        }
+        if (table.length != sensorNames.length * HourIndex.HOURS_PER_WEEK * (quantiles + 1)) {
+            throw new IllegalArgumentException("Table must have " + (quantiles + 1)
+                    + " values per sensor and hour of the week");
+        }
+        this.sensorNames = sensorNames.clone();
+        this.quantiles = quantiles;
+        this.table = table.clone();
+    }
+
+    /**
+     * Profiles from the quantile sketches of a Melbourne (see
+     * Melbourne.getSketches() and MelbourneDataSource.loadSketches()).
+     * Hours of the week without any readings are always zero.
+     * @param sketches
+     * @param quantiles
+     * @return
+     */
+    public static TrafficProfiles fromSketches(SensorSketches sketches, int quantiles) {
+        String[] names = sketches.getSensorNames();
+        double[] table = new double[names.length * HourIndex.HOURS_PER_WEEK * (quantiles + 1)];
+        int i = 0;
+        for (String sensor : names) {
+            for (int h = 0; h < HourIndex.HOURS_PER_WEEK; h++) {
+                KllSketch sketch = sketches.getSketch(sensor, h);
+                for (int q = 0; q <= quantiles; q++) {
+                    table[i++] = sketch.isEmpty() ? 0 : sketch.quantile((double) q / quantiles);
+                }
+            }
+        }
+        return new TrafficProfiles(names, quantiles, table);
+    }
+
+    public String[] getSensorNames() {
+        return sensorNames.clone();
+    }
+
+    public int getSensorCount() {
+        return sensorNames.length;
+    }
+
+    /**
+     * The count at the quantile, interpolated between the table values.
+     * @param sensor
+     * @param hourOfWeek
+     * @param u - between 0 and 1
+     * @return
+     */
+    public double sample(int sensor, int hourOfWeek, double u) {
+        int base = (sensor * HourIndex.HOURS_PER_WEEK + hourOfWeek) * (quantiles + 1);
+        double position = u * quantiles;
+        int i = Math.min((int) position, quantiles - 1);
+        double fraction = position - i;
+        return table[base + i] + fraction * (table[base + i + 1] - table[base + i]);
+    }
+
+    public double median(int sensor, int hourOfWeek) {
+        return sample(sensor, hourOfWeek, 0.5);
+    }
+}
@@ -0,0 +1,237 @@
+package com.timgrunshaw.ftprediction.sketch;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A mergeable streaming quantile sketch (Karnin, Lang and Liberty 2016, "KLL").
+ *
+ * Items are kept in a stack of compactors. Items at level h stand for 2^h
+ * original items; when a level is full it is sorted and every other item
+ * (from a random offset) is promoted to the next level. Lower levels get
+ * geometrically smaller capacities, so the sketch holds O(k) items however
+ * many are added, with a rank error of roughly 1.7 / k.
+ *
+ * Sketches with the same k can be merged, giving a sketch of the union of
+ * both streams.
+ *
+ * @author Tim Grunshaw
+ */
+public class KllSketch {
+
+    public static final int DEFAULT_K = 128;
+
+    private static final double CAPACITY_DECAY = 2.0 / 3.0;
+    private static final int MIN_CAPACITY = 2;
+
+    private final int k;
+    private double[][] levels = new double[1][4];
+    private int[] sizes = new int[1];
+    private int retained; // Number of items held in all levels
+    private int maxRetained;
+    private long n; // Number of items added
+    private long random = 0x9E3779B97F4A7C15L; // xorshift state for compaction offsets
+
+    public KllSketch() {
+        this(DEFAULT_K);
+    }
+
+    public KllSketch(int k) {
+        if (k < 8) {
+            throw new IllegalArgumentException("k must be at least 8: " + k);
+        }
+        this.k = k;
+        this.maxRetained = capacity(0);
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * @return the number of items added to this sketch (and merged sketches).
+     */
+    public long getN() {
+        return n;
+    }
+
+    public boolean isEmpty() {
+        return n == 0;
+    }
+
+    /**
+     * @return the number of items currently held by the sketch.
+     */
+    public int getRetained() {
+        return retained;
+    }
+
+    public void update(double value) {
+        append(0, value);
+        n++;
+        retained++;
+        if (retained >= maxRetained) {
+            compress();
+        }
+    }
+
+    /**
+     * Adds all items of the other sketch to this one. The other sketch is not modified.
+     * @param other - must have the same k
+     */
+    public void merge(KllSketch other) {
+        if (other.k != k) {
+            throw new IllegalArgumentException("Cannot merge sketches with different k: " + k + ", " + other.k);
+        }
+        while (levels.length < other.levels.length) {
+            grow();
+        }
+        for (int h = 0; h < other.levels.length; h++) {
+            for (int i = 0; i < other.sizes[h]; i++) {
+                append(h, other.levels[h][i]);
+            }
+            retained += other.sizes[h];
+        }
+        n += other.n;
+        while (retained >= maxRetained) {
+            compress();
+        }
+    }
+
+    /**
+     * The approximate value at the quantile.
+     * @param q - between 0 and 1
+     * @return the value, or NaN if the sketch is empty.
+     */
+    public double quantile(double q) {
+        if (q < 0 || q > 1) {
+            throw new IllegalArgumentException("Quantile must be between 0 and 1: " + q);
+        }
+        if (n == 0) {
+            return Double.NaN;
+        }
+
+        // Sort each level, then walk all levels in order of value.
+        int numLevels = levels.length;
+        double[][] sorted = new double[numLevels][];
+        long total = 0;
+        for (int h = 0; h < numLevels; h++) {
+            sorted[h] = Arrays.copyOf(levels[h], sizes[h]);
+            Arrays.sort(sorted[h]);
+            total += (long) sizes[h] << h;
+        }
+        int[] next = new int[numLevels];
+        double target = q * total;
+        long cumulative = 0;
+        double value = Double.NaN;
+        while (true) {
+            int min = -1;
+            for (int h = 0; h < numLevels; h++) {
+                if (next[h] < sorted[h].length
+                        && (min < 0 || sorted[h][next[h]] < sorted[min][next[min]])) {
+                    min = h;
+                }
+            }
+            if (min < 0) {
+                return value;
+            }
+            value = sorted[min][next[min]++];
+            cumulative += 1L << min;
+            if (cumulative >= target) {
+                return value;
+            }
+        }
+    }
+
+    private int capacity(int level) {
+        int depth = levels.length - level - 1;
+        return Math.max(MIN_CAPACITY, (int) Math.ceil(k * Math.pow(CAPACITY_DECAY, depth)));
+    }
+
+    private void grow() {
+        levels = Arrays.copyOf(levels, levels.length + 1);
+        levels[levels.length - 1] = new double[4];
+        sizes = Arrays.copyOf(sizes, sizes.length + 1);
+        int max = 0;
+        for (int h = 0; h < levels.length; h++) {
+            max += capacity(h);
+        }
+        maxRetained = max;
+    }
+
+    private void append(int level, double value) {
+        if (sizes[level] == levels[level].length) {
+            levels[level] = Arrays.copyOf(levels[level], levels[level].length * 2);
+        }
+        levels[level][sizes[level]++] = value;
+    }
+
+    /**
+     * Compacts the lowest full level.
+     */
+    private void compress() {
+        for (int h = 0; h < levels.length; h++) {
+            if (sizes[h] >= capacity(h)) {
+                if (h + 1 >= levels.length) {
+                    grow();
+                }
+                double[] level = levels[h];
+                int size = sizes[h];
+                Arrays.sort(level, 0, size);
+
+                // An odd item out stays at this level.
+                int pairs = size / 2;
+                int offset = nextBit();
+                for (int i = 0; i < pairs; i++) {
+                    append(h + 1, level[2 * i + offset]);
+                }
+                if (size % 2 == 1) {
+                    level[0] = level[size - 1];
+                    sizes[h] = 1;
+                } else {
+                    sizes[h] = 0;
+                }
+                retained -= pairs;
+                return;
+            }
+        }
+    }
+
+    private int nextBit() {
+        random ^= random << 13;
+        random ^= random >>> 7;
+        random ^= random << 17;
+        return (int) (random >>> 63);
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(k);
+        out.writeLong(n);
+        out.writeInt(levels.length);
+        for (int h = 0; h < levels.length; h++) {
+            out.writeInt(sizes[h]);
+            for (int i = 0; i < sizes[h]; i++) {
+                out.writeDouble(levels[h][i]);
+            }
+        }
+    }
+
+    public static KllSketch readFrom(DataInput in) throws IOException {
+        KllSketch sketch = new KllSketch(in.readInt());
+        sketch.n = in.readLong();
+        int numLevels = in.readInt();
+        while (sketch.levels.length < numLevels) {
+            sketch.grow();
+        }
+        for (int h = 0; h < numLevels; h++) {
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                sketch.append(h, in.readDouble());
+            }
+            sketch.retained += size;
+        }
+        return sketch;
+    }
+}
@@ -0,0 +1,167 @@
+package com.timgrunshaw.ftprediction.sketch;
+
+import com.timgrunshaw.ftprediction.data.HourIndex;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Quantile sketches of the hourly counts of each sensor, one per hour of the
+ * week (Monday midnight = 0 .. Sunday 11pm = 167).
+ *
+ * Used for alerting thresholds such as the p99 count for a sensor on a
+ * Saturday at 9pm, without keeping or sorting the full history.
+ *
+ * @author Tim Grunshaw
+ */
+public class SensorSketches {
+
+    private static final int FILE_MAGIC = 0x464B4C4C; // "FKLL"
+    private static final int FILE_VERSION = 1;
+
+    private final String[] sensorNames;
+    private final HashMap<String, Integer> sensorIndex = new HashMap<>();
+    private final int k;
+    private final KllSketch[] sketches; // [sensor * HOURS_PER_WEEK + hourOfWeek]
+
+    public SensorSketches(String[] sensorNames) {
+        this(sensorNames, KllSketch.DEFAULT_K);
+    }
+
+    public SensorSketches(String[] sensorNames, int k) {
+        this.sensorNames = sensorNames.clone();
+        this.k = k;
+        for (int i = 0; i < sensorNames.length; i++) {
+            sensorIndex.put(sensorNames[i], i);
+        }
+        this.sketches = new KllSketch[sensorNames.length * HourIndex.HOURS_PER_WEEK];
+        for (int i = 0; i < sketches.length; i++) {
+            sketches[i] = new KllSketch(k);
+        }
+    }
+
+    public String[] getSensorNames() {
+        return sensorNames.clone();
+    }
+
+    public void add(String sensor, LocalDateTime hour, int count) {
+        add(indexOf(sensor), HourIndex.of(hour), count);
+    }
+
+    public void add(int sensor, int hourIndex, int count) {
+        sketches[sensor * HourIndex.HOURS_PER_WEEK + HourIndex.hourOfWeek(hourIndex)].update(count);
+    }
+
+    /**
+     * The sketch for one sensor and hour of the week. Do not modify it, use
+     * merged() to combine sketches.
+     * @param sensor
+     * @param hourOfWeek
+     * @return
+     */
+    public KllSketch getSketch(String sensor, int hourOfWeek) {
+        checkHourOfWeek(hourOfWeek);
+        return sketches[indexOf(sensor) * HourIndex.HOURS_PER_WEEK + hourOfWeek];
+    }
+
+    /**
+     * The approximate count at the quantile for the sensor and hour of the week.
+     * @param sensor
+     * @param hourOfWeek
+     * @param q - between 0 and 1, e.g. 0.99
+     * @return
+     */
+    public double quantile(String sensor, int hourOfWeek, double q) {
+        return getSketch(sensor, hourOfWeek).quantile(q);
+    }
+
+    /**
+     * A new sketch combining the sensors over a range of hours of the week,
+     * e.g. all Swanston St sensors on weekday mornings.
+     * @param sensors
+     * @param fromHourOfWeek - inclusive
+     * @param toHourOfWeek - exclusive
+     * @return
+     */
+    public KllSketch merged(String[] sensors, int fromHourOfWeek, int toHourOfWeek) {
+        checkHourOfWeek(fromHourOfWeek);
+        if (toHourOfWeek <= fromHourOfWeek || toHourOfWeek > HourIndex.HOURS_PER_WEEK) {
+            throw new IllegalArgumentException("Invalid hour of week range: " + fromHourOfWeek + " - " + toHourOfWeek);
+        }
+        KllSketch result = new KllSketch(k);
+        for (String sensor : sensors) {
+            int base = indexOf(sensor) * HourIndex.HOURS_PER_WEEK;
+            for (int h = fromHourOfWeek; h < toHourOfWeek; h++) {
+                result.merge(sketches[base + h]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adds all of the other sketches (e.g. of another period) to these.
+     * @param other - must have the same sensors and k
+     */
+    public void merge(SensorSketches other) {
+        if (!Arrays.equals(sensorNames, other.sensorNames) || k != other.k) {
+            throw new IllegalArgumentException("Sketches must have the same sensors and k to be merged");
+        }
+        for (int i = 0; i < sketches.length; i++) {
+            sketches[i].merge(other.sketches[i]);
+        }
+    }
+
+    private int indexOf(String sensor) {
+        Integer index = sensorIndex.get(sensor);
+        if (index == null) {
+            throw new IllegalArgumentException("No such sensor: " + sensor);
+        }
+        return index;
+    }
+
+    private static void checkHourOfWeek(int hourOfWeek) {
+        if (hourOfWeek < 0 || hourOfWeek >= HourIndex.HOURS_PER_WEEK) {
+            throw new IllegalArgumentException("Hour of week must be 0..167: " + hourOfWeek);
+        }
+    }
+
+    public void write(Path dest) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(dest)))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeInt(k);
+            out.writeInt(sensorNames.length);
+            for (String s : sensorNames) {
+                out.writeUTF(s);
+            }
+            for (KllSketch sketch : sketches) {
+                sketch.writeTo(out);
+            }
+        }
+    }
+
+    public static SensorSketches read(Path source) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(source)))) {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                throw new IOException("Not a sensor sketch file: " + source);
+            }
+            int k = in.readInt();
+            String[] names = new String[in.readInt()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = in.readUTF();
+            }
+            SensorSketches result = new SensorSketches(names, k);
+            for (int i = 0; i < result.sketches.length; i++) {
+                result.sketches[i] = KllSketch.readFrom(in);
+            }
+            return result;
+        }
+    }
+}
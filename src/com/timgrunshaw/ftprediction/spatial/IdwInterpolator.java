@@ -0,0 +1,68 @@
+package com.timgrunshaw.ftprediction.spatial;
+
+/**
+ * Inverse distance weighting: the estimate is the mean of the nearest
+ * sensors weighted by 1 / distance^power. A point on top of a sensor gets
+ * that sensor's count.
+ *
+ * @author Tim Grunshaw
+ */
+public class IdwInterpolator implements Interpolator {
+
+    public static final int DEFAULT_NEIGHBOURS = 8;
+    public static final double DEFAULT_POWER = 2;
+
+    // Closer than this is treated as on top of the sensor.
+    private static final double SAME_PLACE_METRES = 1e-3;
+
+    private final KdTree tree;
+    private final int neighbours;
+    private final double power;
+    private final double[] distances;
+
+    public IdwInterpolator(SensorLocations locations) {
+        this(locations, DEFAULT_NEIGHBOURS, DEFAULT_POWER);
+    }
+
+    public IdwInterpolator(SensorLocations locations, int neighbours, double power) {
+        if (neighbours < 1) {
+            throw new IllegalArgumentException("Need at least 1 neighbour: " + neighbours);
+        }
+        if (power <= 0) {
+            throw new IllegalArgumentException("Power must be positive: " + power);
+        }
+        this.tree = KdTree.of(locations);
+        this.neighbours = neighbours;
+        this.power = power;
+        this.distances = new double[neighbours];
+    }
+
+    @Override
+    public int getMaxSensors() {
+        return neighbours;
+    }
+
+    /**
+     * Not thread safe, the instance keeps a buffer of distances.
+     */
+    @Override
+    public int weights(double x, double y, int[] sensors, double[] weights) {
+        int found = tree.nearest(x, y, neighbours, sensors, distances);
+        if (found == 0) {
+            return 0;
+        }
+        if (distances[0] < SAME_PLACE_METRES) {
+            weights[0] = 1;
+            return 1;
+        }
+        double total = 0;
+        for (int i = 0; i < found; i++) {
+            weights[i] = power == 2 ? 1 / (distances[i] * distances[i]) : Math.pow(distances[i], -power);
+            total += weights[i];
+        }
+        for (int i = 0; i < found; i++) {
+            weights[i] /= total;
+        }
+        return found;
+    }
+}
@@ -0,0 +1,223 @@
+package com.timgrunshaw.ftprediction.spatial;
+
+import com.timgrunshaw.ftprediction.data.HourIndex;
+import com.timgrunshaw.ftprediction.data.Melbourne;
+import com.timgrunshaw.ftprediction.data.Sensor;
+import com.timgrunshaw.ftprediction.data.SensorColumns;
+import java.io.IOException;
+import java.time.LocalDateTime;
+
+/**
+ * A fixed set of query points with the interpolation weights of each point
+ * computed once. Estimating every point for an hour is then a few multiply
+ * adds per point, whichever Interpolator computed the weights.
+ *
+ * Weights are stored flat, getMaxSensors() slots per point; unused slots have
+ * weight 0 and sensor 0.
+ *
+ * When sensors are missing the remaining weights of a point are rescaled to
+ * sum to 1, rather than solved again. That is a weighted mean of the
+ * remaining sensors when every weight is positive, as with IDW. Kriging
+ * weights can be negative, so the remaining weights can sum to almost
+ * nothing or less; such a point is NaN unless at least MIN_REMAINING_WEIGHT
+ * of its weight is left.
+ *
+ * @author Tim Grunshaw
+ */
+public class InterpolationGrid {
+
+    public static final double MIN_REMAINING_WEIGHT = 0.5;
+    // Less weight than this is rounding error, e.g. on top of a sensor.
+    private static final double NO_WEIGHT = 1e-9;
+
+    private final SensorLocations locations;
+    private final double[] x;
+    private final double[] y;
+    private final int slots;
+    private final int[] sensors;
+    private final double[] weights;
+    private final boolean[] positive; // Whether every weight of the point is at least 0
+
+    /**
+     * @param locations
+     * @param interpolator - built from the same locations
+     * @param x - metres east of the locations origin, one per point
+     * @param y - metres north, one per point
+     */
+    public InterpolationGrid(SensorLocations locations, Interpolator interpolator, double[] x, double[] y) {
+        if (y.length != x.length) {
+            throw new IllegalArgumentException("Need an x and y for each point");
+        }
+        this.locations = locations;
+        this.x = x.clone();
+        this.y = y.clone();
+        this.slots = interpolator.getMaxSensors();
+        this.sensors = new int[x.length * slots];
+        this.weights = new double[x.length * slots];
+        this.positive = new boolean[x.length];
+
+        int[] pointSensors = new int[slots];
+        double[] pointWeights = new double[slots];
+        for (int p = 0; p < x.length; p++) {
+            int n = interpolator.weights(x[p], y[p], pointSensors, pointWeights);
+            System.arraycopy(pointSensors, 0, sensors, p * slots, n);
+            System.arraycopy(pointWeights, 0, weights, p * slots, n);
+            positive[p] = true;
+            for (int i = 0; i < n; i++) {
+                positive[p] &= pointWeights[i] >= 0;
+            }
+        }
+    }
+
+    /**
+     * A regular grid covering the located sensors, with a margin around them.
+     * @param locations
+     * @param interpolator
+     * @param spacingMetres - between grid points, in both directions
+     * @param marginMetres - beyond the outermost sensors
+     * @return
+     */
+    public static InterpolationGrid regular(SensorLocations locations, Interpolator interpolator,
+            double spacingMetres, double marginMetres) {
+        if (spacingMetres <= 0) {
+            throw new IllegalArgumentException("Spacing must be positive: " + spacingMetres);
+        }
+        double minX = Double.POSITIVE_INFINITY, maxX = Double.NEGATIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (int s = 0; s < locations.getSensorCount(); s++) {
+            if (locations.isLocated(s)) {
+                minX = Math.min(minX, locations.getX(s));
+                maxX = Math.max(maxX, locations.getX(s));
+                minY = Math.min(minY, locations.getY(s));
+                maxY = Math.max(maxY, locations.getY(s));
+            }
+        }
+        int columns = (int) Math.floor((maxX - minX + 2 * marginMetres) / spacingMetres) + 1;
+        int rows = (int) Math.floor((maxY - minY + 2 * marginMetres) / spacingMetres) + 1;
+        double[] x = new double[columns * rows];
+        double[] y = new double[columns * rows];
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < columns; c++) {
+                x[r * columns + c] = minX - marginMetres + c * spacingMetres;
+                y[r * columns + c] = minY - marginMetres + r * spacingMetres;
+            }
+        }
+        return new InterpolationGrid(locations, interpolator, x, y);
+    }
+
+    public int getPointCount() {
+        return x.length;
+    }
+
+    public double getLatitude(int point) {
+        return locations.toLatitude(y[point]);
+    }
+
+    public double getLongitude(int point) {
+        return locations.toLongitude(x[point]);
+    }
+
+    /**
+     * Estimates every point from one value per sensor.
+     * @param sensorValues - indexed as the sensors of the locations
+     * @param estimates - one per point, overwritten
+     */
+    public void evaluate(double[] sensorValues, double[] estimates) {
+        for (int p = 0; p < x.length; p++) {
+            double sum = 0;
+            int base = p * slots;
+            for (int i = 0; i < slots; i++) {
+                sum += weights[base + i] * sensorValues[sensors[base + i]];
+            }
+            estimates[p] = sum;
+        }
+    }
+
+    /**
+     * As evaluate(values, estimates), leaving out sensors that are not
+     * present. The remaining weights of each point are scaled to sum to 1
+     * again. A point whose sensors are all missing is NaN, as is a point with
+     * negative weights (kriging) that has less than MIN_REMAINING_WEIGHT left.
+     * @param sensorValues
+     * @param present - one per sensor
+     * @param estimates
+     */
+    public void evaluate(double[] sensorValues, boolean[] present, double[] estimates) {
+        for (int p = 0; p < x.length; p++) {
+            double sum = 0;
+            double weight = 0;
+            int base = p * slots;
+            for (int i = 0; i < slots; i++) {
+                int s = sensors[base + i];
+                if (present[s]) {
+                    sum += weights[base + i] * sensorValues[s];
+                    weight += weights[base + i];
+                }
+            }
+            boolean enough = weight >= (positive[p] ? NO_WEIGHT : MIN_REMAINING_WEIGHT);
+            estimates[p] = enough ? sum / weight : Double.NaN;
+        }
+    }
+
+    /**
+     * Estimates every point for one hour of the columns.
+     * @param columns - matched to the locations by sensor name, in any order
+     * @param hourIndex
+     * @param estimates
+     * @throws IllegalArgumentException if a located sensor has no column
+     */
+    public void evaluate(SensorColumns columns, int hourIndex, double[] estimates) {
+        String[] names = locations.getSensorNames();
+        double[] values = new double[names.length];
+        boolean[] present = new boolean[names.length];
+        int row = hourIndex - columns.getFirstHour();
+        boolean inRange = row >= 0 && row < columns.getHours();
+        boolean allPresent = true;
+        for (int s = 0; s < names.length; s++) {
+            if (!locations.isLocated(s)) {
+                continue;
+            }
+            int column = columns.getSensorIndex(names[s]);
+            present[s] = inRange && !columns.isMissing(column, row);
+            values[s] = present[s] ? columns.getColumn(column)[row] : 0;
+            allPresent &= present[s];
+        }
+        if (allPresent) {
+            evaluate(values, estimates);
+        } else {
+            evaluate(values, present, estimates);
+        }
+    }
+
+    /**
+     * Estimates every point for one hour of the Melbourne data.
+     * @param melbourne
+     * @param hour
+     * @param estimates
+     */
+    public void evaluate(Melbourne melbourne, LocalDateTime hour, double[] estimates) {
+        String[] names = locations.getSensorNames();
+        double[] values = new double[names.length];
+        boolean[] present = new boolean[names.length];
+        for (int s = 0; s < names.length; s++) {
+            Sensor sensor = melbourne.getSensor(names[s]);
+            present[s] = sensor.getAllRecords().containsKey(hour) && !sensor.isMissing(hour);
+            values[s] = present[s] ? sensor.getCount(hour) : 0;
+        }
+        evaluate(values, present, estimates);
+    }
+
+    /**
+     * Writes the estimates as CSV: Latitude,Longitude,Hour,Estimate
+     * @param hourIndex
+     * @param estimates
+     * @param out
+     * @throws IOException
+     */
+    public void write(int hourIndex, double[] estimates, Appendable out) throws IOException {
+        String hour = HourIndex.toDateTime(hourIndex).toString();
+        for (int p = 0; p < x.length; p++) {
+            out.append(String.format("%.6f,%.6f,%s,%.1f\n", getLatitude(p), getLongitude(p), hour, estimates[p]));
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.timgrunshaw.ftprediction.spatial;
+
+/**
+ * Estimates the count at a point as a weighted sum of the counts of nearby
+ * sensors. The weights only depend on where the point and the sensors are,
+ * so they can be computed once per point (see InterpolationGrid) and then
+ * applied to every hour.
+ *
+ * @author Tim Grunshaw
+ */
+public interface Interpolator {
+
+    /**
+     * @return the most sensors a call to weights() may use.
+     */
+    int getMaxSensors();
+
+    /**
+     * Computes the weights of the estimate at (x, y), in metres as given by
+     * SensorLocations.
+     * @param x
+     * @param y
+     * @param sensors - at least getMaxSensors() long, filled with sensor indices
+     * @param weights - at least getMaxSensors() long, filled with their weights
+     * @return the number of sensors used
+     */
+    int weights(double x, double y, int[] sensors, double[] weights);
+}
@@ -0,0 +1,179 @@
+package com.timgrunshaw.ftprediction.spatial;
+
+/**
+ * A 2-d tree of points for nearest neighbour queries.
+ *
+ * The tree is implicit: the points are reordered so that the point splitting
+ * each range [lo, hi) sits at its middle, with the smaller coordinate (x at
+ * even depths, y at odd) on the left. No node objects are allocated, and a
+ * query only touches the three primitive arrays.
+ *
+ * @author Tim Grunshaw
+ */
+public class KdTree {
+
+    private final double[] x;
+    private final double[] y;
+    private final int[] ids;
+
+    /**
+     * @param x
+     * @param y
+     * @param ids - returned by queries for each point, e.g. sensor indices
+     */
+    public KdTree(double[] x, double[] y, int[] ids) {
+        if (y.length != x.length || ids.length != x.length) {
+            throw new IllegalArgumentException("Need an x, y and id for each point");
+        }
+        this.x = x.clone();
+        this.y = y.clone();
+        this.ids = ids.clone();
+        build(0, x.length, 0);
+    }
+
+    /**
+     * A tree of the sensors that have a location.
+     * @param locations
+     * @return
+     */
+    public static KdTree of(SensorLocations locations) {
+        int count = 0;
+        for (int s = 0; s < locations.getSensorCount(); s++) {
+            if (locations.isLocated(s)) {
+                count++;
+            }
+        }
+        double[] x = new double[count];
+        double[] y = new double[count];
+        int[] ids = new int[count];
+        int i = 0;
+        for (int s = 0; s < locations.getSensorCount(); s++) {
+            if (locations.isLocated(s)) {
+                x[i] = locations.getX(s);
+                y[i] = locations.getY(s);
+                ids[i++] = s;
+            }
+        }
+        return new KdTree(x, y, ids);
+    }
+
+    public int size() {
+        return x.length;
+    }
+
+    private void build(int lo, int hi, int depth) {
+        if (hi - lo <= 1) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        select(lo, hi - 1, mid, (depth & 1) == 0 ? x : y);
+        build(lo, mid, depth + 1);
+        build(mid + 1, hi, depth + 1);
+    }
+
+    /**
+     * Quickselect: reorders [lo, hi] so that position k holds the point it
+     * would hold if sorted by the key, with smaller keys before it.
+     */
+    private void select(int lo, int hi, int k, double[] key) {
+        while (lo < hi) {
+            double pivot = key[(lo + hi) >>> 1];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (key[i] < pivot) {
+                    i++;
+                }
+                while (key[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        double t = x[i];
+        x[i] = x[j];
+        x[j] = t;
+        t = y[i];
+        y[i] = y[j];
+        y[j] = t;
+        int id = ids[i];
+        ids[i] = ids[j];
+        ids[j] = id;
+    }
+
+    /**
+     * Finds the nearest points to (qx, qy), nearest first.
+     * @param qx
+     * @param qy
+     * @param k - number of points wanted
+     * @param foundIds - at least k long, filled with the ids of the points
+     * @param foundDistances - at least k long, filled with their distances
+     * @return the number found, k or the size of the tree if smaller
+     */
+    public int nearest(double qx, double qy, int k, int[] foundIds, double[] foundDistances) {
+        if (k < 1) {
+            throw new IllegalArgumentException("Must ask for at least 1 point: " + k);
+        }
+        int found = search(0, x.length, 0, qx, qy, Math.min(k, x.length), 0, foundIds, foundDistances);
+        for (int i = 0; i < found; i++) {
+            foundDistances[i] = Math.sqrt(foundDistances[i]);
+        }
+        return found;
+    }
+
+    /**
+     * Searches [lo, hi), keeping the best squared distances sorted ascending.
+     * @return the number found so far
+     */
+    private int search(int lo, int hi, int depth, double qx, double qy, int k, int found,
+            int[] foundIds, double[] found2) {
+        if (lo >= hi) {
+            return found;
+        }
+        int mid = (lo + hi) >>> 1;
+        double dx = qx - x[mid];
+        double dy = qy - y[mid];
+        found = insert(dx * dx + dy * dy, ids[mid], k, found, foundIds, found2);
+
+        double split = (depth & 1) == 0 ? dx : dy;
+        if (split < 0) {
+            found = search(lo, mid, depth + 1, qx, qy, k, found, foundIds, found2);
+            if (found < k || split * split < found2[found - 1]) {
+                found = search(mid + 1, hi, depth + 1, qx, qy, k, found, foundIds, found2);
+            }
+        } else {
+            found = search(mid + 1, hi, depth + 1, qx, qy, k, found, foundIds, found2);
+            if (found < k || split * split < found2[found - 1]) {
+                found = search(lo, mid, depth + 1, qx, qy, k, found, foundIds, found2);
+            }
+        }
+        return found;
+    }
+
+    private static int insert(double d2, int id, int k, int found, int[] foundIds, double[] found2) {
+        if (found == k && d2 >= found2[k - 1]) {
+            return found;
+        }
+        int i = found < k ? found++ : k - 1;
+        while (i > 0 && found2[i - 1] > d2) {
+            found2[i] = found2[i - 1];
+            foundIds[i] = foundIds[i - 1];
+            i--;
+        }
+        found2[i] = d2;
+        foundIds[i] = id;
+        return found;
+    }
+}
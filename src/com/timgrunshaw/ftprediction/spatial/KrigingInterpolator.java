@@ -0,0 +1,133 @@
+package com.timgrunshaw.ftprediction.spatial;
+
+/**
+ * Ordinary kriging (a Gaussian process with an unknown constant mean) over
+ * the nearest sensors. The weights minimise the expected squared error under
+ * the variogram and sum to 1. Unlike inverse distance weighting, sensors that
+ * are close together share their weight rather than counting twice, and a
+ * weight may be slightly negative.
+ *
+ * @author Tim Grunshaw
+ */
+public class KrigingInterpolator implements Interpolator {
+
+    public static final int DEFAULT_NEIGHBOURS = 12;
+
+    private final SensorLocations locations;
+    private final Variogram variogram;
+    private final KdTree tree;
+    private final int neighbours;
+
+    // Buffers for one system, so weights() does not allocate.
+    private final double[] distances;
+    private final double[] matrix;
+    private final double[] rhs;
+    private double lastVariance;
+
+    public KrigingInterpolator(SensorLocations locations, Variogram variogram) {
+        this(locations, variogram, DEFAULT_NEIGHBOURS);
+    }
+
+    public KrigingInterpolator(SensorLocations locations, Variogram variogram, int neighbours) {
+        if (neighbours < 1) {
+            throw new IllegalArgumentException("Need at least 1 neighbour: " + neighbours);
+        }
+        this.locations = locations;
+        this.variogram = variogram;
+        this.tree = KdTree.of(locations);
+        this.neighbours = neighbours;
+        this.distances = new double[neighbours];
+        this.matrix = new double[(neighbours + 1) * (neighbours + 1)];
+        this.rhs = new double[neighbours + 1];
+    }
+
+    @Override
+    public int getMaxSensors() {
+        return neighbours;
+    }
+
+    /**
+     * Not thread safe, the instance keeps the buffers of the system solved.
+     */
+    @Override
+    public int weights(double x, double y, int[] sensors, double[] weights) {
+        int n = tree.nearest(x, y, neighbours, sensors, distances);
+        int size = n + 1;
+        for (int i = 0; i < n; i++) {
+            double xi = locations.getX(sensors[i]);
+            double yi = locations.getY(sensors[i]);
+            for (int j = 0; j < n; j++) {
+                double dx = xi - locations.getX(sensors[j]);
+                double dy = yi - locations.getY(sensors[j]);
+                matrix[i * size + j] = variogram.semivariance(Math.sqrt(dx * dx + dy * dy));
+            }
+            matrix[i * size + n] = 1;
+            matrix[n * size + i] = 1;
+            rhs[i] = variogram.semivariance(distances[i]);
+        }
+        matrix[n * size + n] = 0;
+        rhs[n] = 1;
+
+        solve(matrix, rhs, size);
+        lastVariance = rhs[n];
+        for (int i = 0; i < n; i++) {
+            weights[i] = rhs[i];
+            lastVariance += rhs[i] * variogram.semivariance(distances[i]);
+        }
+        return n;
+    }
+
+    /**
+     * The kriging variance (expected squared error) of the last call to
+     * weights().
+     * @return
+     */
+    public double getLastVariance() {
+        return lastVariance;
+    }
+
+    /**
+     * Solves a x = b in place (b becomes x) by Gaussian elimination with
+     * partial pivoting. The kriging system is symmetric but not positive
+     * definite, so Cholesky does not apply.
+     */
+    static void solve(double[] a, double[] b, int n) {
+        for (int col = 0; col < n; col++) {
+            int pivot = col;
+            for (int row = col + 1; row < n; row++) {
+                if (Math.abs(a[row * n + col]) > Math.abs(a[pivot * n + col])) {
+                    pivot = row;
+                }
+            }
+            if (Math.abs(a[pivot * n + col]) < 1e-12) {
+                throw new IllegalArgumentException("Kriging system is singular, are two sensors in the same place?");
+            }
+            if (pivot != col) {
+                for (int k = 0; k < n; k++) {
+                    double t = a[col * n + k];
+                    a[col * n + k] = a[pivot * n + k];
+                    a[pivot * n + k] = t;
+                }
+                double t = b[col];
+                b[col] = b[pivot];
+                b[pivot] = t;
+            }
+            for (int row = col + 1; row < n; row++) {
+                double factor = a[row * n + col] / a[col * n + col];
+                if (factor != 0) {
+                    for (int k = col; k < n; k++) {
+                        a[row * n + k] -= factor * a[col * n + k];
+                    }
+                    b[row] -= factor * b[col];
+                }
+            }
+        }
+        for (int row = n - 1; row >= 0; row--) {
+            double sum = b[row];
+            for (int k = row + 1; k < n; k++) {
+                sum -= a[row * n + k] * b[k];
+            }
+            b[row] = sum / a[row * n + row];
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.timgrunshaw.ftprediction.spatial;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Where each sensor is, in latitude / longitude and in metres east and north
+ * of a local origin. Distances are only ever taken across the city, so an
+ * equirectangular projection about the mean latitude is accurate to well
+ * under a metre.
+ *
+ * Locations are loaded from a local CSV file with one sensor per line:
+ * Sensor name,latitude,longitude
+ * Sensors without a line have no location and are not used for estimates.
+ *
+ * @author Tim Grunshaw
+ */
+public class SensorLocations {
+
+    static final double EARTH_RADIUS_METRES = 6371008.8;
+
+    private final String[] sensorNames;
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final boolean[] located;
+    private final double originLatitude;
+    private final double originLongitude;
+    private final double metresPerDegreeLatitude;
+    private final double metresPerDegreeLongitude;
+    private final double[] x;
+    private final double[] y;
+
+    /**
+     * @param sensorNames
+     * @param latitudes - NaN for a sensor without a location
+     * @param longitudes - NaN for a sensor without a location
+     */
+    public SensorLocations(String[] sensorNames, double[] latitudes, double[] longitudes) {
+        if (latitudes.length != sensorNames.length || longitudes.length != sensorNames.length) {
+            throw new IllegalArgumentException("Need a latitude and longitude for each sensor");
+        }
+        this.sensorNames = sensorNames.clone();
+        this.latitudes = latitudes.clone();
+        this.longitudes = longitudes.clone();
+        this.located = new boolean[sensorNames.length];
+
+        double latitudeSum = 0;
+        double longitudeSum = 0;
+        int count = 0;
+        for (int s = 0; s < sensorNames.length; s++) {
+            located[s] = !Double.isNaN(latitudes[s]) && !Double.isNaN(longitudes[s]);
+            if (located[s]) {
+                if (Math.abs(latitudes[s]) > 90 || Math.abs(longitudes[s]) > 180) {
+                    throw new IllegalArgumentException("Invalid location for " + sensorNames[s]
+                            + ": " + latitudes[s] + ", " + longitudes[s]);
+                }
+                latitudeSum += latitudes[s];
+                longitudeSum += longitudes[s];
+                count++;
+            }
+        }
+        if (count == 0) {
+            throw new IllegalArgumentException("No sensor has a location");
+        }
+        originLatitude = latitudeSum / count;
+        originLongitude = longitudeSum / count;
+        metresPerDegreeLatitude = Math.toRadians(1) * EARTH_RADIUS_METRES;
+        metresPerDegreeLongitude = metresPerDegreeLatitude * Math.cos(Math.toRadians(originLatitude));
+
+        x = new double[sensorNames.length];
+        y = new double[sensorNames.length];
+        for (int s = 0; s < sensorNames.length; s++) {
+            x[s] = located[s] ? toX(longitudes[s]) : Double.NaN;
+            y[s] = located[s] ? toY(latitudes[s]) : Double.NaN;
+        }
+    }
+
+    /**
+     * Reads locations from a local file in the format described above.
+     * @param file
+     * @param sensorNames
+     * @return
+     * @throws IOException
+     */
+    public static SensorLocations load(Path file, String[] sensorNames) throws IOException {
+        double[] latitudes = new double[sensorNames.length];
+        double[] longitudes = new double[sensorNames.length];
+        Arrays.fill(latitudes, Double.NaN);
+        Arrays.fill(longitudes, Double.NaN);
+
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            String line = null;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split(",");
+                if (fields.length != 3) {
+                    throw new IllegalArgumentException("Location line must be 'sensor,latitude,longitude': " + line);
+                }
+                int s = indexOf(sensorNames, fields[0].trim());
+                try {
+                    latitudes[s] = Double.parseDouble(fields[1].trim());
+                    longitudes[s] = Double.parseDouble(fields[2].trim());
+                } catch (NumberFormatException nfEx) {
+                    throw new IllegalArgumentException("Invalid location line: " + line, nfEx);
+                }
+            }
+        }
+        return new SensorLocations(sensorNames, latitudes, longitudes);
+    }
+
+    private static int indexOf(String[] sensorNames, String sensor) {
+        for (int i = 0; i < sensorNames.length; i++) {
+            if (sensorNames[i].equals(sensor)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("No such sensor: " + sensor);
+    }
+
+    public String[] getSensorNames() {
+        return sensorNames.clone();
+    }
+
+    public int getSensorCount() {
+        return sensorNames.length;
+    }
+
+    public int getSensorIndex(String sensor) {
+        return indexOf(sensorNames, sensor);
+    }
+
+    public boolean isLocated(int sensor) {
+        return located[sensor];
+    }
+
+    public double getLatitude(int sensor) {
+        return latitudes[sensor];
+    }
+
+    public double getLongitude(int sensor) {
+        return longitudes[sensor];
+    }
+
+    /**
+     * Metres east of the origin, NaN if the sensor has no location.
+     */
+    public double getX(int sensor) {
+        return x[sensor];
+    }
+
+    /**
+     * Metres north of the origin, NaN if the sensor has no location.
+     */
+    public double getY(int sensor) {
+        return y[sensor];
+    }
+
+    public double toX(double longitude) {
+        return (longitude - originLongitude) * metresPerDegreeLongitude;
+    }
+
+    public double toY(double latitude) {
+        return (latitude - originLatitude) * metresPerDegreeLatitude;
+    }
+
+    public double toLongitude(double x) {
+        return originLongitude + x / metresPerDegreeLongitude;
+    }
+
+    public double toLatitude(double y) {
+        return originLatitude + y / metresPerDegreeLatitude;
+    }
+}
@@ -0,0 +1,149 @@
+package com.timgrunshaw.ftprediction.spatial;
+
+import com.timgrunshaw.ftprediction.data.SensorColumns;
+
+/**
+ * An exponential semivariogram, how different the counts of two places are
+ * expected to be given the distance between them:
+ * gamma(h) = nugget + partialSill * (1 - exp(-h / range)) for h &gt; 0, and 0
+ * at h = 0.
+ *
+ * @author Tim Grunshaw
+ */
+public class Variogram {
+
+    private static final double MIN_RANGE_METRES = 25;
+    private static final double MAX_RANGE_METRES = 10000;
+    private static final int RANGE_STEPS = 60;
+
+    private final double nugget;
+    private final double partialSill;
+    private final double range;
+
+    public Variogram(double nugget, double partialSill, double range) {
+        if (nugget < 0 || partialSill <= 0 || range <= 0) {
+            throw new IllegalArgumentException("Invalid variogram: nugget " + nugget
+                    + ", partial sill " + partialSill + ", range " + range);
+        }
+        this.nugget = nugget;
+        this.partialSill = partialSill;
+        this.range = range;
+    }
+
+    public double getNugget() {
+        return nugget;
+    }
+
+    public double getPartialSill() {
+        return partialSill;
+    }
+
+    public double getRange() {
+        return range;
+    }
+
+    public double semivariance(double metres) {
+        return metres <= 0 ? 0 : nugget + partialSill * (1 - Math.exp(-metres / range));
+    }
+
+    /**
+     * Fits a variogram to the sensor counts over a range of hours. Every pair
+     * of located sensors gives one point, half the mean squared difference of
+     * their counts in the hours where neither is missing. The range is found
+     * by a search over a log scale, with the nugget and sill fitted by least
+     * squares for each range.
+     * @param locations
+     * @param columns
+     * @param fromHour - hour index, inclusive
+     * @param toHour - exclusive
+     * @return
+     */
+    public static Variogram fit(SensorLocations locations, SensorColumns columns, int fromHour, int toHour) {
+        int sensors = locations.getSensorCount();
+        int[] column = new int[sensors];
+        for (int s = 0; s < sensors; s++) {
+            column[s] = locations.isLocated(s) ? columns.getSensorIndex(locations.getSensorNames()[s]) : -1;
+        }
+        int from = Math.max(0, fromHour - columns.getFirstHour());
+        int to = Math.min(columns.getHours(), toHour - columns.getFirstHour());
+        if (to <= from) {
+            throw new IllegalArgumentException("No data in the hours to fit the variogram to");
+        }
+
+        int pairs = 0;
+        double[] distance = new double[sensors * (sensors - 1) / 2];
+        double[] gamma = new double[distance.length];
+        for (int i = 0; i < sensors; i++) {
+            for (int j = i + 1; j < sensors; j++) {
+                if (column[i] < 0 || column[j] < 0) {
+                    continue;
+                }
+                int[] a = columns.getColumn(column[i]);
+                int[] b = columns.getColumn(column[j]);
+                double sum = 0;
+                int n = 0;
+                for (int row = from; row < to; row++) {
+                    if (!columns.isMissing(column[i], row) && !columns.isMissing(column[j], row)) {
+                        double d = a[row] - b[row];
+                        sum += d * d;
+                        n++;
+                    }
+                }
+                if (n > 0) {
+                    double dx = locations.getX(i) - locations.getX(j);
+                    double dy = locations.getY(i) - locations.getY(j);
+                    distance[pairs] = Math.sqrt(dx * dx + dy * dy);
+                    gamma[pairs++] = sum / (2 * n);
+                }
+            }
+        }
+        if (pairs < 2) {
+            throw new IllegalArgumentException("Need at least 3 located sensors with data to fit a variogram");
+        }
+
+        Variogram best = null;
+        double bestError = Double.POSITIVE_INFINITY;
+        for (int step = 0; step <= RANGE_STEPS; step++) {
+            double range = MIN_RANGE_METRES * Math.pow(MAX_RANGE_METRES / MIN_RANGE_METRES, (double) step / RANGE_STEPS);
+            Variogram candidate = fitSill(distance, gamma, pairs, range);
+            double error = 0;
+            for (int p = 0; p < pairs; p++) {
+                double e = candidate.semivariance(distance[p]) - gamma[p];
+                error += e * e;
+            }
+            if (error < bestError) {
+                bestError = error;
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Least squares gamma = nugget + sill * f, f = 1 - exp(-h / range), with
+     * nugget &gt;= 0 and sill &gt; 0.
+     */
+    private static Variogram fitSill(double[] distance, double[] gamma, int pairs, double range) {
+        double sf = 0, sff = 0, sg = 0, sfg = 0;
+        for (int p = 0; p < pairs; p++) {
+            double f = 1 - Math.exp(-distance[p] / range);
+            sf += f;
+            sff += f * f;
+            sg += gamma[p];
+            sfg += f * gamma[p];
+        }
+        double det = pairs * sff - sf * sf;
+        double sill = det > 0 ? (pairs * sfg - sf * sg) / det : 0;
+        double nugget = (sg - sill * sf) / pairs;
+        if (nugget < 0) {
+            nugget = 0;
+            sill = sfg / sff;
+        }
+        if (sill <= 0) {
+            // No spatial structure at this range: all nugget.
+            sill = Math.max(1e-9, sg / pairs * 1e-6);
+            nugget = Math.max(0, sg / pairs - sill);
+        }
+        return new Variogram(nugget, sill, range);
+    }
+}
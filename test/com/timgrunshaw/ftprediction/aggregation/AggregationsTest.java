@@ -0,0 +1,147 @@
+package com.timgrunshaw.ftprediction.aggregation;
+
+import com.timgrunshaw.ftprediction.data.Bitmaps;
+import com.timgrunshaw.ftprediction.data.HourIndex;
+import com.timgrunshaw.ftprediction.data.Melbourne;
+import com.timgrunshaw.ftprediction.data.Sensor;
+import com.timgrunshaw.ftprediction.data.SensorColumns;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Checks the kernels against plain loops, and reports their speed against the
+ * boxed TreeMap path (Melbourne.getCountOfAllSensors).
+ *
+ * @author Tim Grunshaw
+ */
+public class AggregationsTest {
+
+    private static final LocalDate FIRST_DAY = LocalDate.of(2014, 3, 5);
+    private static final int DAYS = 365;
+    private static final int HOURS = DAYS * 24;
+
+    private Melbourne melbourne;
+    private SensorColumns columns;
+
+    @Before
+    public void setUp() {
+        melbourne = new Melbourne();
+        Random random = new Random(11);
+        for (String name : melbourne.getSensorNames()) {
+            Sensor sensor = melbourne.getSensor(name);
+            LocalDateTime hour = FIRST_DAY.atStartOfDay();
+            for (int i = 0; i < HOURS; i++) {
+                if (random.nextInt(50) == 0) {
+                    sensor.setMissing(hour);
+                } else {
+                    sensor.setCount(hour, random.nextInt(3000));
+                }
+                hour = hour.plusHours(1);
+            }
+        }
+        columns = melbourne.toColumns();
+    }
+
+    @Test
+    public void testMaskedSum() {
+        int[] column = columns.getColumn(4);
+        long[] missing = columns.getMissing(4);
+        for (int[] range : new int[][]{{0, HOURS}, {3, 1000}, {64, 128}, {70, 71}}) {
+            long expected = 0;
+            int present = 0;
+            for (int i = range[0]; i < range[1]; i++) {
+                if (!Bitmaps.get(missing, i)) {
+                    expected += column[i];
+                    present++;
+                }
+            }
+            Assert.assertEquals(expected, Aggregations.maskedSum(column, missing, range[0], range[1]));
+            Assert.assertEquals(present, Aggregations.presentCount(missing, range[0], range[1]));
+        }
+        Assert.assertEquals(Aggregations.sum(column, 0, HOURS), Aggregations.maskedSum(column, null, 0, HOURS));
+    }
+
+    @Test
+    public void testMaxAndCountAbove() {
+        int[] column = {5, -2, 17, 3, 17, 0, 9};
+        Assert.assertEquals(17, Aggregations.max(column, 0, column.length));
+        Assert.assertEquals(5, Aggregations.max(column, 0, 2));
+        Assert.assertEquals(3, Aggregations.countAbove(column, 5, 0, column.length));
+        Assert.assertEquals(7, Aggregations.countAbove(column, Integer.MIN_VALUE, 0, column.length));
+    }
+
+    @Test
+    public void testRowTotals() {
+        long[] totals = new long[48];
+        Aggregations.rowTotals(columns, 100, 148, totals);
+        for (int i = 0; i < 48; i++) {
+            LocalDateTime hour = HourIndex.toDateTime(columns.getFirstHour() + 100 + i);
+            Assert.assertEquals(melbourne.getCountOfAllSensors(hour), totals[i]);
+        }
+    }
+
+    @Test
+    public void testHourOfWeekSums() {
+        int[] column = columns.getColumn(0);
+        long[] buckets = new long[HourIndex.HOURS_PER_WEEK];
+        Aggregations.hourOfWeekSums(column, columns.getFirstHour(), 5, HOURS - 7, buckets);
+        long[] expected = new long[HourIndex.HOURS_PER_WEEK];
+        for (int i = 5; i < HOURS - 7; i++) {
+            expected[HourIndex.hourOfWeek(columns.getFirstHour() + i)] += column[i];
+        }
+        Assert.assertArrayEquals(expected, buckets);
+    }
+
+    @Test
+    public void testCityTotalsOfAYear() {
+        long[] totals = new long[HOURS];
+        Aggregations.rowTotals(columns, 0, HOURS, totals);
+        LocalDateTime hour = FIRST_DAY.atStartOfDay();
+        for (int i = 0; i < HOURS; i++) {
+            Assert.assertEquals(melbourne.getCountOfAllSensors(hour), totals[i]);
+            hour = hour.plusHours(1);
+        }
+    }
+
+    @Ignore("Benchmark, run by hand")
+    @Test
+    public void benchmarkCityTotalThroughput() {
+        long[] totals = new long[HOURS];
+        long kernelNanos = Long.MAX_VALUE;
+        long treeMapNanos = Long.MAX_VALUE;
+        long scalarNanos = Long.MAX_VALUE;
+        long check = 0;
+        for (int rep = 0; rep < 20; rep++) {
+            long start = System.nanoTime();
+            Aggregations.rowTotals(columns, 0, HOURS, totals);
+            kernelNanos = Math.min(kernelNanos, System.nanoTime() - start);
+
+            // Row at a time over the columns.
+            start = System.nanoTime();
+            for (int i = 0; i < HOURS; i++) {
+                int total = 0;
+                for (int s = 0; s < columns.getSensorCount(); s++) {
+                    total += columns.getColumn(s)[i];
+                }
+                check += total;
+            }
+            scalarNanos = Math.min(scalarNanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            LocalDateTime hour = FIRST_DAY.atStartOfDay();
+            for (int i = 0; i < HOURS; i++) {
+                check -= melbourne.getCountOfAllSensors(hour);
+                hour = hour.plusHours(1);
+            }
+            treeMapNanos = Math.min(treeMapNanos, System.nanoTime() - start);
+        }
+        Assert.assertEquals(0, check);
+        System.out.println(String.format("City totals for %d hours: kernel %.2f ms, row scalar %.2f ms, TreeMap %.2f ms",
+                HOURS, kernelNanos / 1e6, scalarNanos / 1e6, treeMapNanos / 1e6));
+    }
+}
@@ -0,0 +1,174 @@
+package com.timgrunshaw.ftprediction.archive;
+
+import com.timgrunshaw.ftprediction.data.Bitmaps;
+import com.timgrunshaw.ftprediction.data.HourIndex;
+import com.timgrunshaw.ftprediction.data.Melbourne;
+import com.timgrunshaw.ftprediction.data.SensorColumns;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Uses two years of synthetic data for 37 sensors: a daily and weekly
+ * pattern with noise, a sensor that is offline for months, and some N/A hours.
+ *
+ * @author Tim Grunshaw
+ */
+public class SensorArchiveTest {
+
+    private static final int SENSORS = 37;
+    private static final int HOURS = 2 * 365 * 24;
+
+    // Size of one day CSV file as downloaded (see test resources).
+    private static final int DAY_CSV_BYTES = 13933;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private SensorColumns columns;
+
+    @Before
+    public void setUp() {
+        Random random = new Random(3);
+        int firstHour = HourIndex.of(LocalDate.of(2013, 10, 9));
+        int[][] counts = new int[SENSORS][HOURS];
+        long[][] missing = new long[SENSORS][Bitmaps.length(HOURS)];
+        for (int s = 0; s < SENSORS; s++) {
+            int scale = 50 + random.nextInt(2000);
+            for (int i = 0; i < HOURS; i++) {
+                int hourOfDay = HourIndex.hourOfDay(firstHour + i);
+                boolean weekend = HourIndex.dayOfWeek(firstHour + i) >= 5;
+                double shape = Math.max(0, Math.sin(Math.PI * (hourOfDay - 5) / 19.0));
+                double level = scale * shape * (weekend ? 0.6 : 1.0);
+                counts[s][i] = (int) Math.max(0, level + random.nextGaussian() * Math.sqrt(level + 1));
+            }
+        }
+        // Offline sensor for 4 months, and a day of N/A readings.
+        Arrays.fill(counts[30], 0, 120 * 24, 0);
+        Bitmaps.setRange(missing[5], 1000, 1024);
+        Arrays.fill(counts[5], 1000, 1024, 0);
+        columns = new SensorColumns(new Melbourne().getSensorNames(), firstHour, counts, missing);
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        SensorArchive archive = SensorArchive.of(columns);
+        Path file = tempFolder.newFile().toPath();
+        archive.write(file);
+        SensorColumns read = SensorArchive.read(file).toColumns();
+
+        Assert.assertEquals(columns.getFirstHour(), read.getFirstHour());
+        for (int s = 0; s < SENSORS; s++) {
+            Assert.assertArrayEquals(columns.getColumn(s), read.getColumn(s));
+            Assert.assertArrayEquals(columns.getMissing(s), read.getMissing(s));
+        }
+
+        long rawIntBytes = 4L * SENSORS * HOURS;
+        long dayCsvBytes = (long) DAY_CSV_BYTES * HOURS / 24;
+        assert Files.size(file) * 10 < dayCsvBytes : "Archive is not 10x smaller than the day CSV files";
+        assert archive.getCompressedSize() < rawIntBytes / 2 : "Archive is not 2x smaller than int[]";
+    }
+
+    @Test
+    public void testRangeDecode() {
+        CompressedSeries series = CompressedSeries.encode(columns.getFirstHour(), columns.getColumn(5), columns.getMissing(5));
+        int from = CompressedSeries.BLOCK_HOURS - 10;
+        int to = 2 * CompressedSeries.BLOCK_HOURS + 400;
+        int[] counts = new int[to - from];
+        long[] missing = new long[Bitmaps.length(to - from)];
+        series.decode(from, to, counts, missing);
+        for (int i = 0; i < counts.length; i++) {
+            Assert.assertEquals(columns.getColumn(5)[from + i], counts[i]);
+            Assert.assertEquals(columns.isMissing(5, from + i), Bitmaps.get(missing, i));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecodeBlockChecksTheMissingLength() {
+        CompressedSeries series = CompressedSeries.encode(columns.getFirstHour(), columns.getColumn(5), columns.getMissing(5));
+        series.decodeBlock(0, new int[CompressedSeries.BLOCK_HOURS], new long[CompressedSeries.BLOCK_HOURS / 64]);
+    }
+
+    @Test
+    public void testBlockScan() {
+        CompressedSeries[] series = encodeAll();
+        int[] block = new int[CompressedSeries.BLOCK_HOURS];
+        for (int s = 0; s < SENSORS; s++) {
+            Assert.assertEquals(sumColumn(s), sumBlocks(series[s], block));
+        }
+    }
+
+    /**
+     * Compares scanning every block of the archive to scanning the raw columns.
+     */
+    @Ignore("Benchmark, run by hand")
+    @Test
+    public void benchmarkDecodeThroughput() throws IOException {
+        SensorArchive archive = SensorArchive.of(columns);
+        Path file = tempFolder.newFile().toPath();
+        archive.write(file);
+        System.out.println("SensorArchive: " + archive.getCompressedSize() + " bytes in memory, "
+                + Files.size(file) + " on disk, raw int[] " + 4L * SENSORS * HOURS
+                + ", day CSVs " + (long) DAY_CSV_BYTES * HOURS / 24);
+
+        CompressedSeries[] series = encodeAll();
+        int[] block = new int[CompressedSeries.BLOCK_HOURS];
+        long rawNanos = Long.MAX_VALUE;
+        long decodeNanos = Long.MAX_VALUE;
+        for (int rep = 0; rep < 20; rep++) {
+            long start = System.nanoTime();
+            long expected = 0;
+            for (int s = 0; s < SENSORS; s++) {
+                expected += sumColumn(s);
+            }
+            rawNanos = Math.min(rawNanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            long sum = 0;
+            for (CompressedSeries cs : series) {
+                sum += sumBlocks(cs, block);
+            }
+            decodeNanos = Math.min(decodeNanos, System.nanoTime() - start);
+            Assert.assertEquals(expected, sum);
+        }
+        double values = (double) SENSORS * HOURS;
+        System.out.println(String.format("SensorArchive scan: raw int[] %.0f M values/s, compressed %.0f M values/s",
+                values / rawNanos * 1000, values / decodeNanos * 1000));
+    }
+
+    private CompressedSeries[] encodeAll() {
+        CompressedSeries[] series = new CompressedSeries[SENSORS];
+        for (int s = 0; s < SENSORS; s++) {
+            series[s] = CompressedSeries.encode(columns.getFirstHour(), columns.getColumn(s), columns.getMissing(s));
+        }
+        return series;
+    }
+
+    private long sumColumn(int sensor) {
+        long sum = 0;
+        for (int v : columns.getColumn(sensor)) {
+            sum += v;
+        }
+        return sum;
+    }
+
+    private static long sumBlocks(CompressedSeries series, int[] block) {
+        long sum = 0;
+        for (int b = 0; b < series.getBlockCount(); b++) {
+            int length = series.decodeBlock(b, block, null);
+            for (int i = 0; i < length; i++) {
+                sum += block[i];
+            }
+        }
+        return sum;
+    }
+}
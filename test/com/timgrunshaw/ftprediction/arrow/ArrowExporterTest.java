@@ -0,0 +1,91 @@
+package com.timgrunshaw.ftprediction.arrow;
+
+import com.timgrunshaw.ftprediction.archive.SensorArchive;
+import com.timgrunshaw.ftprediction.data.Bitmaps;
+import com.timgrunshaw.ftprediction.data.HourIndex;
+import com.timgrunshaw.ftprediction.data.Melbourne;
+import com.timgrunshaw.ftprediction.data.SensorColumns;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author Tim Grunshaw
+ */
+public class ArrowExporterTest {
+
+    private static final int HOURS = 1000;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private SensorColumns columns;
+
+    @Before
+    public void setUp() {
+        String[] names = new Melbourne().getSensorNames();
+        Random random = new Random(5);
+        int[][] counts = new int[names.length][HOURS];
+        long[][] missing = new long[names.length][Bitmaps.length(HOURS)];
+        for (int s = 0; s < names.length; s++) {
+            for (int i = 0; i < HOURS; i++) {
+                if (random.nextInt(20) == 0) {
+                    Bitmaps.set(missing[s], i);
+                } else {
+                    counts[s][i] = random.nextInt(5) == 0 ? 0 : random.nextInt(4000);
+                }
+            }
+        }
+        columns = new SensorColumns(names, HourIndex.of(LocalDate.of(2015, 3, 1)), counts, missing);
+    }
+
+    private void assertSameColumns(SensorColumns expected, SensorColumns actual) {
+        Assert.assertEquals(expected.getFirstHour(), actual.getFirstHour());
+        Assert.assertEquals(expected.getHours(), actual.getHours());
+        Assert.assertArrayEquals(expected.getSensorNames(), actual.getSensorNames());
+        for (int s = 0; s < expected.getSensorCount(); s++) {
+            Assert.assertArrayEquals(expected.getColumn(s), actual.getColumn(s));
+            Assert.assertArrayEquals(expected.getMissing(s), actual.getMissing(s));
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        Path file = tempFolder.newFile("melbourne.arrow").toPath();
+        // Several batches, the last one partial.
+        ArrowExporter.write(columns, file, 300);
+
+        byte[] bytes = Files.readAllBytes(file);
+        Assert.assertEquals("ARROW1", new String(bytes, 0, 6, "US-ASCII"));
+        Assert.assertEquals(0, bytes.length % 2);
+        assertSameColumns(columns, ArrowImporter.read(file));
+    }
+
+    @Test
+    public void testArchiveExport() throws IOException {
+        Path file = tempFolder.newFile("archive.arrow").toPath();
+        ArrowExporter.write(SensorArchive.of(columns), file, 128);
+        assertSameColumns(columns, ArrowImporter.read(file));
+    }
+
+    @Test
+    public void testMelbourneRoundTrip() throws IOException {
+        Melbourne melbourne = Melbourne.fromColumns(columns);
+        Path file = tempFolder.newFile("melbourne.arrow").toPath();
+        melbourne.writeArrow(file);
+        Melbourne read = Melbourne.readArrow(file);
+
+        LocalDateTime hour = HourIndex.toDateTime(columns.getFirstHour() + 17);
+        Assert.assertEquals(columns.getColumn(14)[17], read.getSensor("Princes Bridge").getCount(hour));
+        Assert.assertEquals(columns.isMissing(14, 17), read.getSensor("Princes Bridge").isMissing(hour));
+    }
+}
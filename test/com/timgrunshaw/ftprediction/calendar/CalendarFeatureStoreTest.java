@@ -0,0 +1,100 @@
+package com.timgrunshaw.ftprediction.calendar;
+
+import com.timgrunshaw.ftprediction.data.HourIndex;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.Month;
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author Tim Grunshaw
+ */
+public class CalendarFeatureStoreTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testHourIndex() {
+        LocalDateTime hour = LocalDateTime.of(2015, 3, 17, 7, 0); // Tuesday
+        int index = HourIndex.of(hour);
+        Assert.assertEquals(hour, HourIndex.toDateTime(index));
+        Assert.assertEquals(7, HourIndex.hourOfDay(index));
+        Assert.assertEquals(1, HourIndex.dayOfWeek(index));
+        Assert.assertEquals(24 + 7, HourIndex.hourOfWeek(index));
+    }
+
+    @Test
+    public void testPublicHolidays() {
+        Assert.assertEquals(LocalDate.of(2015, Month.APRIL, 5), VictorianHolidays.easterSunday(2015));
+        assert VictorianHolidays.isPublicHoliday(LocalDate.of(2015, Month.MARCH, 9)); // Labour Day
+        assert VictorianHolidays.isPublicHoliday(LocalDate.of(2015, Month.NOVEMBER, 3)); // Melbourne Cup
+        assert VictorianHolidays.isPublicHoliday(LocalDate.of(2015, Month.DECEMBER, 28)); // Boxing Day substitute
+        assert !VictorianHolidays.isPublicHoliday(LocalDate.of(2015, Month.MARCH, 17));
+    }
+
+    @Test
+    public void testPackedFeatures() throws IOException {
+        Path eventFile = tempFolder.newFile("events.csv").toPath();
+        Files.write(eventFile, Arrays.asList(
+                "# name,start,end",
+                "St Patrick's Day,2015-03-17T18:00,2015-03-17T22:00"));
+        EventCalendar events = EventCalendar.load(eventFile);
+
+        CalendarFeatureStore store = new CalendarFeatureStore(
+                LocalDate.of(2015, 3, 9), LocalDate.of(2015, 3, 19), events);
+
+        long labourDay = store.getPacked(HourIndex.of(LocalDateTime.of(2015, 3, 9, 10, 0)));
+        assert CalendarFeatureStore.isPublicHoliday(labourDay);
+        Assert.assertEquals(0, CalendarFeatureStore.dayOfWeek(labourDay));
+        Assert.assertEquals(10, CalendarFeatureStore.hourOfDay(labourDay));
+        Assert.assertEquals(2, CalendarFeatureStore.month(labourDay));
+
+        long eventHour = store.getPacked(HourIndex.of(LocalDateTime.of(2015, 3, 17, 19, 0)));
+        Assert.assertEquals(1, CalendarFeatureStore.eventMask(eventHour));
+        assert CalendarFeatureStore.isSchoolTerm(eventHour);
+        long afterEvent = store.getPacked(HourIndex.of(LocalDateTime.of(2015, 3, 17, 22, 0)));
+        Assert.assertEquals(0, CalendarFeatureStore.eventMask(afterEvent));
+    }
+
+    @Test
+    public void testMaterialize() {
+        CalendarFeatureStore store = new CalendarFeatureStore(
+                LocalDate.of(2015, 3, 14), LocalDate.of(2015, 3, 16), new EventCalendar());
+        int from = HourIndex.of(LocalDateTime.of(2015, 3, 14, 22, 0)); // Saturday
+        double[] matrix = new double[3 * CalendarFeatureStore.FEATURE_COUNT];
+        Arrays.fill(matrix, -1.0);
+
+        int rows = store.materialize(from, from + 3, matrix, 0);
+        Assert.assertEquals(3, rows);
+
+        // Third row is Sunday at midnight.
+        int row = 2 * CalendarFeatureStore.FEATURE_COUNT;
+        Assert.assertEquals(1.0, matrix[row + CalendarFeatureStore.COL_HOUR_OF_DAY], 0.0);
+        Assert.assertEquals(1.0, matrix[row + CalendarFeatureStore.COL_DAY_OF_WEEK + 6], 0.0);
+        Assert.assertEquals(1.0, matrix[row + CalendarFeatureStore.COL_WEEKEND], 0.0);
+        Assert.assertEquals(0.0, matrix[row + CalendarFeatureStore.COL_SCHOOL_TERM], 0.0);
+        double rowSum = 0;
+        for (int i = row; i < row + CalendarFeatureStore.FEATURE_COUNT; i++) {
+            rowSum += matrix[i];
+        }
+        Assert.assertEquals(3.0, rowSum, 0.0);
+
+        // An empty range at the end is allowed, the end hour itself is not.
+        Assert.assertEquals(0, store.materialize(store.getEndHour(), store.getEndHour(), matrix, 0));
+        try {
+            store.getPacked(store.getEndHour());
+            Assert.fail("The end hour is outside of the store");
+        } catch (IllegalArgumentException iaEx) {
+            // Expected
+        }
+    }
+}
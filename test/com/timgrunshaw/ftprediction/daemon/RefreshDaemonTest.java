@@ -0,0 +1,152 @@
+package com.timgrunshaw.ftprediction.daemon;
+
+import com.timgrunshaw.ftprediction.daemon.StageTimings.Stage;
+import com.timgrunshaw.ftprediction.dataretrieval.MelbourneDataSource;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Runs the daemon offline: day files are copied into its folder by the test
+ * instead of being downloaded.
+ *
+ * @author Tim Grunshaw
+ */
+public class RefreshDaemonTest {
+
+    final String RESOURCE_DIRECTORY = "test/resources/melbourneTest/csv_files";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private RefreshDaemon daemon;
+
+    @Before
+    public void setUp() throws IOException {
+        MelbourneDataSource melbourneDS = new MelbourneDataSource();
+        melbourneDS.setOutputDirectory(tempFolder.getRoot().getCanonicalPath());
+        copyDay("17-03-2015.csv");
+        daemon = new RefreshDaemon(melbourneDS);
+        daemon.setDownloadEnabled(false);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        Assert.assertTrue(daemon.shutdown(10, TimeUnit.SECONDS));
+    }
+
+    private void copyDay(String fileName) throws IOException {
+        Files.copy(Paths.get(RESOURCE_DIRECTORY, fileName), tempFolder.getRoot().toPath().resolve(fileName));
+    }
+
+    @Test
+    public void testRefreshIngestsOnlyNewDays() throws IOException {
+        daemon.load();
+        DerivedAggregates first = daemon.getPublished();
+        Assert.assertEquals(1, first.getSnapshot().getDayCount());
+        Assert.assertEquals(0, daemon.refreshNow());
+        Assert.assertSame(first, daemon.getPublished());
+
+        copyDay("18-03-2015.csv");
+        Assert.assertEquals(1, daemon.refreshNow());
+        DerivedAggregates second = daemon.getPublished();
+        Assert.assertEquals(2, second.getSnapshot().getDayCount());
+        Assert.assertEquals(1081, second.getSnapshot().getCount("Birrarung Marr", LocalDateTime.of(2015, 3, 18, 17, 0)));
+
+        // Wednesday 5pm, only one Wednesday so far. Tuesday 7am from the first load.
+        Assert.assertEquals(1081, second.getHourOfWeekMean("Birrarung Marr", 2 * 24 + 17), 0.0);
+        Assert.assertEquals(46, second.getHourOfWeekMean("Waterfront City", 1 * 24 + 7), 0.0);
+
+        // The earlier publication is unchanged.
+        Assert.assertEquals(1, first.getSnapshot().getDayCount());
+        Assert.assertEquals(1, daemon.getTimings().getRuns(Stage.LOAD));
+        Assert.assertEquals(2, daemon.getTimings().getRuns(Stage.INGEST));
+        Assert.assertEquals(1, daemon.getTimings().getRuns(Stage.PUBLISH));
+        Assert.assertTrue(Files.exists(tempFolder.getRoot().toPath().resolve("sketches.kll")));
+    }
+
+    @Test
+    public void testMeansLeaveOutMissingHoursAndDays() throws IOException {
+        daemon.load();
+        // 25-03-2015 is the next Wednesday, with Birrarung Marr N/A at 5pm.
+        List<String> lines = Files.readAllLines(Paths.get(RESOURCE_DIRECTORY, "18-03-2015.csv"), StandardCharsets.UTF_8);
+        lines.set(26, lines.get(26).replace(",1081,", ",N/A,"));
+        lines.set(46, lines.get(46).replace(",57927,", "," + (57927 - 1081) + ","));
+        Files.write(tempFolder.getRoot().toPath().resolve("25-03-2015.csv"), lines, StandardCharsets.UTF_8);
+        Assert.assertEquals(1, daemon.refreshNow());
+        DerivedAggregates published = daemon.getPublished();
+        Assert.assertEquals(0, published.getHourOfWeekMean("Birrarung Marr", 2 * 24 + 17), 0.0);
+        Assert.assertEquals(1245, published.getHourOfWeekMean("Birrarung Marr", 2 * 24 + 18), 0.0);
+        Assert.assertEquals(46, published.getHourOfWeekMean("Waterfront City", 1 * 24 + 7), 0.0);
+
+        // The skipped Wednesday is counted once its file arrives.
+        copyDay("18-03-2015.csv");
+        Assert.assertEquals(1, daemon.refreshNow());
+        published = daemon.getPublished();
+        Assert.assertEquals(1081, published.getHourOfWeekMean("Birrarung Marr", 2 * 24 + 17), 0.0);
+        Assert.assertEquals(1245, published.getHourOfWeekMean("Birrarung Marr", 2 * 24 + 18), 0.0);
+    }
+
+    @Test
+    public void testScheduledRefreshAndStatus() throws Exception {
+        daemon.start(20, TimeUnit.MILLISECONDS);
+        int port = daemon.startStatusServer(0);
+        Assert.assertEquals("OK\n", get(port, "/health", 200));
+
+        copyDay("18-03-2015.csv");
+        long deadline = System.currentTimeMillis() + 10000;
+        while (daemon.getPublished().getSnapshot().getDayCount() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(2, daemon.getPublished().getSnapshot().getDayCount());
+
+        String status = get(port, "/status", 200);
+        Assert.assertTrue(status, status.contains("healthy=true"));
+        Assert.assertTrue(status, status.contains("snapshot.lastDay=2015-03-18"));
+        Assert.assertTrue(status, status.contains("stage.ingest runs="));
+
+        // A broken day file is quarantined; the daemon stays healthy and the
+        // last good data stays published.
+        Path broken = tempFolder.getRoot().toPath().resolve("19-03-2015.csv");
+        Files.write(broken, "not a Melbourne file\n".getBytes(StandardCharsets.UTF_8));
+        deadline = System.currentTimeMillis() + 10000;
+        while (Files.exists(broken) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertFalse(Files.exists(broken));
+        Assert.assertEquals("OK\n", get(port, "/health", 200));
+        Assert.assertEquals(2, daemon.getPublished().getSnapshot().getDayCount());
+        Assert.assertEquals(0, daemon.getTimings().getFailures(Stage.INGEST));
+        status = get(port, "/status", 200);
+        Assert.assertTrue(status, status.contains("quarantined.lastIngest=1"));
+    }
+
+    private static String get(int port, String path, int expectedCode) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + path).openConnection();
+        Assert.assertEquals(expectedCode, connection.getResponseCode());
+        InputStream in = expectedCode < 400 ? connection.getInputStream() : connection.getErrorStream();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        in.close();
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,220 @@
+package com.timgrunshaw.ftprediction.data;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Every count of a test day is the number of days since FIRST_DAY, so a
+ * reader can check that any snapshot it sees is consistent.
+ *
+ * @author Tim Grunshaw
+ */
+public class LiveMelbourneTest {
+
+    private static final LocalDate FIRST_DAY = LocalDate.of(2014, 1, 1);
+    private static final int INITIAL_DAYS = 60;
+    private static final long READ_MILLIS = 200;
+    private static final long BENCHMARK_READ_MILLIS = 2000;
+    // Readers must keep at least this share of their idle throughput during ingest.
+    private static final double MIN_INGEST_READ_RATIO = 0.25;
+
+    private String[] sensorNames;
+    private LiveMelbourne live;
+
+    @Before
+    public void setUp() {
+        sensorNames = new Melbourne().getSensorNames();
+        live = new LiveMelbourne(sensorNames);
+        for (int d = 0; d < INITIAL_DAYS; d++) {
+            live.appendDay(FIRST_DAY.plusDays(d), dayCounts(d));
+        }
+    }
+
+    private int[][] dayCounts(int value) {
+        int[][] counts = new int[sensorNames.length][24];
+        for (int[] sensor : counts) {
+            Arrays.fill(sensor, value);
+        }
+        return counts;
+    }
+
+    @Test
+    public void testSnapshotIsImmutable() {
+        MelbourneSnapshot before = live.snapshot();
+        live.appendDay(FIRST_DAY.plusDays(INITIAL_DAYS + 2), dayCounts(INITIAL_DAYS + 2));
+        MelbourneSnapshot after = live.snapshot();
+
+        Assert.assertEquals(INITIAL_DAYS, before.getDayCount());
+        Assert.assertEquals(INITIAL_DAYS + 3, after.getDayCount());
+        Assert.assertEquals(before.getEpoch() + 1, after.getEpoch());
+
+        // The skipped day reads as zero.
+        int skipped = HourIndex.of(FIRST_DAY.plusDays(INITIAL_DAYS)) + 12;
+        Assert.assertEquals(0, after.getCount(0, skipped));
+        Assert.assertEquals(INITIAL_DAYS + 2, after.toColumns().getColumn(3)[(INITIAL_DAYS + 2) * 24 + 5]);
+    }
+
+    @Test
+    public void testMissingHoursAndDays() {
+        int[][] counts = dayCounts(INITIAL_DAYS);
+        long[][] missing = new long[sensorNames.length][Bitmaps.length(24)];
+        Bitmaps.set(missing[2], 7);
+        live.appendDay(FIRST_DAY.plusDays(INITIAL_DAYS), counts, missing);
+        // A day with no reading at all is not appended.
+        for (long[] sensor : missing) {
+            Bitmaps.setRange(sensor, 0, 24);
+        }
+        MelbourneSnapshot before = live.snapshot();
+        Assert.assertSame(before, live.appendDay(FIRST_DAY.plusDays(INITIAL_DAYS + 1), counts, missing));
+
+        int day = HourIndex.of(FIRST_DAY.plusDays(INITIAL_DAYS));
+        Assert.assertTrue(before.isMissing(2, day + 7));
+        Assert.assertFalse(before.isMissing(2, day + 8));
+        Assert.assertFalse(before.isMissing(3, day + 7));
+        SensorColumns columns = before.toColumns();
+        Assert.assertTrue(columns.isMissing(2, day + 7 - columns.getFirstHour()));
+        Assert.assertFalse(columns.isMissing(2, day + 6 - columns.getFirstHour()));
+
+        // Loading from a Melbourne leaves out days and hours without readings.
+        Melbourne melbourne = new Melbourne();
+        LocalDateTime hour = FIRST_DAY.atStartOfDay();
+        for (int h = 0; h < 3 * 24; h++, hour = hour.plusHours(1)) {
+            for (String name : sensorNames) {
+                if (h >= 24 && h < 48 || (h == 5 && name.equals(sensorNames[1]))) {
+                    melbourne.getSensor(name).setMissing(hour);
+                } else {
+                    melbourne.getSensor(name).setCount(hour, 10);
+                }
+            }
+        }
+        MelbourneSnapshot loaded = LiveMelbourne.from(melbourne).snapshot();
+        int first = HourIndex.of(FIRST_DAY);
+        Assert.assertEquals(3, loaded.getDayCount());
+        Assert.assertTrue(loaded.hasData(first));
+        Assert.assertFalse(loaded.hasData(first + 24));
+        Assert.assertTrue(loaded.isMissing(1, first + 5));
+        Assert.assertFalse(loaded.isMissing(0, first + 5));
+        Assert.assertTrue(loaded.hasData(first + 48));
+    }
+
+    @Test
+    public void testSkippedDayCanBeFilledIn() {
+        live.appendDay(FIRST_DAY.plusDays(INITIAL_DAYS + 2), dayCounts(INITIAL_DAYS + 2));
+        int skipped = HourIndex.of(FIRST_DAY.plusDays(INITIAL_DAYS));
+        Assert.assertFalse(live.snapshot().hasData(skipped));
+        live.appendDay(FIRST_DAY.plusDays(INITIAL_DAYS), dayCounts(INITIAL_DAYS));
+        Assert.assertTrue(live.snapshot().hasData(skipped));
+        Assert.assertEquals(INITIAL_DAYS, live.snapshot().getCount(0, skipped));
+        Assert.assertEquals(INITIAL_DAYS + 3, live.snapshot().getDayCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAppendBeforeLastDay() {
+        live.appendDay(FIRST_DAY.plusDays(10), dayCounts(10));
+    }
+
+    /**
+     * Readers keep querying while a writer ingests days. Every read must see
+     * a consistent snapshot, and readers must not be held up by the writer.
+     */
+    @Test
+    public void testReadThroughputUnderIngest() throws InterruptedException {
+        runReaders(false, READ_MILLIS); // Warm up
+        long idle = runReaders(false, READ_MILLIS);
+        long ingesting = runReaders(true, READ_MILLIS);
+        Assert.assertTrue("Reads during ingest " + ingesting + " vs idle " + idle,
+                ingesting >= idle * MIN_INGEST_READ_RATIO);
+    }
+
+    @Ignore("Benchmark, run by hand")
+    @Test
+    public void benchmarkReadThroughputUnderIngest() throws InterruptedException {
+        runReaders(false, BENCHMARK_READ_MILLIS); // Warm up
+        long idle = runReaders(false, BENCHMARK_READ_MILLIS);
+        long ingesting = runReaders(true, BENCHMARK_READ_MILLIS);
+        System.out.println("LiveMelbourne reads/s, idle: " + idle * 1000 / BENCHMARK_READ_MILLIS
+                + ", during ingest: " + ingesting * 1000 / BENCHMARK_READ_MILLIS);
+    }
+
+    private long runReaders(boolean withWriter, long millis) throws InterruptedException {
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicLong reads = new AtomicLong();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        ArrayList<Thread> threads = new ArrayList<>();
+
+        int readers = Math.max(2, Runtime.getRuntime().availableProcessors() - 1);
+        for (int r = 0; r < readers; r++) {
+            final long seed = r;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Random random = new Random(seed);
+                    long count = 0;
+                    long lastEpoch = 0;
+                    try {
+                        while (running.get()) {
+                            MelbourneSnapshot snapshot = live.snapshot();
+                            assert snapshot.getEpoch() >= lastEpoch : "Snapshot went backwards";
+                            lastEpoch = snapshot.getEpoch();
+                            int hours = snapshot.getEndHour() - snapshot.getFirstHour();
+                            for (int i = 0; i < 1000; i++) {
+                                int hour = snapshot.getFirstHour() + random.nextInt(hours);
+                                int expected = (hour - snapshot.getFirstHour()) / 24;
+                                int sensor = random.nextInt(sensorNames.length);
+                                if (snapshot.getCount(sensor, hour) != expected) {
+                                    throw new AssertionError("Inconsistent read at hour " + hour);
+                                }
+                            }
+                            count += 1000;
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                    reads.addAndGet(count);
+                }
+            }));
+        }
+
+        if (withWriter) {
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    // Far faster than a real refresh, which adds one day at a time.
+                    int day = live.snapshot().getDayCount();
+                    try {
+                        while (running.get()) {
+                            live.appendDay(FIRST_DAY.plusDays(day), dayCounts(day));
+                            day++;
+                            Thread.sleep(1);
+                        }
+                    } catch (InterruptedException iEx) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }));
+        }
+
+        for (Thread t : threads) {
+            t.start();
+        }
+        Thread.sleep(millis);
+        running.set(false);
+        for (Thread t : threads) {
+            t.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError("Reader failed", failure.get());
+        }
+        return reads.get();
+    }
+}
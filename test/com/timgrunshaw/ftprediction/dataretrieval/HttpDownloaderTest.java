@@ -0,0 +1,238 @@
+package com.timgrunshaw.ftprediction.dataretrieval;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Downloads from a local stand-in for the Melbourne data source, which serves
+ * the test CSV files with ETags, gzip and ranges.
+ *
+ * @author Tim Grunshaw
+ */
+public class HttpDownloaderTest {
+
+    final String RESOURCE_DIRECTORY = "test/resources/melbourneTest/csv_files";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private StandInServer server;
+    private MelbourneDataSource melbourne;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new StandInServer();
+        for (String day : new String[]{"15-03-2015", "16-03-2015", "17-03-2015"}) {
+            server.files.put(day, Files.readAllBytes(Paths.get(RESOURCE_DIRECTORY, day + ".csv")));
+        }
+        melbourne = new MelbourneDataSource();
+        melbourne.setOutputDirectory(tempFolder.getRoot().getCanonicalPath());
+        melbourne.setUrlPrefix("http://localhost:" + server.getPort() + "/api/bydatecsv/");
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    private Path output(String day) {
+        return tempFolder.getRoot().toPath().resolve(day + ".csv");
+    }
+
+    @Test
+    public void testConditionalRangeDownload() throws IOException {
+        LocalDate from = LocalDate.of(2015, 3, 15);
+        LocalDate to = LocalDate.of(2015, 3, 18);
+        melbourne.downloadCSVFilesInRange(from, to);
+        HttpDownloader downloader = melbourne.getDownloader();
+        for (String day : server.files.keySet()) {
+            Assert.assertArrayEquals(server.files.get(day), Files.readAllBytes(output(day)));
+        }
+        Assert.assertEquals(3, downloader.getRequests());
+        Assert.assertEquals("One persistent connection for the range", 1, server.connections.size());
+
+        // gzip was negotiated
+        long raw = 0;
+        for (byte[] file : server.files.values()) {
+            raw += file.length;
+        }
+        Assert.assertTrue(downloader.getBytesReceived() < raw / 2);
+
+        // Again: every day is a 304, including with a new data source reading the saved validators.
+        long received = downloader.getBytesReceived();
+        melbourne.downloadCSVFilesInRange(from, to);
+        Assert.assertEquals(3, downloader.getNotModified());
+        Assert.assertEquals(received, downloader.getBytesReceived());
+
+        MelbourneDataSource restarted = new MelbourneDataSource();
+        restarted.setOutputDirectory(tempFolder.getRoot().getCanonicalPath());
+        restarted.setUrlPrefix(server.getUrlPrefix());
+        restarted.downloadCSVFilesInRange(from, to);
+        Assert.assertEquals(3, restarted.getDownloader().getNotModified());
+
+        // A late correction is downloaded again.
+        byte[] corrected = Files.readAllBytes(Paths.get(RESOURCE_DIRECTORY, "18-03-2015.csv"));
+        server.files.put("16-03-2015", corrected);
+        restarted.downloadCSVFilesInRange(from, to);
+        Assert.assertEquals(5, restarted.getDownloader().getNotModified());
+        Assert.assertArrayEquals(corrected, Files.readAllBytes(output("16-03-2015")));
+    }
+
+    @Test
+    public void testResumeAfterTruncatedTransfer() throws IOException {
+        server.gzip = false;
+        server.truncateNext = true;
+        HttpDownloader downloader = melbourne.getDownloader();
+        HttpDownloader.Result result = downloader.download(
+                new URL(server.getUrlPrefix() + "17-03-2015"), output("17-03-2015"));
+
+        Assert.assertEquals(HttpDownloader.Result.RESUMED, result);
+        Assert.assertArrayEquals(server.files.get("17-03-2015"), Files.readAllBytes(output("17-03-2015")));
+        Assert.assertEquals(2, downloader.getRequests());
+        Assert.assertEquals(server.files.get("17-03-2015").length, downloader.getBytesReceived());
+        Assert.assertFalse(Files.exists(tempFolder.getRoot().toPath().resolve(".17-03-2015.csv.part")));
+    }
+
+    @Test
+    public void testChangedWhileResuming() throws IOException {
+        server.gzip = false;
+        server.truncateNext = true;
+        server.changeAfterTruncate = Files.readAllBytes(Paths.get(RESOURCE_DIRECTORY, "18-03-2015.csv"));
+        HttpDownloader.Result result = melbourne.getDownloader().download(
+                new URL(server.getUrlPrefix() + "17-03-2015"), output("17-03-2015"));
+
+        // If-Range did not match, so the whole new file was sent.
+        Assert.assertEquals(HttpDownloader.Result.DOWNLOADED, result);
+        Assert.assertArrayEquals(server.changeAfterTruncate, Files.readAllBytes(output("17-03-2015")));
+    }
+
+    @Test
+    public void testMissingDay() throws IOException {
+        try {
+            melbourne.getDownloader().download(new URL(server.getUrlPrefix() + "01-01-2015"), output("01-01-2015"));
+            Assert.fail();
+        } catch (HttpDownloader.HttpStatusException statusEx) {
+            Assert.assertEquals(404, statusEx.code);
+        }
+        Assert.assertEquals("Not retried", 1, melbourne.getDownloader().getRequests());
+    }
+
+    /**
+     * Serves files.get(date) at /api/bydatecsv/date. The ETag is the hash of
+     * the content, so changing a file changes its ETag.
+     */
+    static class StandInServer {
+
+        final Map<String, byte[]> files = new ConcurrentHashMap<>();
+        final Set<Integer> connections = new HashSet<>();
+        volatile boolean gzip = true;
+        volatile boolean truncateNext;
+        volatile byte[] changeAfterTruncate;
+        private final HttpServer httpServer;
+
+        StandInServer() throws IOException {
+            httpServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+            httpServer.createContext("/api/bydatecsv/", new HttpHandler() {
+                @Override
+                public void handle(HttpExchange exchange) throws IOException {
+                    serve(exchange);
+                }
+            });
+            httpServer.start();
+        }
+
+        int getPort() {
+            return httpServer.getAddress().getPort();
+        }
+
+        String getUrlPrefix() {
+            return "http://localhost:" + getPort() + "/api/bydatecsv/";
+        }
+
+        void stop() {
+            httpServer.stop(0);
+        }
+
+        private static String etag(byte[] content) {
+            return "\"" + Integer.toHexString(Arrays.hashCode(content)) + "\"";
+        }
+
+        private void serve(HttpExchange exchange) throws IOException {
+            synchronized (connections) {
+                connections.add(exchange.getRemoteAddress().getPort());
+            }
+            String path = exchange.getRequestURI().getPath();
+            byte[] content = files.get(path.substring(path.lastIndexOf('/') + 1));
+            if (content == null) {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+                return;
+            }
+            String etag = etag(content);
+            String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            boolean compress = gzip && accept != null && accept.contains("gzip");
+            byte[] body = content;
+            if (compress) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+                    out.write(content);
+                }
+                body = bytes.toByteArray();
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            }
+            exchange.getResponseHeaders().set("ETag", etag);
+
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            int code = 200;
+            int offset = 0;
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            if (range != null && etag.equals(exchange.getRequestHeaders().getFirst("If-Range"))) {
+                offset = Integer.parseInt(range.substring("bytes=".length(), range.indexOf('-')));
+                exchange.getResponseHeaders().set("Content-Range",
+                        "bytes " + offset + "-" + (body.length - 1) + "/" + body.length);
+                code = 206;
+            }
+            exchange.sendResponseHeaders(code, body.length - offset);
+            OutputStream out = exchange.getResponseBody();
+            if (truncateNext) {
+                // Send half, then drop the connection.
+                truncateNext = false;
+                out.write(body, offset, (body.length - offset) / 2);
+                out.flush();
+                if (changeAfterTruncate != null) {
+                    files.put(path.substring(path.lastIndexOf('/') + 1), changeAfterTruncate);
+                }
+                exchange.close(); // Short of the content length, so the connection is closed.
+                return;
+            }
+            out.write(body, offset, body.length - offset);
+            out.close();
+        }
+    }
+}
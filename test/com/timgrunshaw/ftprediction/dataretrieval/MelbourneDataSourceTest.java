@@ -1,8 +1,12 @@
 package com.timgrunshaw.ftprediction.dataretrieval;
 
+import com.timgrunshaw.ftprediction.data.HourIndex;
+import com.timgrunshaw.ftprediction.data.LiveMelbourne;
 import com.timgrunshaw.ftprediction.data.Melbourne;
+import com.timgrunshaw.ftprediction.data.MelbourneSnapshot;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -13,7 +17,10 @@ import java.time.LocalDateTime;
 import java.time.Month;
 import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Assert;
@@ -320,6 +327,19 @@ public class MelbourneDataSourceTest {
         melbourne.convertCSVFile(file, dest);
     }
 
+    @Test
+    public void testConvertAllCSVFilesInFolder() throws IOException {
+        Path root = tempFolder.getRoot().toPath();
+        Files.copy(Paths.get(RESOURCE_DIRECTORY, "18-03-2015.csv"), root.resolve("18-03-2015.csv"));
+        Files.write(root.resolve("validators.tsv"), "x\ty\n".getBytes(StandardCharsets.UTF_8));
+        Files.createDirectories(root.resolve(DayFileValidator.QUARANTINE_DIRECTORY));
+        Path dest = tempFolder.newFolder("converted").toPath();
+
+        Assert.assertEquals(1, melbourne.convertAllCSVFilesInFolder(dest));
+        Assert.assertTrue(Files.exists(dest.resolve("18-03-2015.csv")));
+        Assert.assertFalse(Files.exists(dest.resolve("validators.tsv")));
+    }
+
     @Test
     public void testRegex() {
         String[] valid = {
@@ -364,5 +384,133 @@ public class MelbourneDataSourceTest {
         assert m.getSensor("Waterfront City").getCount(hour) == 46;
         hour = LocalDateTime.of(2015, 3, 18, 17, 0);
         assert m.getSensor("Birrarung Marr").getCount(hour) == 1081;
+        
+        // Wednesday 5pm
+        Assert.assertEquals(1081, m.getSketches().quantile("Birrarung Marr", 2 * 24 + 17, 0.5), 0.0);
+    }
+
+    @Test
+    public void testIngestNewDays() throws IOException {
+        Files.copy(Paths.get(RESOURCE_DIRECTORY + "/17-03-2015.csv"), 
+                Paths.get(tempFolder.getRoot().getCanonicalPath() + "/17-03-2015.csv"));
+        LiveMelbourne live = LiveMelbourne.from(melbourne.createMelbourne());
+        MelbourneSnapshot before = live.snapshot();
+        Assert.assertEquals(0, melbourne.ingestNewDays(live));
+
+        Files.copy(Paths.get(RESOURCE_DIRECTORY + "/18-03-2015.csv"), 
+                Paths.get(tempFolder.getRoot().getCanonicalPath() + "/18-03-2015.csv"));
+        Assert.assertEquals(1, melbourne.ingestNewDays(live));
+        
+        LocalDateTime hour = LocalDateTime.of(2015, 3, 18, 17, 0);
+        Assert.assertEquals(1081, live.getCount("Birrarung Marr", hour));
+        Assert.assertEquals(1, before.getDayCount());
+    }
+
+    @Test
+    public void testIngestLeavesGapDaysWithoutData() throws IOException {
+        Path root = tempFolder.getRoot().toPath();
+        Files.copy(Paths.get(RESOURCE_DIRECTORY, "17-03-2015.csv"), root.resolve("17-03-2015.csv"));
+        LiveMelbourne live = LiveMelbourne.from(melbourne.createMelbourne());
+        Files.copy(Paths.get(RESOURCE_DIRECTORY, "18-03-2015.csv"), root.resolve("19-03-2015.csv"));
+        Assert.assertEquals(1, melbourne.ingestNewDays(live));
+
+        MelbourneSnapshot snapshot = live.snapshot();
+        int day18 = HourIndex.of(LocalDate.of(2015, 3, 18));
+        Assert.assertTrue(snapshot.hasData(day18 - 1));
+        Assert.assertFalse(snapshot.hasData(day18));
+        Assert.assertTrue(snapshot.hasData(day18 + 24));
+        Assert.assertTrue(snapshot.isMissing(0, day18 + 17));
+        Assert.assertTrue(snapshot.toColumns().isMissing(0, day18 + 17 - snapshot.getFirstHour()));
+
+        // The day can still be filled in once its file arrives.
+        Files.copy(Paths.get(RESOURCE_DIRECTORY, "18-03-2015.csv"), root.resolve("18-03-2015.csv"));
+        Assert.assertEquals(1, melbourne.ingestNewDays(live));
+        Assert.assertTrue(live.snapshot().hasData(day18));
+        Assert.assertEquals(1081, live.getCount("Birrarung Marr", LocalDateTime.of(2015, 3, 18, 17, 0)));
+        Assert.assertEquals(0, melbourne.ingestNewDays(live));
+    }
+
+    /**
+     * Writes a copy of a test day file with one line replaced.
+     */
+    private Path writeDayFile(String source, String dest, int lineNumber, String line) throws IOException {
+        List<String> lines = Files.readAllLines(Paths.get(RESOURCE_DIRECTORY, source), StandardCharsets.UTF_8);
+        if (line == null) {
+            lines = lines.subList(0, lineNumber);
+        } else {
+            lines.set(lineNumber, line);
+        }
+        Path file = Paths.get(tempFolder.getRoot().getCanonicalPath(), dest);
+        Files.write(file, lines, StandardCharsets.UTF_8);
+        return file;
+    }
+
+    @Test
+    public void testValidateDayFiles() throws IOException {
+        DayFileValidator validator = new DayFileValidator(new Melbourne().getSensorNames());
+        for (String day : new String[]{"12-03-2015.csv", "15-03-2015.csv", "16-03-2015.csv", "17-03-2015.csv", "18-03-2015.csv"}) {
+            Assert.assertNull(day, validator.validate(Paths.get(RESOURCE_DIRECTORY, day)));
+        }
+        Assert.assertNotNull(validator.validate(Paths.get(RESOURCE_DIRECTORY, "01-01-2000.csv")));
+
+        String birrarungMarr = Files.readAllLines(Paths.get(RESOURCE_DIRECTORY, "18-03-2015.csv"), StandardCharsets.UTF_8).get(26);
+        String[] problems = {
+            validator.validate(writeDayFile("18-03-2015.csv", "01-03-2015.csv", 40, null)),
+            validator.validate(writeDayFile("18-03-2015.csv", "02-03-2015.csv", 26, birrarungMarr + ",7")),
+            validator.validate(writeDayFile("18-03-2015.csv", "03-03-2015.csv", 26, birrarungMarr.replaceFirst(",\\d+$", ""))),
+            validator.validate(writeDayFile("18-03-2015.csv", "04-03-2015.csv", 26, birrarungMarr.replaceFirst(",\\d+,", ",1x,"))),
+            validator.validate(writeDayFile("18-03-2015.csv", "05-03-2015.csv", 26, birrarungMarr.replace("Birrarung Marr", "Birrarung Mar"))),
+            validator.validate(writeDayFile("18-03-2015.csv", "06-03-2015.csv", 26, birrarungMarr.replaceFirst(",\\d+,", ",0,"))),
+            validator.validate(writeDayFile("18-03-2015.csv", "07-03-2015.csv", 8, "Sensor,Midnight"))
+        };
+        Assert.assertTrue(problems[0], problems[0].startsWith("File ends after 40 lines"));
+        Assert.assertTrue(problems[1], problems[1].contains("more than 25 columns"));
+        Assert.assertTrue(problems[2], problems[2].contains("24 columns"));
+        Assert.assertTrue(problems[3], problems[3].contains("'1x'"));
+        Assert.assertTrue(problems[4], problems[4].contains("unknown sensor"));
+        Assert.assertTrue(problems[5], problems[5].startsWith("Line 46: Total for hour 0"));
+        Assert.assertTrue(problems[6], problems[6].startsWith("Line 8: "));
+
+        // N/A is a valid reading, left out of the hour sums.
+        String allMissing = "Birrarung Marr" + String.join("", Collections.nCopies(24, ",N/A"));
+        Path missing = writeDayFile("18-03-2015.csv", "08-03-2015.csv", 26, allMissing);
+        Assert.assertTrue(validator.validate(missing).contains("Total for hour 0"));
+    }
+
+    @Test
+    public void testCreateMelbourneQuarantinesBadFiles() throws IOException {
+        Path root = tempFolder.getRoot().toPath();
+        Files.copy(Paths.get(RESOURCE_DIRECTORY + "/17-03-2015.csv"), root.resolve("17-03-2015.csv"));
+        Files.copy(Paths.get(RESOURCE_DIRECTORY + "/18-03-2015.csv"), root.resolve("18-03-2015.csv"));
+        writeDayFile("16-03-2015.csv", "16-03-2015.csv", 46, "Total,1");
+        Files.copy(Paths.get(RESOURCE_DIRECTORY + "/01-01-2000.csv"), root.resolve("15-03-2015.csv"));
+        // Sensor rows in a different order are valid and read by name.
+        List<String> swapped = Files.readAllLines(Paths.get(RESOURCE_DIRECTORY, "17-03-2015.csv"), StandardCharsets.UTF_8);
+        swapped.set(20, swapped.set(30, swapped.get(20)));
+        Files.write(root.resolve("14-03-2015.csv"), swapped, StandardCharsets.UTF_8);
+
+        Melbourne m = melbourne.createMelbourne();
+        Assert.assertEquals(1081, m.getSensor("Birrarung Marr").getCount(LocalDateTime.of(2015, 3, 18, 17, 0)));
+        Assert.assertFalse(m.getSensor("Birrarung Marr").getAllRecords().containsKey(LocalDateTime.of(2015, 3, 16, 17, 0)));
+        Assert.assertEquals(717, m.getSensor("Spencer St-Collins St (South)").getCount(LocalDateTime.of(2015, 3, 14, 17, 0)));
+        Assert.assertEquals(300, m.getSensor("New Quay").getCount(LocalDateTime.of(2015, 3, 14, 17, 0)));
+
+        ValidationReport report = melbourne.getLastValidation();
+        Assert.assertEquals(3, report.getValidFiles().size());
+        Assert.assertEquals(2, report.getRejectedCount());
+        Assert.assertFalse(Files.exists(root.resolve("16-03-2015.csv")));
+        Assert.assertTrue(Files.exists(melbourne.getQuarantineDirectory().resolve("16-03-2015.csv")));
+        Assert.assertTrue(Files.exists(melbourne.getQuarantineDirectory().resolve("15-03-2015.csv")));
+        List<String> lines = Files.readAllLines(melbourne.getQuarantineDirectory().resolve(DayFileValidator.REPORT_FILENAME));
+        Assert.assertEquals(3, lines.size());
+        Assert.assertTrue(lines.get(0).startsWith("# "));
+
+        // A bad day arriving later is quarantined without stopping the ingest.
+        LiveMelbourne live = LiveMelbourne.from(m);
+        writeDayFile("12-03-2015.csv", "19-03-2015.csv", 0, "CITY OF SYDNEY");
+        Assert.assertEquals(0, melbourne.ingestNewDays(live));
+        Assert.assertEquals(Arrays.asList(), melbourne.getLastValidation().getValidFiles());
+        Assert.assertTrue(Files.exists(melbourne.getQuarantineDirectory().resolve("19-03-2015.csv")));
+        Assert.assertEquals(5, Files.readAllLines(melbourne.getQuarantineDirectory().resolve(DayFileValidator.REPORT_FILENAME)).size());
     }
 }
@@ -0,0 +1,63 @@
+package com.timgrunshaw.ftprediction.dataretrieval;
+
+import com.timgrunshaw.ftprediction.dataretrieval.ValidatorCache.Entry;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Tim Grunshaw
+ */
+public class ValidatorCacheTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Path file;
+
+    @Before
+    public void setUp() {
+        file = tempFolder.getRoot().toPath().resolve("validators.tsv");
+    }
+
+    @Test
+    public void testJournalIsReplayedAndCompacted() throws IOException {
+        ValidatorCache cache = new ValidatorCache(file);
+        int days = 1000;
+        for (int d = 0; d < days; d++) {
+            // A partial download, then the complete file.
+            cache.put(d + ".csv", new Entry(false, "gzip", "\"p" + d + "\"", null));
+            cache.put(d + ".csv", new Entry(true, null, "\"e" + d + "\"", "Tue, 17 Mar 2015 00:00:00 GMT"));
+        }
+        cache.remove("5.csv");
+        Assert.assertTrue(Files.readAllLines(file, StandardCharsets.UTF_8).size() <= 2 * days + 64);
+
+        ValidatorCache read = new ValidatorCache(file);
+        Assert.assertNull(read.get("5.csv"));
+        Entry entry = read.get("999.csv");
+        Assert.assertTrue(entry.complete);
+        Assert.assertNull(entry.encoding);
+        Assert.assertEquals("\"e999\"", entry.etag);
+        Assert.assertEquals("Tue, 17 Mar 2015 00:00:00 GMT", entry.lastModified);
+    }
+
+    @Test
+    public void testTornLastLineIsIgnored() throws IOException {
+        ValidatorCache cache = new ValidatorCache(file);
+        cache.put("a.csv", new Entry(true, null, "\"a\"", null));
+        Files.write(file, "b.csv\t1\t-".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        ValidatorCache read = new ValidatorCache(file);
+        Assert.assertEquals("\"a\"", read.get("a.csv").etag);
+        Assert.assertNull(read.get("b.csv"));
+        read.put("c.csv", new Entry(true, null, "\"c\"", null));
+        Assert.assertEquals("\"c\"", new ValidatorCache(file).get("c.csv").etag);
+    }
+}
@@ -0,0 +1,187 @@
+package com.timgrunshaw.ftprediction.forecast;
+
+import com.timgrunshaw.ftprediction.arrow.ArrowImporter;
+import com.timgrunshaw.ftprediction.data.Bitmaps;
+import com.timgrunshaw.ftprediction.data.HourIndex;
+import com.timgrunshaw.ftprediction.data.Melbourne;
+import com.timgrunshaw.ftprediction.data.SensorColumns;
+import com.timgrunshaw.ftprediction.dataretrieval.MelbourneDataSource;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Tim Grunshaw
+ */
+public class BatchScorerTest {
+
+    private static final String RESOURCE_DIRECTORY = "test/resources/melbourneTest/csv_files";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Melbourne melbourne;
+
+    @Before
+    public void setUp() throws IOException {
+        for (String day : new String[]{"17-03-2015.csv", "18-03-2015.csv"}) {
+            Files.copy(Paths.get(RESOURCE_DIRECTORY, day), tempFolder.getRoot().toPath().resolve(day));
+        }
+        MelbourneDataSource dataSource = new MelbourneDataSource();
+        dataSource.setOutputDirectory(tempFolder.getRoot().getCanonicalPath());
+        melbourne = dataSource.createMelbourne();
+    }
+
+    @Test
+    public void testForecastRepeatsTheProfile() {
+        BaselineProfiles profiles = BaselineProfiles.fit(melbourne);
+        int birrarungMarr = melbourne.toColumns().getSensorIndex("Birrarung Marr");
+        // Wednesday 5pm, from 18-03-2015.
+        Assert.assertEquals(1081, profiles.getMean(birrarungMarr, 2 * 24 + 17), 0.0);
+        // No Thursday yet: the mean of the two days.
+        double mean = 0;
+        for (int h = 24; h < 3 * 24; h++) {
+            mean += profiles.getMean(birrarungMarr, h);
+        }
+        Assert.assertEquals(mean / 48, profiles.getMean(birrarungMarr, 3 * 24), 1e-9);
+
+        // Starting on a Sunday, so the first week crosses the profile's end.
+        LocalDate from = LocalDate.of(2015, 3, 29);
+        SensorColumns forecast = new BatchScorer(profiles).score(from, 31);
+        Assert.assertEquals(31 * 24, forecast.getHours());
+        for (LocalDate wednesday = LocalDate.of(2015, 4, 1); wednesday.isBefore(from.plusDays(31)); wednesday = wednesday.plusWeeks(1)) {
+            int hour = HourIndex.of(wednesday.atTime(17, 0));
+            Assert.assertEquals(1081, forecast.getCount(birrarungMarr, hour));
+        }
+        // Tuesday 7am, from 17-03-2015.
+        Assert.assertEquals(46, forecast.getCount(forecast.getSensorIndex("Waterfront City"),
+                HourIndex.of(LocalDateTime.of(2015, 4, 28, 7, 0))));
+        Assert.assertFalse(forecast.isMissing(birrarungMarr, 0));
+    }
+
+    @Test
+    public void testThreadsAndPreallocatedColumns() {
+        String[] names = {"a", "b", "c", "d", "e"};
+        int hours = 10 * HourIndex.HOURS_PER_WEEK;
+        Random random = new Random(3);
+        int[][] counts = new int[names.length][hours];
+        long[][] missing = new long[names.length][Bitmaps.length(hours)];
+        for (int s = 0; s < names.length; s++) {
+            for (int i = 0; i < hours; i++) {
+                counts[s][i] = random.nextInt(1000);
+            }
+        }
+        // Sensor d never reads.
+        Bitmaps.setRange(missing[3], 0, hours);
+        BaselineProfiles profiles = BaselineProfiles.fit(new SensorColumns(names, 5, counts, missing), 4);
+        Assert.assertFalse(profiles.hasProfile(3));
+
+        BatchScorer scorer = new BatchScorer(profiles);
+        scorer.setThreads(1);
+        SensorColumns single = scorer.score(1001, 1000);
+        scorer.setThreads(3);
+        int[][] into = new int[names.length][1000];
+        long[][] intoMissing = new long[names.length][Bitmaps.length(1000)];
+        scorer.score(1001, into, intoMissing);
+        for (int s = 0; s < names.length; s++) {
+            Assert.assertArrayEquals(single.getColumn(s), into[s]);
+            for (int row = 0; row < 1000; row++) {
+                Assert.assertEquals(s == 3, single.isMissing(s, row));
+                Assert.assertEquals(s == 3, Bitmaps.get(intoMissing[s], row));
+                Assert.assertEquals(Math.round(profiles.getMean(s, HourIndex.hourOfWeek(1001 + row))), into[s][row]);
+            }
+        }
+    }
+
+    @Test
+    public void testCsvHasTheLayoutOfWriteData() throws IOException {
+        Path expected = tempFolder.getRoot().toPath().resolve("all.csv");
+        melbourne.writeData(expected);
+        Path actual = tempFolder.getRoot().toPath().resolve("forecast.csv");
+        ForecastWriter.writeCsv(melbourne.toColumns(), actual);
+        Assert.assertEquals(new String(Files.readAllBytes(expected), "UTF-8"), new String(Files.readAllBytes(actual), "UTF-8"));
+
+        String[] names = {"a", "b"};
+        long[][] missing = new long[2][1];
+        Bitmaps.set(missing[1], 1);
+        SensorColumns columns = new SensorColumns(names, HourIndex.of(LocalDateTime.of(2015, 12, 31, 23, 0)),
+                new int[][]{{0, -12}, {Integer.MAX_VALUE, 0}}, missing);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ForecastWriter.writeCsv(columns, out);
+        Assert.assertEquals("Sensor,a,b\n2015-12-31T23:00,0,2147483647\n2016-01-01T00:00,-12,0", out.toString("UTF-8"));
+        out.reset();
+        ForecastWriter.writeCsv(columns, out, "N/A");
+        Assert.assertEquals("Sensor,a,b\n2015-12-31T23:00,0,2147483647\n2016-01-01T00:00,-12,N/A", out.toString("UTF-8"));
+    }
+
+    @Test
+    public void testArrowRoundTrip() throws IOException {
+        SensorColumns forecast = new BatchScorer(BaselineProfiles.fit(melbourne)).score(LocalDate.of(2015, 4, 1), 7);
+        Path file = tempFolder.getRoot().toPath().resolve("forecast.arrow");
+        ForecastWriter.writeArrow(forecast, file);
+        SensorColumns read = ArrowImporter.read(file);
+        Assert.assertEquals(forecast.getFirstHour(), read.getFirstHour());
+        for (int s = 0; s < forecast.getSensorCount(); s++) {
+            Assert.assertArrayEquals(forecast.getColumn(s), read.getColumn(s));
+        }
+    }
+
+    @Test
+    public void testDecadeOfForecasts() {
+        BaselineProfiles profiles = BaselineProfiles.fit(melbourne);
+        int hours = 10 * 365 * 24;
+        int sensors = profiles.getSensorCount();
+        int[][] counts = new int[sensors][hours];
+        long[][] missing = new long[sensors][Bitmaps.length(hours)];
+        new BatchScorer(profiles).score(HourIndex.of(LocalDate.of(2016, 1, 1)), counts, missing);
+        SensorColumns columns = new SensorColumns(profiles.getSensorNames(), HourIndex.of(LocalDate.of(2016, 1, 1)), counts, missing);
+        Assert.assertEquals(Math.round(profiles.getMean(17, 2 * 24 + 17)),
+                columns.getCount(17, HourIndex.of(LocalDateTime.of(2025, 12, 24, 17, 0))));
+    }
+
+    @Ignore("Benchmark, run by hand")
+    @Test
+    public void benchmarkThroughput() throws IOException {
+        BaselineProfiles profiles = BaselineProfiles.fit(melbourne);
+        BatchScorer scorer = new BatchScorer(profiles);
+        int hours = 10 * 365 * 24;
+        int sensors = profiles.getSensorCount();
+        int[][] counts = new int[sensors][hours];
+        long[][] missing = new long[sensors][Bitmaps.length(hours)];
+        OutputStream discard = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        };
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            scorer.score(HourIndex.of(LocalDate.of(2016, 1, 1)), counts, missing);
+        }
+        long scoreNanos = (System.nanoTime() - start) / 5;
+        SensorColumns columns = new SensorColumns(profiles.getSensorNames(), HourIndex.of(LocalDate.of(2016, 1, 1)), counts, missing);
+        start = System.nanoTime();
+        ForecastWriter.writeCsv(columns, discard);
+        long writeNanos = System.nanoTime() - start;
+
+        double cells = (double) hours * sensors;
+        System.out.println(String.format("BatchScorer: %.0f cells, score %.0f M cells/s, CSV %.1f M cells/s",
+                cells, cells / scoreNanos * 1e3, cells / writeNanos * 1e3));
+    }
+}
@@ -0,0 +1,84 @@
+package com.timgrunshaw.ftprediction.hierarchy;
+
+import com.timgrunshaw.ftprediction.data.Melbourne;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author Tim Grunshaw
+ */
+public class ReconcilerTest {
+
+    private static final int HOURS = 24 * 7;
+
+    private SensorHierarchy hierarchy;
+    private double[] base;
+
+    @Before
+    public void setUp() {
+        hierarchy = SensorHierarchy.melbournePrecincts(new Melbourne());
+
+        // Random, incoherent base forecasts for a week.
+        Random random = new Random(42);
+        int m = hierarchy.getNodeCount();
+        base = new double[HOURS * m];
+        for (int i = 0; i < base.length; i++) {
+            base[i] = random.nextInt(2000);
+        }
+    }
+
+    private void assertCoherent(double[] forecasts) {
+        int m = hierarchy.getNodeCount();
+        int n = hierarchy.getSensorCount();
+        double[] sensors = new double[n];
+        double[] expected = new double[m];
+        for (int h = 0; h < HOURS; h++) {
+            System.arraycopy(forecasts, h * m + hierarchy.getFirstSensorNode(), sensors, 0, n);
+            hierarchy.aggregate(sensors, expected);
+            for (int node = 0; node < m; node++) {
+                Assert.assertEquals("Node " + hierarchy.getNodeName(node), expected[node], forecasts[h * m + node], 1e-6);
+            }
+        }
+    }
+
+    @Test
+    public void testBottomUp() {
+        double[] reconciled = new double[base.length];
+        Reconciler.bottomUp(hierarchy).reconcile(base, HOURS, reconciled);
+        assertCoherent(reconciled);
+
+        // Sensor forecasts are unchanged.
+        int sensorNode = hierarchy.getNode("Princes Bridge");
+        Assert.assertEquals(base[sensorNode], reconciled[sensorNode], 0.0);
+    }
+
+    @Test
+    public void testOlsKeepsCoherentForecasts() {
+        double[] coherent = new double[base.length];
+        Reconciler.bottomUp(hierarchy).reconcile(base, HOURS, coherent);
+        double[] reconciled = new double[base.length];
+        Reconciler.ols(hierarchy).reconcile(coherent, HOURS, reconciled);
+        Assert.assertArrayEquals(coherent, reconciled, 1e-6);
+    }
+
+    @Test
+    public void testMintShrink() {
+        int m = hierarchy.getNodeCount();
+        Random random = new Random(7);
+        double[] residuals = new double[500 * m];
+        for (int i = 0; i < residuals.length; i++) {
+            residuals[i] = random.nextGaussian() * (1 + i % m);
+        }
+        double[] reconciled = new double[base.length];
+        Reconciler.mintShrink(hierarchy, residuals, 500).reconcile(base, HOURS, reconciled);
+        assertCoherent(reconciled);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownSensor() {
+        hierarchy.addGroup("Nowhere", "Not a sensor");
+    }
+}
@@ -0,0 +1,110 @@
+package com.timgrunshaw.ftprediction.query;
+
+import com.timgrunshaw.ftprediction.calendar.EventCalendar;
+import com.timgrunshaw.ftprediction.data.Bitmaps;
+import com.timgrunshaw.ftprediction.data.HourIndex;
+import com.timgrunshaw.ftprediction.data.SensorColumns;
+import java.time.LocalDate;
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author Tim Grunshaw
+ */
+public class QueryEngineTest {
+
+    private QueryEngine engine;
+
+    @Before
+    public void setUp() {
+        // Two weeks from Monday 2 March 2015, sensor A counts the hour of day, B is always 10.
+        int hours = 14 * 24;
+        int[][] counts = new int[2][hours];
+        for (int i = 0; i < hours; i++) {
+            counts[0][i] = i % 24;
+            counts[1][i] = 10;
+        }
+        SensorColumns columns = new SensorColumns(new String[]{"A", "B"},
+                HourIndex.of(LocalDate.of(2015, 3, 2)), counts);
+        engine = new QueryEngine(columns, new EventCalendar());
+    }
+
+    @Test
+    public void testTokenize() {
+        Assert.assertEquals(8, QueryParser.tokenize("SELECT p90 FROM \"Princes Bridge\" WHERE TIME >= 2015-01-01").size());
+    }
+
+    @Test
+    public void testGroupByHour() {
+        QueryResult result = engine.execute("select sum, avg, count from \"A\" group by hour");
+        Assert.assertEquals(24, result.getGroupCount());
+        Assert.assertEquals("07:00", result.getGroupLabel(7));
+        Assert.assertEquals(7 * 14, result.getValue(7, 0), 0.0);
+        Assert.assertEquals(7, result.getValue(7, 1), 0.0);
+        Assert.assertEquals(14, result.getValue(7, 2), 0.0);
+    }
+
+    @Test
+    public void testPredicates() {
+        // 9 March 2015 is Labour Day.
+        QueryResult result = engine.execute("SELECT count, max, p50 WHERE WEEKDAY AND NOT HOLIDAY "
+                + "AND HOUR BETWEEN 7 AND 9 AND TIME BETWEEN 2015-03-02 AND 2015-03-16");
+        Assert.assertEquals(1, result.getGroupCount());
+        Assert.assertEquals(9 * 3, result.getValue(0, 0), 0.0);
+        Assert.assertEquals(19, result.getValue(0, 1), 0.0);
+        Assert.assertEquals(18, result.getValue(0, 2), 0.0);
+    }
+
+    @Test
+    public void testGroupByWeekAndDay() {
+        QueryResult weeks = engine.execute("SELECT count FROM \"B\" GROUP BY WEEK");
+        Assert.assertEquals(2, weeks.getGroupCount());
+        Assert.assertEquals("2015-03-09", weeks.getGroupLabel(1));
+
+        QueryResult days = engine.execute("SELECT sum WHERE DAY IN (SAT, SUN) GROUP BY WEEKDAY");
+        Assert.assertEquals(2, days.getGroupCount());
+        Assert.assertEquals("Sat", days.getGroupLabel(0));
+        Assert.assertEquals(2 * (276 + 240), days.getValue(0, 0), 0.0);
+    }
+
+    @Test
+    public void testMissingHoursAreLeftOut() {
+        // As setUp, but B is offline on Tuesday 3 March and A is N/A at 7am on Wednesday 4 March.
+        int hours = 14 * 24;
+        int[][] counts = new int[2][hours];
+        long[][] missing = new long[2][Bitmaps.length(hours)];
+        for (int i = 0; i < hours; i++) {
+            counts[0][i] = i % 24;
+            counts[1][i] = 10;
+        }
+        Bitmaps.setRange(missing[1], 24, 48);
+        Arrays.fill(counts[1], 24, 48, 0);
+        Bitmaps.set(missing[0], 2 * 24 + 7);
+        counts[0][2 * 24 + 7] = 0;
+        QueryEngine withMissing = new QueryEngine(new SensorColumns(new String[]{"A", "B"},
+                HourIndex.of(LocalDate.of(2015, 3, 2)), counts, missing), new EventCalendar());
+
+        QueryResult b = withMissing.execute("SELECT avg, min, count FROM \"B\" WHERE TIME BETWEEN 2015-03-02 AND 2015-03-05");
+        Assert.assertEquals(10, b.getValue(0, 0), 0.0);
+        Assert.assertEquals(10, b.getValue(0, 1), 0.0);
+        Assert.assertEquals(2 * 24, b.getValue(0, 2), 0.0);
+
+        QueryResult a = withMissing.execute("SELECT avg, count FROM \"A\" WHERE TIME BETWEEN 2015-03-02 AND 2015-03-05 GROUP BY HOUR");
+        Assert.assertEquals(7, a.getValue(7, 0), 0.0);
+        Assert.assertEquals(2, a.getValue(7, 1), 0.0);
+        Assert.assertEquals(3, a.getValue(8, 1), 0.0);
+
+        // Both sensors: an hour counts if either has a reading.
+        QueryResult both = withMissing.execute("SELECT count, sum WHERE TIME BETWEEN 2015-03-03 AND 2015-03-04");
+        Assert.assertEquals(24, both.getValue(0, 0), 0.0);
+        Assert.assertEquals(276, both.getValue(0, 1), 0.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidQuery() {
+        engine.execute("SELECT sum GROUP BY YEAR");
+    }
+}
@@ -0,0 +1,202 @@
+package com.timgrunshaw.ftprediction.simulation;
+
+import com.timgrunshaw.ftprediction.data.HourIndex;
+import com.timgrunshaw.ftprediction.data.Melbourne;
+import com.timgrunshaw.ftprediction.sketch.SensorSketches;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * @author Tim Grunshaw
+ */
+public class ScenarioSimulatorTest {
+
+    // A Saturday evening
+    private static final LocalDateTime FROM = LocalDateTime.of(2015, 3, 21, 18, 0);
+    private static final LocalDateTime TO = LocalDateTime.of(2015, 3, 21, 22, 0);
+
+    private String[] sensorNames;
+    private SensorGraph graph;
+
+    @Before
+    public void setUp() {
+        sensorNames = new Melbourne().getSensorNames();
+        graph = SensorGraph.melbourneStreets(sensorNames);
+    }
+
+    /**
+     * Every sensor always counts 100 * (sensor index + 1).
+     */
+    private TrafficProfiles constantProfiles() {
+        double[] table = new double[sensorNames.length * HourIndex.HOURS_PER_WEEK * 2];
+        for (int s = 0; s < sensorNames.length; s++) {
+            Arrays.fill(table, s * HourIndex.HOURS_PER_WEEK * 2, (s + 1) * HourIndex.HOURS_PER_WEEK * 2, 100 * (s + 1));
+        }
+        return new TrafficProfiles(sensorNames, 1, table);
+    }
+
+    private double total(SimulationResult result, LocalDateTime hour) {
+        double total = 0;
+        for (String sensor : sensorNames) {
+            total += result.getMean(sensor, hour);
+        }
+        return total;
+    }
+
+    @Test
+    public void testClosureMovesTrafficToNeighbours() {
+        ScenarioSimulator simulator = new ScenarioSimulator(constantProfiles(), graph);
+        SimulationResult baseline = simulator.run(new Scenario(FROM, TO), 10, 1);
+        Scenario closure = new Scenario(FROM, TO)
+                .addClosure("Princes Bridge", FROM.plusHours(1), FROM.plusHours(3))
+                .setDiversion(1);
+        SimulationResult result = simulator.run(closure, 10, 1);
+
+        LocalDateTime open = FROM;
+        LocalDateTime closed = FROM.plusHours(1);
+        int princesBridge = graph.getSensorIndex("Princes Bridge");
+        double count = 100 * (princesBridge + 1);
+        Assert.assertEquals(count, result.getMean("Princes Bridge", open), 0.0);
+        Assert.assertEquals(0, result.getMean("Princes Bridge", closed), 0.0);
+        Assert.assertEquals(-count, result.getMeanChange("Princes Bridge", closed), 0.0);
+
+        // Everyone walks past a neighbour instead, in proportion to the neighbour counts.
+        Assert.assertEquals(total(baseline, closed), total(result, closed), 1e-6);
+        double weight = 0;
+        for (int n : graph.getNeighbours(princesBridge)) {
+            weight += 100 * (n + 1);
+        }
+        int birrarungMarr = graph.getSensorIndex("Birrarung Marr");
+        Assert.assertEquals(count * 100 * (birrarungMarr + 1) / weight,
+                result.getMeanChange("Birrarung Marr", closed), 1e-6);
+        Assert.assertEquals(0, result.getMeanChange("Waterfront City", closed), 0.0);
+    }
+
+    @Test
+    public void testPartialDiversionAndEventLoad() {
+        ScenarioSimulator simulator = new ScenarioSimulator(constantProfiles(), graph);
+        Scenario scenario = new Scenario(FROM, TO)
+                .addClosure("Princes Bridge", FROM, TO)
+                .addEventLoad("Webb Bridge", FROM, TO, 500)
+                .setDiversion(0.5);
+        int trials = 4000;
+        SimulationResult result = simulator.run(scenario, trials, 7);
+
+        double count = 100 * (graph.getSensorIndex("Princes Bridge") + 1);
+        double totalChange = 0;
+        for (String sensor : sensorNames) {
+            totalChange += result.getMeanChange(sensor, FROM);
+        }
+        // Half of Princes Bridge stays away, the concert adds 500.
+        Assert.assertEquals(500 - count / 2, totalChange, 5);
+
+        Assert.assertEquals(500, result.getMeanChange("Webb Bridge", FROM), 2);
+        Assert.assertEquals(Math.sqrt(500), result.getStdDev("Webb Bridge", FROM), 1.5);
+        double webb = 100 * (graph.getSensorIndex("Webb Bridge") + 1);
+        Assert.assertEquals(webb + 500, result.getQuantile("Webb Bridge", FROM, 0.5), 5);
+    }
+
+    @Test
+    public void testRepeatableForSeed() {
+        SimulationResult a = simulatorFromSketches(2).run(new Scenario(FROM, TO), 200, 42);
+        SimulationResult b = simulatorFromSketches(2).run(new Scenario(FROM, TO), 200, 42);
+        SimulationResult c = simulatorFromSketches(2).run(new Scenario(FROM, TO), 200, 43);
+        Assert.assertEquals(a.getMean("State Library", FROM), b.getMean("State Library", FROM), 0.0);
+        Assert.assertNotEquals(a.getMean("State Library", FROM), c.getMean("State Library", FROM), 0.0);
+    }
+
+    @Test
+    public void testNormalCdf() {
+        Assert.assertEquals(0.5, ScenarioSimulator.normalCdf(0), 1e-7);
+        Assert.assertEquals(0.841344746, ScenarioSimulator.normalCdf(1), 1e-6);
+        Assert.assertEquals(0.022750132, ScenarioSimulator.normalCdf(-2), 1e-6);
+        for (double x = -5; x <= 5; x += 0.01) {
+            Assert.assertEquals(ScenarioSimulator.normalCdf(x), ScenarioSimulator.tableNormalCdf(x), 1e-4);
+        }
+        Assert.assertEquals(1.959964, ScenarioSimulator.normalQuantile(0.975), 1e-5);
+    }
+
+    /**
+     * Profiles from sketches of a year of uniform random counts, 0 - 999 at
+     * every sensor and hour.
+     */
+    private TrafficProfiles profilesFromSketches() {
+        SensorSketches sketches = new SensorSketches(sensorNames);
+        Random random = new Random(3);
+        int first = HourIndex.of(LocalDateTime.of(2014, 1, 1, 0, 0));
+        for (int s = 0; s < sensorNames.length; s++) {
+            for (int h = first; h < first + 365 * 24; h++) {
+                sketches.add(s, h, random.nextInt(1000));
+            }
+        }
+        TrafficProfiles profiles = TrafficProfiles.fromSketches(sketches, TrafficProfiles.DEFAULT_QUANTILES);
+        Assert.assertEquals(500, profiles.median(0, 0), 100);
+        return profiles;
+    }
+
+    private ScenarioSimulator simulatorFromSketches(int threads) {
+        ScenarioSimulator simulator = new ScenarioSimulator(profilesFromSketches(), graph);
+        simulator.setThreads(threads);
+        return simulator;
+    }
+
+    /**
+     * The mean of a profile, which the simulated mean should match.
+     */
+    private static double profileMean(TrafficProfiles profiles, int sensor, int hourOfWeek) {
+        double sum = 0;
+        for (int i = 0; i < 10000; i++) {
+            sum += profiles.sample(sensor, hourOfWeek, (i + 0.5) / 10000);
+        }
+        return sum / 10000;
+    }
+
+    @Test
+    public void testHistogramBuckets() {
+        for (double value = 0; value < (1 << 20); value = value * 1.01 + 1) {
+            double read = CountHistograms.value(CountHistograms.bucket(value));
+            Assert.assertEquals(value, read, Math.max(1, value / 64));
+        }
+        Assert.assertEquals(CountHistograms.BUCKETS - 1, CountHistograms.bucket(1 << 20));
+        Assert.assertEquals(CountHistograms.BUCKETS - 1, CountHistograms.bucket(Double.MAX_VALUE));
+    }
+
+    @Test
+    public void testDayWithClosure() {
+        TrafficProfiles profiles = profilesFromSketches();
+        ScenarioSimulator simulator = new ScenarioSimulator(profiles, graph);
+        LocalDateTime saturday = LocalDateTime.of(2015, 3, 21, 0, 0);
+        LocalDateTime saturdayEvening = saturday.plusHours(20);
+        int hourOfWeek = HourIndex.hourOfWeek(HourIndex.of(saturday));
+        Scenario scenario = new Scenario(saturday, saturday.plusDays(1))
+                .addClosure("Princes Bridge", saturday.plusHours(18), saturday.plusHours(23));
+        SimulationResult result = simulator.run(scenario, 10000, 1);
+
+        Assert.assertEquals(profileMean(profiles, 0, hourOfWeek), result.getMean("State Library", saturday), 15);
+        Assert.assertEquals(profiles.sample(0, hourOfWeek, 0.25), result.getQuantile("State Library", saturday, 0.25), 30);
+        Assert.assertEquals(0, result.getQuantile("Princes Bridge", saturdayEvening, 0.99), 0.0);
+        Assert.assertTrue(result.getMeanChange("Birrarung Marr", saturdayEvening) > 0);
+        Assert.assertEquals(0, result.getMeanChange("Birrarung Marr", saturday), 0.0);
+    }
+
+    @Ignore("Benchmark, run by hand")
+    @Test
+    public void benchmarkWeekLongRun() {
+        ScenarioSimulator simulator = new ScenarioSimulator(profilesFromSketches(), graph);
+        LocalDateTime monday = LocalDateTime.of(2015, 3, 16, 0, 0);
+        Scenario scenario = new Scenario(monday, monday.plusDays(7))
+                .addClosure("Princes Bridge", monday.plusDays(5).plusHours(18), monday.plusDays(5).plusHours(23));
+        int trials = 10000;
+
+        long start = System.nanoTime();
+        simulator.run(scenario, trials, 1);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("ScenarioSimulator: %d trials x %d hours x %d sensors in %.2f s",
+                trials, scenario.getHours(), sensorNames.length, seconds));
+    }
+}
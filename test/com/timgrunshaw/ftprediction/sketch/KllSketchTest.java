@@ -0,0 +1,87 @@
+package com.timgrunshaw.ftprediction.sketch;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author Tim Grunshaw
+ */
+public class KllSketchTest {
+
+    private static final int N = 200000;
+    private static final double RANK_ERROR = 0.02;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testQuantiles() {
+        // Shuffled 0..N-1, so the value at quantile q is q * N.
+        int[] values = new int[N];
+        for (int i = 0; i < N; i++) {
+            values[i] = i;
+        }
+        Random random = new Random(1);
+        for (int i = N - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = values[i];
+            values[i] = values[j];
+            values[j] = tmp;
+        }
+
+        KllSketch sketch = new KllSketch();
+        for (int v : values) {
+            sketch.update(v);
+        }
+        Assert.assertEquals(N, sketch.getN());
+        assert sketch.getRetained() < 1000 : "Sketch is too large: " + sketch.getRetained();
+        for (double q : new double[]{0.01, 0.5, 0.9, 0.99}) {
+            Assert.assertEquals(q * N, sketch.quantile(q), RANK_ERROR * N);
+        }
+    }
+
+    @Test
+    public void testMerge() {
+        KllSketch low = new KllSketch();
+        KllSketch high = new KllSketch();
+        for (int i = 0; i < N / 2; i++) {
+            low.update(i);
+            high.update(N / 2 + i);
+        }
+        low.merge(high);
+        Assert.assertEquals(N, low.getN());
+        Assert.assertEquals(0.5 * N, low.quantile(0.5), RANK_ERROR * N);
+        Assert.assertEquals(0.9 * N, low.quantile(0.9), RANK_ERROR * N);
+    }
+
+    @Test
+    public void testSensorSketchesRoundTrip() throws IOException {
+        String[] sensors = {"Princes Bridge", "Webb Bridge"};
+        SensorSketches sketches = new SensorSketches(sensors);
+        LocalDateTime saturday9pm = LocalDateTime.of(2015, 3, 14, 21, 0);
+        for (int week = 0; week < 100; week++) {
+            sketches.add("Princes Bridge", saturday9pm.plusWeeks(week), week);
+            sketches.add("Webb Bridge", saturday9pm.plusWeeks(week), 1000 + week);
+        }
+        int hourOfWeek = 5 * 24 + 21;
+        Assert.assertEquals(50, sketches.quantile("Princes Bridge", hourOfWeek, 0.5), 2);
+        Assert.assertTrue(Double.isNaN(sketches.quantile("Princes Bridge", 0, 0.5)));
+
+        Path file = tempFolder.newFile().toPath();
+        sketches.write(file);
+        SensorSketches read = SensorSketches.read(file);
+        Assert.assertEquals(sketches.quantile("Webb Bridge", hourOfWeek, 0.9),
+                read.quantile("Webb Bridge", hourOfWeek, 0.9), 0.0);
+
+        KllSketch both = read.merged(sensors, hourOfWeek, hourOfWeek + 1);
+        Assert.assertEquals(200, both.getN());
+        Assert.assertEquals(1000, both.quantile(0.75), 50);
+    }
+}
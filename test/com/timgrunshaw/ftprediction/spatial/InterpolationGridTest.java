@@ -0,0 +1,322 @@
+package com.timgrunshaw.ftprediction.spatial;
+
+import com.timgrunshaw.ftprediction.data.Melbourne;
+import com.timgrunshaw.ftprediction.data.SensorColumns;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * @author Tim Grunshaw
+ */
+public class InterpolationGridTest {
+
+    private static final Path LOCATIONS = Paths.get("test", "resources", "melbourneTest", "sensor_locations.csv");
+
+    private String[] sensorNames;
+    private SensorLocations locations;
+
+    @Before
+    public void setUp() throws IOException {
+        sensorNames = new Melbourne().getSensorNames();
+        locations = SensorLocations.load(LOCATIONS, sensorNames);
+    }
+
+    @Test
+    public void testProjectionRoundTrips() {
+        int s = locations.getSensorIndex("Flinders St Station Underpass");
+        Assert.assertEquals(locations.getLatitude(s), locations.toLatitude(locations.getY(s)), 1e-9);
+        Assert.assertEquals(locations.getLongitude(s), locations.toLongitude(locations.getX(s)), 1e-9);
+
+        // Princes Bridge is about 180m east of the underpass.
+        int p = locations.getSensorIndex("Princes Bridge");
+        double dx = locations.getX(p) - locations.getX(s);
+        double dy = locations.getY(p) - locations.getY(s);
+        Assert.assertEquals(176, Math.sqrt(dx * dx + dy * dy), 5);
+    }
+
+    @Test
+    public void testKdTreeMatchesBruteForce() {
+        Random random = new Random(7);
+        int points = 1000;
+        double[] x = new double[points];
+        double[] y = new double[points];
+        int[] ids = new int[points];
+        for (int i = 0; i < points; i++) {
+            // Coarse coordinates, so there are ties on both axes.
+            x[i] = random.nextInt(200);
+            y[i] = random.nextInt(200);
+            ids[i] = i;
+        }
+        KdTree tree = new KdTree(x, y, ids);
+
+        int k = 10;
+        int[] found = new int[k];
+        double[] distances = new double[k];
+        for (int q = 0; q < 200; q++) {
+            double qx = random.nextDouble() * 220 - 10;
+            double qy = random.nextDouble() * 220 - 10;
+            Assert.assertEquals(k, tree.nearest(qx, qy, k, found, distances));
+
+            double[] all = new double[points];
+            for (int i = 0; i < points; i++) {
+                all[i] = Math.hypot(qx - x[i], qy - y[i]);
+            }
+            Arrays.sort(all);
+            for (int i = 0; i < k; i++) {
+                Assert.assertEquals(all[i], distances[i], 1e-9);
+                Assert.assertEquals(distances[i], Math.hypot(qx - x[found[i]], qy - y[found[i]]), 1e-9);
+            }
+        }
+
+        Assert.assertEquals(3, new KdTree(new double[]{0, 1, 2}, new double[]{0, 0, 0}, new int[]{0, 1, 2})
+                .nearest(0, 0, 5, found, distances));
+    }
+
+    @Test
+    public void testInterpolatorsAreExactAtSensors() {
+        Variogram variogram = new Variogram(0, 1000, 300);
+        Interpolator[] interpolators = {
+            new IdwInterpolator(locations),
+            new KrigingInterpolator(locations, variogram)
+        };
+        double[] values = new double[sensorNames.length];
+        for (int s = 0; s < values.length; s++) {
+            values[s] = 100 * (s + 1);
+        }
+        for (Interpolator interpolator : interpolators) {
+            InterpolationGrid grid = new InterpolationGrid(locations, interpolator,
+                    new double[]{locations.getX(3), locations.getX(20)},
+                    new double[]{locations.getY(3), locations.getY(20)});
+            double[] estimates = new double[2];
+            grid.evaluate(values, estimates);
+            Assert.assertEquals(values[3], estimates[0], 1e-6);
+            Assert.assertEquals(values[20], estimates[1], 1e-6);
+        }
+    }
+
+    @Test
+    public void testWeightsSumToOne() {
+        Interpolator[] interpolators = {
+            new IdwInterpolator(locations),
+            new KrigingInterpolator(locations, new Variogram(50, 1000, 300))
+        };
+        int[] sensors = new int[KrigingInterpolator.DEFAULT_NEIGHBOURS];
+        double[] weights = new double[KrigingInterpolator.DEFAULT_NEIGHBOURS];
+        for (Interpolator interpolator : interpolators) {
+            int n = interpolator.weights(locations.toX(144.9650), locations.toY(-37.8150), sensors, weights);
+            Assert.assertEquals(interpolator.getMaxSensors(), n);
+            double total = 0;
+            for (int i = 0; i < n; i++) {
+                total += weights[i];
+            }
+            Assert.assertEquals(1, total, 1e-9);
+        }
+
+        // The kriging variance is 0 on top of a sensor, and far from every
+        // sensor is the sill plus the error of estimating the mean.
+        KrigingInterpolator kriging = new KrigingInterpolator(locations, new Variogram(0, 1000, 300));
+        kriging.weights(locations.getX(5), locations.getY(5), sensors, weights);
+        Assert.assertEquals(0, kriging.getLastVariance(), 1e-6);
+        kriging.weights(1e6, 1e6, sensors, weights);
+        Assert.assertTrue(kriging.getLastVariance() > 1000);
+        Assert.assertTrue(kriging.getLastVariance() < 1500);
+    }
+
+    @Test
+    public void testMissingSensorsAreLeftOut() {
+        InterpolationGrid grid = InterpolationGrid.regular(locations, new IdwInterpolator(locations), 100, 200);
+        int hours = 2;
+        int[][] counts = new int[sensorNames.length][hours];
+        long[][] missing = new long[sensorNames.length][1];
+        for (int s = 0; s < sensorNames.length; s++) {
+            Arrays.fill(counts[s], 500);
+        }
+        int flindersUnderpass = locations.getSensorIndex("Flinders St Station Underpass");
+        counts[flindersUnderpass][1] = 0;
+        missing[flindersUnderpass][0] |= 1L << 1;
+        SensorColumns columns = new SensorColumns(sensorNames, 1000, counts, missing);
+
+        double[] estimates = new double[grid.getPointCount()];
+        for (int hour = 1000; hour < 1000 + hours; hour++) {
+            grid.evaluate(columns, hour, estimates);
+            for (double estimate : estimates) {
+                Assert.assertEquals(500, estimate, 1e-6);
+            }
+        }
+        grid.evaluate(columns, 5000, estimates);
+        Assert.assertTrue(Double.isNaN(estimates[0]));
+    }
+
+    @Test
+    public void testKrigingWithMissingSensors() {
+        KrigingInterpolator kriging = new KrigingInterpolator(locations, new Variogram(0, 1000, 300));
+        int located = 0;
+        for (int s = 0; s < sensorNames.length; s++) {
+            located += locations.isLocated(s) ? 1 : 0;
+        }
+        double[] x = new double[located];
+        double[] y = new double[located];
+        int[] atSensor = new int[located];
+        for (int s = 0, p = 0; s < sensorNames.length; s++) {
+            if (locations.isLocated(s)) {
+                x[p] = locations.getX(s);
+                y[p] = locations.getY(s);
+                atSensor[p++] = s;
+            }
+        }
+        InterpolationGrid grid = new InterpolationGrid(locations, kriging, x, y);
+        double[] values = new double[sensorNames.length];
+        for (int s = 0; s < values.length; s++) {
+            values[s] = 100 * (s + 1);
+        }
+        double[] estimates = new double[located];
+        boolean[] present = new boolean[sensorNames.length];
+
+        // On top of a missing sensor nearly all of the weight is gone.
+        for (int p = 0; p < located; p++) {
+            Arrays.fill(present, true);
+            present[atSensor[p]] = false;
+            grid.evaluate(values, present, estimates);
+            Assert.assertTrue(Double.isNaN(estimates[p]));
+        }
+
+        // A missing sensor elsewhere leaves the estimate alone.
+        Arrays.fill(present, true);
+        present[atSensor[0]] = false;
+        grid.evaluate(values, present, estimates);
+        for (int p = 1; p < located; p++) {
+            Assert.assertEquals(values[atSensor[p]], estimates[p], 1);
+        }
+    }
+
+    @Test
+    public void testVariogramFit() {
+        // Counts of a smooth random field plus noise, so nearby sensors are alike.
+        Random random = new Random(11);
+        int hours = 2000;
+        int[][] counts = new int[sensorNames.length][hours];
+        double[] fx = new double[4];
+        double[] fy = new double[4];
+        for (int h = 0; h < hours; h++) {
+            for (int i = 0; i < fx.length; i++) {
+                fx[i] = random.nextGaussian() / 400;
+                fy[i] = random.nextGaussian() / 400;
+            }
+            double phase = random.nextDouble() * 2 * Math.PI;
+            for (int s = 0; s < sensorNames.length; s++) {
+                double field = 0;
+                for (int i = 0; i < fx.length; i++) {
+                    field += Math.cos(fx[i] * locations.getX(s) + fy[i] * locations.getY(s) + phase + i);
+                }
+                counts[s][h] = (int) Math.round(1000 + 100 * field + 10 * random.nextGaussian());
+            }
+        }
+        SensorColumns columns = new SensorColumns(sensorNames, 0, counts);
+        Variogram variogram = Variogram.fit(locations, columns, 0, hours);
+
+        Assert.assertTrue(variogram.getNugget() < variogram.getPartialSill());
+        Assert.assertTrue(variogram.semivariance(50) < variogram.semivariance(500));
+        Assert.assertTrue(variogram.semivariance(500) < variogram.semivariance(2000));
+
+        // Kriging with the fitted variogram beats the mean of all sensors when
+        // a sensor is left out.
+        double krigingError = 0;
+        double meanError = 0;
+        for (int left = 0; left < sensorNames.length; left++) {
+            double[] latitudes = new double[sensorNames.length];
+            double[] longitudes = new double[sensorNames.length];
+            for (int s = 0; s < sensorNames.length; s++) {
+                latitudes[s] = s == left ? Double.NaN : locations.getLatitude(s);
+                longitudes[s] = s == left ? Double.NaN : locations.getLongitude(s);
+            }
+            SensorLocations without = new SensorLocations(sensorNames, latitudes, longitudes);
+            InterpolationGrid grid = new InterpolationGrid(without, new KrigingInterpolator(without, variogram),
+                    new double[]{without.toX(locations.getLongitude(left))},
+                    new double[]{without.toY(locations.getLatitude(left))});
+            double[] estimate = new double[1];
+            for (int h = 0; h < hours; h += 10) {
+                grid.evaluate(columns, h, estimate);
+                double mean = 0;
+                for (int s = 0; s < sensorNames.length; s++) {
+                    mean += s == left ? 0 : counts[s][h];
+                }
+                mean /= sensorNames.length - 1;
+                krigingError += Math.abs(estimate[0] - counts[left][h]);
+                meanError += Math.abs(mean - counts[left][h]);
+            }
+        }
+        Assert.assertTrue(krigingError + " vs " + meanError, krigingError < meanError);
+    }
+
+    @Test
+    public void testColumnsAreMatchedByName() {
+        InterpolationGrid grid = InterpolationGrid.regular(locations, new IdwInterpolator(locations), 200, 200);
+        double[] values = new double[sensorNames.length];
+        String[] reversed = new String[sensorNames.length];
+        int[][] counts = new int[sensorNames.length][1];
+        for (int s = 0; s < sensorNames.length; s++) {
+            values[s] = 100 * (s + 1);
+            int column = sensorNames.length - 1 - s;
+            reversed[column] = sensorNames[s];
+            counts[column][0] = 100 * (s + 1);
+        }
+        double[] expected = new double[grid.getPointCount()];
+        grid.evaluate(values, expected);
+        double[] estimates = new double[grid.getPointCount()];
+        grid.evaluate(new SensorColumns(reversed, 1000, counts), 1000, estimates);
+        Assert.assertArrayEquals(expected, estimates, 1e-9);
+
+        try {
+            grid.evaluate(new SensorColumns(new String[]{sensorNames[0]}, 1000, new int[][]{{1}}), 1000, estimates);
+            Assert.fail("Columns without the located sensors");
+        } catch (IllegalArgumentException iaEx) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testKrigingGridEstimates() {
+        InterpolationGrid grid = krigingGrid(50);
+        double[] estimates = new double[grid.getPointCount()];
+        grid.evaluate(sensorValues(), estimates);
+        for (double estimate : estimates) {
+            Assert.assertTrue(estimate > 0 && estimate < 4000);
+        }
+    }
+
+    @Ignore("Benchmark, run by hand")
+    @Test
+    public void benchmarkGridSpeed() {
+        InterpolationGrid grid = krigingGrid(10);
+        double[] values = sensorValues();
+        double[] estimates = new double[grid.getPointCount()];
+        int rounds = 50;
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            grid.evaluate(values, estimates);
+        }
+        long nanos = System.nanoTime() - start;
+        System.out.println("Kriging grid of " + grid.getPointCount() + " points: "
+                + (double) nanos / rounds / grid.getPointCount() + " ns/point");
+    }
+
+    private InterpolationGrid krigingGrid(double spacing) {
+        Variogram variogram = new Variogram(100, 10000, 400);
+        return InterpolationGrid.regular(locations, new KrigingInterpolator(locations, variogram), spacing, 200);
+    }
+
+    private double[] sensorValues() {
+        double[] values = new double[sensorNames.length];
+        for (int s = 0; s < values.length; s++) {
+            values[s] = 100 * (s + 1);
+        }
+        return values;
+    }
+}